@@ -2,6 +2,7 @@ package de.piegames.blockmap.standalone;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.net.InetSocketAddress;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -9,7 +10,15 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,10 +39,14 @@ import de.piegames.blockmap.renderer.RegionRenderer;
 import de.piegames.blockmap.renderer.RegionShader.DefaultShader;
 import de.piegames.blockmap.renderer.RenderSettings;
 import de.piegames.blockmap.standalone.CommandLineMain.CommandRender;
+import de.piegames.blockmap.standalone.CommandLineMain.CommandServe;
 import de.piegames.blockmap.standalone.CommandLineMain.CommandServer;
 import de.piegames.blockmap.world.LevelMetadata;
+import de.piegames.blockmap.world.MetadataCache;
 import de.piegames.blockmap.world.RegionFolder.CachedRegionFolder;
 import de.piegames.blockmap.world.RegionFolder.WorldRegionFolder;
+import de.piegames.blockmap.world.RenderPipeline;
+import de.piegames.blockmap.world.RenderPipeline.Stage;
 import de.piegames.blockmap.world.ServerMetadata;
 import io.gsonfire.GsonFireBuilder;
 import net.dongliu.gson.GsonJava8TypeAdapterFactory;
@@ -50,7 +63,7 @@ import picocli.CommandLine.Spec;
 @Command(name = "blockmap",
 		versionProvider = VersionProvider.class,
 		synopsisSubcommandLabel = "COMMAND",
-		subcommands = { CommandRender.class, CommandServer.class },
+		subcommands = { CommandRender.class, CommandServer.class, CommandServe.class },
 		footerHeading = "%n",
 		footer = "This is the command line interface of blockmap. To access the GUI (if installed), run `blockmap-gui`.")
 public class CommandLineMain implements Callable<Integer> {
@@ -178,13 +191,68 @@ public class CommandLineMain implements Callable<Integer> {
 		private boolean				force;
 		@Option(names = { "-p", "--pins" }, description = "Load pin data from the world. This requires the use of the --dimension option")
 		private boolean				pins;
+		@Option(names = "--statistics",
+				description = "Collect statistics about the top blocks, biomes, heights and chunk generation status of each region while rendering"
+						+ " and save them next to the region metadata.")
+		private boolean				statistics;
 
 		@Option(names = "--create-tile-html",
 				description = "Generate a tiles.html in the output directory that will show all rendered images ona mapin your browsed.")
 		private boolean				createHtml;
+		@Option(names = "--create-tile-pyramid",
+				description = "Generate a zoomable tile pyramid in the output directory, together with a pyramid.html to view it. It will be updated"
+						+ " incrementally on subsequent runs.")
+		private boolean				createPyramid;
+		@Option(names = "--pyramid-levels",
+				paramLabel = "<LEVELS>",
+				description = "The number of zoomed out levels of the tile pyramid.",
+				defaultValue = "5",
+				showDefaultValue = Visibility.ALWAYS)
+		private int					pyramidLevels;
 		@Option(names = "--create-big-image",
-				description = "Merge all rendered images into a single file. May require a lot of RAM.")
+				description = "Merge all rendered images into a single file.")
 		private boolean				createBigPic;
+		@Option(names = "--big-image-downscale",
+				paramLabel = "<FACTOR>",
+				description = "Shrink the big image by this factor to get an overview of large worlds.",
+				defaultValue = "1")
+		private int					bigPicDownscale;
+		@Option(names = "--order",
+				description = "The order in which to render the regions: ${COMPLETION-CANDIDATES}. Use this together with --max-duration to keep the"
+						+ " most important areas up to date.",
+				defaultValue = "ANY",
+				showDefaultValue = Visibility.ALWAYS)
+		private RegionOrder			order;
+		@Option(names = "--max-duration",
+				paramLabel = "<SECONDS>",
+				description = "Stop rendering new regions after this time and save the progress. The remaining regions will be rendered on the"
+						+ " next run. Defaults to no limit.")
+		private long				maxDuration;
+		@Option(names = "--stage-threads",
+				paramLabel = "<STAGE>=<THREADS>",
+				split = ",",
+				description = "The number of threads for each stage of the render pipeline, for example `RENDER=8,ENCODE=4`. Stages are ${COMPLETION-CANDIDATES}."
+						+ " Stages that are not given get a default based on the number of processors. Use --verbose to see how busy each stage is.")
+		private Map<Stage, Integer>	stageThreads	= new EnumMap<>(Stage.class);
+		@Option(names = "--watch",
+				description = "Keep running after rendering and re-render regions as soon as the game changes them.")
+		private boolean				watch;
+		@Option(names = "--watch-poll",
+				description = "Check the region files for changes regularly instead of relying on notifications of the file system. Use this if"
+						+ " the world is on a network drive.")
+		private boolean				watchPoll;
+		@Option(names = "--debounce",
+				paramLabel = "<SECONDS>",
+				description = "How long a region file must stay unchanged before it gets re-rendered in watch mode.",
+				defaultValue = "10",
+				showDefaultValue = Visibility.ALWAYS)
+		private long				debounce;
+		@Option(names = "--save-interval",
+				paramLabel = "<SECONDS>",
+				description = "How often to save the rendered world in watch mode.",
+				defaultValue = "60",
+				showDefaultValue = Visibility.ALWAYS)
+		private long				saveInterval;
 
 		@Override
 		public Integer call() {
@@ -203,6 +271,7 @@ public class CommandLineMain implements Callable<Integer> {
 			settings.blockColors = colorMap.getColorMap();
 			settings.biomeColors = BiomeColorMap.loadDefault();
 			settings.regionShader = shader.getShader();
+			settings.collectStatistics = statistics;
 
 			RegionRenderer renderer = new RegionRenderer(settings);
 			Path input = this.input;
@@ -229,6 +298,7 @@ public class CommandLineMain implements Callable<Integer> {
 				log.error("Specified region folder is not a directory");
 				return 2;
 			}
+			long deadline = maxDuration > 0 ? System.currentTimeMillis() + maxDuration * 1000 : Long.MAX_VALUE;
 			WorldRegionFolder world;
 			CachedRegionFolder cached;
 			try {
@@ -238,38 +308,58 @@ public class CommandLineMain implements Callable<Integer> {
 				log.error("Could not load region folder", e);
 				return 1;
 			}
+			MetadataCache metadataCache = MetadataCache.load(output.resolve(MetadataCache.FILE_NAME));
+			Optional<LevelMetadata> levelMetadata = Optional.empty();
+			if (pins || order == RegionOrder.SPAWN || order == RegionOrder.PLAYERS)
+				levelMetadata = Optional.of(LevelMetadata.loadFromWorld(input, dimension, metadataCache, Optional.empty(), Optional.of(settings)));
 
 			/* Actual rendering */
 
-			for (Vector2ic pos : world.listRegions()) {
-				if (!PostProcessing.inBounds(pos.x(), settings.minX, settings.maxX)
-						|| !PostProcessing.inBounds(pos.y(), settings.minZ, settings.maxZ))
-					continue;
-				try {
-					cached.render(pos);
-				} catch (IOException e) {
-					log.error("Could not render region file", e);
-				}
-			}
+			renderAll(world, cached, settings, stageThreads, order.sort(world, world.listRegions(), levelMetadata, Optional.empty()), deadline);
 
 			/* Post-processing, saving */
 
 			if (pins) {
-				world.setPins(LevelMetadata.loadFromWorld(input, dimension));
+				world.setPins(levelMetadata.get());
 			}
 
 			try {
 				cached.save();
+				metadataCache.save();
 			} catch (IOException e) {
 				log.error("Could not save the rendered world", e);
 				return 1;
 			}
 
+			if (createPyramid) {
+				int ret = PostProcessing.createTilePyramid(cached, output, settings, pyramidLevels);
+				if (ret != 0)
+					return ret;
+			}
+			int ret = 0;
 			if (createBigPic)
-				return PostProcessing.createBigImage(cached, output, settings);
-			if (createHtml)
-				return PostProcessing.createTileHtml(cached, output, settings);
-			return 0;
+				ret = PostProcessing.createBigImage(cached, output, settings, bigPicDownscale);
+			else if (createHtml)
+				ret = PostProcessing.createTileHtml(cached, output, settings);
+			if (ret != 0 || !watch)
+				return ret;
+
+			/* Watch mode */
+
+			Path worldDir = input;
+			RegionWatcher watcher = new RegionWatcher(Runtime.getRuntime().availableProcessors(), debounce * 1000, 1000,
+					saveInterval * 1000, watchPoll);
+			watcher.addWorld(worldDir.getFileName().toString(), inputRegion, world, cached,
+					pos -> settings.isRegionVisible(pos.x(), pos.y()),
+					() -> {
+						if (pins)
+							world.setPins(LevelMetadata.loadFromWorld(worldDir, dimension, metadataCache, Optional.empty(), Optional.of(settings)));
+						cached.save();
+						metadataCache.save();
+						if (createPyramid)
+							PostProcessing.createTilePyramid(cached, output, settings, pyramidLevels);
+					});
+			return runWatcher(watcher);
 		}
 	}
 
@@ -282,12 +372,48 @@ public class CommandLineMain implements Callable<Integer> {
 	/* TODO configuration file man page / help */
 	public static class CommandServer implements Callable<Integer> {
 		@ParentCommand
-		private CommandLineMain	main;
+		private CommandLineMain		main;
 
 		@Parameters(index = "0",
 				paramLabel = "CONFIG",
 				description = "Path to the config.json")
-		private Path input;
+		private Path				input;
+		@Option(names = "--order",
+				description = "The order in which to render the regions: ${COMPLETION-CANDIDATES}. Use this together with --max-duration to keep the"
+						+ " most important areas up to date.",
+				defaultValue = "ANY",
+				showDefaultValue = Visibility.ALWAYS)
+		private RegionOrder			order;
+		@Option(names = "--max-duration",
+				paramLabel = "<SECONDS>",
+				description = "Stop rendering new regions after this time and save the progress. The remaining regions will be rendered on the"
+						+ " next run. The time is shared by all worlds, which are rendered in the order of the config file. Defaults to no limit.")
+		private long				maxDuration;
+		@Option(names = "--stage-threads",
+				paramLabel = "<STAGE>=<THREADS>",
+				split = ",",
+				description = "The number of threads for each stage of the render pipeline, for example `RENDER=8,ENCODE=4`. Stages are ${COMPLETION-CANDIDATES}."
+						+ " Stages that are not given get a default based on the number of processors. Use --verbose to see how busy each stage is.")
+		private Map<Stage, Integer>	stageThreads	= new EnumMap<>(Stage.class);
+		@Option(names = "--watch",
+				description = "Keep running after rendering and re-render regions of all worlds as soon as the game changes them.")
+		private boolean				watch;
+		@Option(names = "--watch-poll",
+				description = "Check the region files for changes regularly instead of relying on notifications of the file system. Use this if"
+						+ " the world is on a network drive.")
+		private boolean				watchPoll;
+		@Option(names = "--debounce",
+				paramLabel = "<SECONDS>",
+				description = "How long a region file must stay unchanged before it gets re-rendered in watch mode.",
+				defaultValue = "10",
+				showDefaultValue = Visibility.ALWAYS)
+		private long				debounce;
+		@Option(names = "--save-interval",
+				paramLabel = "<SECONDS>",
+				description = "How often to save the rendered worlds in watch mode.",
+				defaultValue = "60",
+				showDefaultValue = Visibility.ALWAYS)
+		private long				saveInterval;
 
 		@Override
 		public Integer call() {
@@ -303,8 +429,12 @@ public class CommandLineMain implements Callable<Integer> {
 				return 2;
 			}
 
+			long deadline = maxDuration > 0 ? System.currentTimeMillis() + maxDuration * 1000 : Long.MAX_VALUE;
 			ServerMetadata serverMetadata = settings.serverMetadata.orElse(new ServerMetadata());
 			serverMetadata.levels = new ArrayList<>(settings.worlds.length);
+			RegionWatcher watcher = watch
+					? new RegionWatcher(Runtime.getRuntime().availableProcessors(), debounce * 1000, 1000, saveInterval * 1000, watchPoll)
+					: null;
 
 			/* Render all worlds */
 			for (ServerSettings.RegionFolderSettings folderSettings : settings.worlds) {
@@ -347,36 +477,65 @@ public class CommandLineMain implements Callable<Integer> {
 					return 1;
 				}
 
+				MetadataCache metadataCache = MetadataCache.load(settings.outputDir.resolve(folderSettings.name).resolve(MetadataCache.FILE_NAME));
+				Optional<Set<String>> poiTypes = settings.pinSettings.flatMap(pinSettings -> pinSettings.showPOIs);
+				var levelMetadata = LevelMetadata.loadFromWorld(input, folderSettings.dimension, metadataCache, poiTypes,
+						Optional.of(folderSettings.renderSettings));
+
 				/* Actual rendering */
 
-				for (Vector2ic pos : world.listRegions()) {
-					if (!PostProcessing.inBounds(pos.x(), folderSettings.renderSettings.minX, folderSettings.renderSettings.maxX)
-							|| !PostProcessing.inBounds(pos.y(), folderSettings.renderSettings.minZ, folderSettings.renderSettings.maxZ))
-						continue;
-					try {
-						cached.render(pos);
-					} catch (IOException e) {
-						log.error("Could not render region file", e);
-					}
-				}
+				if (System.currentTimeMillis() > deadline)
+					log.warn("Reached the maximum duration, skipping all " + world.listRegions().size() + " regions of world " + folderSettings.name);
+				else
+					renderAll(world, cached, folderSettings.renderSettings, stageThreads,
+							order.sort(world, world.listRegions(), Optional.of(levelMetadata), serverMetadata.onlinePlayers), deadline);
 
 				/* Post-processing, saving */
 
 				var online = serverMetadata.onlinePlayers.orElse(Collections.emptySet());
-				var levelMetadata = LevelMetadata.loadFromWorld(input, folderSettings.dimension);
 				if (settings.pinSettings.isPresent()) {
 					var pinSettings = settings.pinSettings.get();
 					levelMetadata = pinSettings.apply(levelMetadata, online);
-					pinSettings.showStructures.ifPresent(cached::filterStructures);
 				}
 				world.setPins(levelMetadata);
 
 				try {
+					if (settings.pinSettings.isPresent() && settings.pinSettings.get().showStructures.isPresent())
+						cached.filterStructures(settings.pinSettings.get().showStructures.get());
 					cached.save();
+					metadataCache.save();
 				} catch (IOException e) {
 					log.error("Could not save the rendered world", e);
 					return 1;
 				}
+
+				if (folderSettings.tilePyramidLevels > 0) {
+					int ret = PostProcessing.createTilePyramid(cached, settings.outputDir.resolve(folderSettings.name), folderSettings.renderSettings,
+							folderSettings.tilePyramidLevels);
+					if (ret != 0)
+						return ret;
+				}
+
+				if (watcher != null) {
+					Path worldDir = input;
+					RenderSettings renderSettings = folderSettings.renderSettings;
+					watcher.addWorld(folderSettings.name, inputRegion, world, cached,
+							pos -> renderSettings.isRegionVisible(pos.x(), pos.y()),
+							() -> {
+								var metadata = LevelMetadata.loadFromWorld(worldDir, folderSettings.dimension, metadataCache, poiTypes,
+										Optional.of(renderSettings));
+								if (settings.pinSettings.isPresent())
+									metadata = settings.pinSettings.get().apply(metadata, online);
+								world.setPins(metadata);
+								if (settings.pinSettings.isPresent() && settings.pinSettings.get().showStructures.isPresent())
+									cached.filterStructures(settings.pinSettings.get().showStructures.get());
+								cached.save();
+								metadataCache.save();
+								if (folderSettings.tilePyramidLevels > 0)
+									PostProcessing.createTilePyramid(cached, settings.outputDir.resolve(folderSettings.name), renderSettings,
+											folderSettings.tilePyramidLevels);
+							});
+				}
 			}
 
 			/* Save the index file */
@@ -388,10 +547,184 @@ public class CommandLineMain implements Callable<Integer> {
 				return 1;
 			}
 
+			if (watcher != null)
+				return runWatcher(watcher);
+			return 0;
+		}
+	}
+
+	@Command(name = "serve",
+			sortOptions = false,
+			description = "Start a web server that renders the worlds of a configuration file on demand. The GUI can connect to it like to any"
+					+ " other server.",
+			footerHeading = "%n",
+			footer = "This uses the same configuration file as `render-many`. Please don't forget that you can use global options too, which can"
+					+ " be listed through `blockmap --help`. These have to be put before the serve command.")
+	public static class CommandServe implements Callable<Integer> {
+		@ParentCommand
+		private CommandLineMain	main;
+
+		@Parameters(index = "0",
+				paramLabel = "CONFIG",
+				description = "Path to the config.json")
+		private Path			input;
+		@Option(names = "--host",
+				description = "The address to listen on. Use 0.0.0.0 to make the server reachable from other machines.",
+				defaultValue = "localhost",
+				showDefaultValue = Visibility.ALWAYS)
+		private String			host;
+		@Option(names = "--port", description = "The port to listen on.", defaultValue = "8080", showDefaultValue = Visibility.ALWAYS)
+		private int				port;
+		@Option(names = "--threads",
+				description = "The number of requests to handle in parallel. Defaults to the number of processors.")
+		private int				threads	= Runtime.getRuntime().availableProcessors();
+		@Option(names = "--cache-size",
+				paramLabel = "<MiB>",
+				description = "How many MiB of rendered files to keep in memory.",
+				defaultValue = "256",
+				showDefaultValue = Visibility.ALWAYS)
+		private long			cacheSize;
+		@Option(names = "--save-interval",
+				paramLabel = "<SECONDS>",
+				description = "How often to save the rendered worlds to the output directory.",
+				defaultValue = "300",
+				showDefaultValue = Visibility.ALWAYS)
+		private long			saveInterval;
+
+		@Override
+		public Integer call() {
+			main.runAll();
+			checkLogger();
+
+			ServerSettings settings;
+			try {
+				settings = GSON.fromJson(new String(Files.readAllBytes(input.toAbsolutePath())), ServerSettings.class);
+			} catch (JsonParseException | IOException e) {
+				log.error("Could not parse the settings file", e);
+				return 2;
+			}
+
+			TileServer server;
+			try {
+				server = new TileServer(new InetSocketAddress(host, port), threads, cacheSize << 20, settings.serverMetadata.orElse(new ServerMetadata()));
+			} catch (IOException e) {
+				log.error("Could not start the server", e);
+				return 1;
+			}
+
+			for (ServerSettings.RegionFolderSettings folderSettings : settings.worlds) {
+				log.info("Loading world " + folderSettings.name);
+				Path input = folderSettings.inputDir;
+				if (!Files.isDirectory(input) && input.getFileName().toString().equals("level.dat"))
+					input = input.getParent();
+				Path inputRegion = input.resolve(folderSettings.dimension.getRegionPath());
+				if (!Files.isDirectory(inputRegion)) {
+					log.error("Specified region folder " + inputRegion + " does not exist or is not a directory");
+					return 2;
+				}
+
+				RegionRenderer renderer = new RegionRenderer(folderSettings.renderSettings);
+				WorldRegionFolder world;
+				CachedRegionFolder cached;
+				try {
+					world = WorldRegionFolder.load(inputRegion, renderer, folderSettings.dimension == MinecraftDimension.NETHER);
+					/* Regions are always rendered lazily, otherwise nothing could ever be reused */
+					cached = CachedRegionFolder.create(world, true, settings.outputDir.resolve(folderSettings.name));
+				} catch (IOException e) {
+					log.error("Could not load region folder", e);
+					return 1;
+				}
+
+				MetadataCache metadataCache = MetadataCache.load(settings.outputDir.resolve(folderSettings.name).resolve(MetadataCache.FILE_NAME));
+				Optional<Set<String>> poiTypes = settings.pinSettings.flatMap(pinSettings -> pinSettings.showPOIs);
+				var levelMetadata = LevelMetadata.loadFromWorld(input, folderSettings.dimension, metadataCache, poiTypes,
+						Optional.of(folderSettings.renderSettings));
+				try {
+					metadataCache.save();
+				} catch (IOException e) {
+					log.warn("Could not save the metadata cache", e);
+				}
+				if (settings.pinSettings.isPresent()) {
+					var pinSettings = settings.pinSettings.get();
+					levelMetadata = pinSettings.apply(levelMetadata, settings.serverMetadata.flatMap(m -> m.onlinePlayers).orElse(Collections.emptySet()));
+					if (pinSettings.showStructures.isPresent()) {
+						cached.setStructureFilter(pinSettings.showStructures.get());
+						try {
+							cached.filterStructures(pinSettings.showStructures.get());
+						} catch (IOException e) {
+							log.error("Could not load the rendered world", e);
+							return 1;
+						}
+					}
+				}
+				world.setPins(levelMetadata);
+				server.addWorld(folderSettings.name, cached, folderSettings.renderSettings);
+			}
+
+			server.start(saveInterval);
+			Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+			try {
+				server.awaitStop();
+			} catch (InterruptedException e) {
+				server.stop();
+			}
 			return 0;
 		}
 	}
 
+	/**
+	 * Render the given regions of a world in order, skipping those that are not within the bounds of the settings, using a
+	 * {@link RenderPipeline}. Regions that fail to render will be logged and skipped.
+	 *
+	 * @param deadline
+	 *            the time in milliseconds after which no more regions will be started. Those that are already in the pipeline will be
+	 *            finished.
+	 */
+	private static void renderAll(WorldRegionFolder world, CachedRegionFolder cached, RenderSettings settings, Map<Stage, Integer> stageThreads,
+			List<Vector2ic> regions, long deadline) {
+		ScheduledExecutorService statistics = Executors.newSingleThreadScheduledExecutor();
+		try (RenderPipeline pipeline = new RenderPipeline(world, cached, stageThreads)) {
+			statistics.scheduleAtFixedRate(() -> log.debug("Render pipeline: " + pipeline), 10, 10, TimeUnit.SECONDS);
+			for (int i = 0; i < regions.size(); i++) {
+				if (System.currentTimeMillis() > deadline) {
+					log.warn("Reached the maximum duration, skipping the remaining " + (regions.size() - i) + " regions");
+					break;
+				}
+				Vector2ic pos = regions.get(i);
+				if (!settings.isRegionVisible(pos.x(), pos.y()))
+					continue;
+				pipeline.submit(pos);
+			}
+			int failed = pipeline.awaitCompletion();
+			if (failed > 0)
+				log.warn(failed + " regions could not be rendered");
+			log.info("Render pipeline: " + pipeline);
+		} catch (InterruptedException e) {
+			log.warn("Got interrupted while rendering, stopping");
+			Thread.currentThread().interrupt();
+		} finally {
+			statistics.shutdownNow();
+		}
+	}
+
+	/** Run the watcher until the application gets terminated, then save everything a last time. */
+	private static int runWatcher(RegionWatcher watcher) {
+		try {
+			watcher.start();
+		} catch (IOException e) {
+			log.error("Could not watch the world for changes", e);
+			watcher.close();
+			return 1;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(watcher::close));
+		try {
+			watcher.awaitClose();
+		} catch (InterruptedException e) {
+			watcher.close();
+		}
+		return 0;
+	}
+
 	/** Separate method for testing the exit code without quitting the application */
 	public static int mainWithoutQuit(String... args) {
 		/* Without this, JOML will print vectors out in scientific notation which isn't the most human readable thing in the world */
@@ -0,0 +1,166 @@
+package de.piegames.blockmap.standalone;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A minimal PNG encoder that writes an RGBA image one row at a time. In contrast to {@link javax.imageio.ImageIO}, it never needs
+ * the whole image in memory, which makes it suitable for images that are too large to fit on the heap.
+ */
+class PngWriter implements Closeable {
+
+	private static final byte[]			SIGNATURE	= { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	private static final int			CHUNK_SIZE	= 1 << 16;
+
+	private final DataOutputStream		out;
+	private final DeflaterOutputStream	data;
+	private final Deflater				deflater;
+	private final int					width, height;
+	private int							row;
+	/* Filtered scan line, including the leading filter type byte */
+	private final byte[]				line;
+	/* Unfiltered RGBA bytes of the current and the previous row, needed for the Paeth filter */
+	private byte[]						current, previous;
+
+	/** Writes the PNG header. The image data must then be passed in using {@link #writeRow(int[], int)}, exactly {@code height} times. */
+	public PngWriter(OutputStream out, int width, int height) throws IOException {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+		this.out = new DataOutputStream(out);
+		this.width = width;
+		this.height = height;
+		this.line = new byte[width * 4 + 1];
+		this.current = new byte[width * 4];
+		this.previous = new byte[width * 4];
+
+		this.out.write(SIGNATURE);
+		byte[] header = new byte[13];
+		writeInt(header, 0, width);
+		writeInt(header, 4, height);
+		header[8] = 8; /* Bit depth */
+		header[9] = 6; /* Color type: RGBA */
+		/* Compression, filter and interlace methods are all zero */
+		writeChunk("IHDR", header, header.length);
+
+		deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		data = new DeflaterOutputStream(new IdatOutputStream(), deflater, CHUNK_SIZE);
+	}
+
+	/**
+	 * Encodes one row of the image.
+	 *
+	 * @param argb
+	 *            the pixels as non-premultiplied ARGB integers, like the ones from {@link java.awt.image.BufferedImage#getRGB(int, int)}
+	 * @param offset
+	 *            the index of the first pixel of the row within {@code argb}. {@code width} pixels will be read starting from there.
+	 */
+	public void writeRow(int[] argb, int offset) throws IOException {
+		if (row >= height)
+			throw new IllegalStateException("All " + height + " rows have already been written");
+		for (int i = 0; i < width; i++) {
+			int color = argb[offset + i];
+			current[i * 4] = (byte) (color >> 16);
+			current[i * 4 + 1] = (byte) (color >> 8);
+			current[i * 4 + 2] = (byte) color;
+			current[i * 4 + 3] = (byte) (color >> 24);
+		}
+		/* Paeth filter. It is a good default for map images and doesn't need any heuristics */
+		line[0] = 4;
+		for (int i = 0; i < current.length; i++) {
+			int a = i >= 4 ? current[i - 4] & 0xFF : 0;
+			int b = previous[i] & 0xFF;
+			int c = i >= 4 ? previous[i - 4] & 0xFF : 0;
+			line[i + 1] = (byte) (current[i] - paeth(a, b, c));
+		}
+		data.write(line);
+
+		byte[] tmp = previous;
+		previous = current;
+		current = tmp;
+		row++;
+	}
+
+	/** Finishes the image data and writes the trailer. This will close the underlying output stream as well. */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (row != height)
+				throw new IOException("Only " + row + " out of " + height + " rows have been written");
+			data.finish();
+			data.flush();
+			writeChunk("IEND", new byte[0], 0);
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc)
+			return a;
+		else if (pb <= pc)
+			return b;
+		else
+			return c;
+	}
+
+	private void writeChunk(String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	/** Collects the compressed data and splits it up into IDAT chunks */
+	private class IdatOutputStream extends OutputStream {
+		private final byte[]	buffer	= new byte[CHUNK_SIZE];
+		private int				length;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (length == buffer.length)
+				flush();
+			buffer[length++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (length == buffer.length)
+					flush();
+				int n = Math.min(len, buffer.length - length);
+				System.arraycopy(b, off, buffer, length, n);
+				length += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (length > 0) {
+				writeChunk("IDAT", buffer, length);
+				length = 0;
+			}
+		}
+	}
+}
@@ -1,18 +1,17 @@
 package de.piegames.blockmap.standalone;
 
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import javax.imageio.ImageIO;
-
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.joml.Vector2i;
@@ -50,7 +49,7 @@ public class PostProcessing {
 
 		Set<Vector2ic> allowedBlocks = world.listRegions()
 				.stream()
-				.filter(v -> inBounds(v.x(), settings.minX, settings.maxX) && inBounds(v.y(), settings.minZ, settings.maxZ))
+				.filter(v -> settings.isRegionVisible(v.x(), v.y()))
 				.collect(Collectors.toSet());
 		if (allowedBlocks.isEmpty()) {
 			log.warn("No chunks selected, please increase your bounds");
@@ -100,17 +99,65 @@ public class PostProcessing {
 		return 0;
 	}
 
+	/**
+	 * Generate or update a zoomable tile pyramid of all rendered regions within the bounds of the render settings, together with a
+	 * {@code pyramid.html} to view it in a browser.
+	 * 
+	 * @see TilePyramid
+	 */
+	public static int createTilePyramid(LocalRegionFolder world, Path outputDir, RenderSettings settings, int levels) {
+		log.info("Creating tile pyramid...");
+		if (levels < 0) {
+			log.error("The number of pyramid levels must not be negative, but was " + levels);
+			return 2;
+		}
+		Set<Vector2ic> allowedBlocks = world.listRegions()
+				.stream()
+				.filter(v -> settings.isRegionVisible(v.x(), v.y()))
+				.collect(Collectors.toSet());
+		try {
+			TilePyramid pyramid = new TilePyramid(world, outputDir, levels);
+			int failed = pyramid.update(allowedBlocks);
+			pyramid.writeHtml();
+			if (failed > 0) {
+				log.error(failed + " tiles could not be generated");
+				return 1;
+			}
+		} catch (IOException e) {
+			log.error("Could not create tile pyramid", e);
+			return 1;
+		}
+		return 0;
+	}
+
 	public static int createBigImage(RegionFolder world, Path outputDir, RenderSettings settings) {
+		return createBigImage(world, outputDir, settings, 1);
+	}
+
+	/**
+	 * Merge all rendered regions within the bounds of the render settings into a single {@code big.png}. The image is assembled and
+	 * encoded one row of regions at a time, so only the images of those need to be kept in memory and the size of the output is not
+	 * limited by the available heap.
+	 * 
+	 * @param downscale
+	 *            shrink the image by this factor, averaging each {@code downscale x downscale} block of pixels into one. Use 1 for the
+	 *            full resolution.
+	 */
+	public static int createBigImage(RegionFolder world, Path outputDir, RenderSettings settings, int downscale) {
 		log.info("Creating big image...");
 		if (world.listRegions().isEmpty()) {
 			log.warn("The world is empty, there is nothing to do!");
 			return 0;
 		}
+		if (downscale < 1) {
+			log.error("The downscale factor must be positive, but was " + downscale);
+			return 2;
+		}
 
 		/** The bounds of the rendered files, in region coordinates */
 		Set<Vector2ic> allowedBlocks = world.listRegions()
 				.stream()
-				.filter(v -> inBounds(v.x(), settings.minX, settings.maxX) && inBounds(v.y(), settings.minZ, settings.maxZ))
+				.filter(v -> settings.isRegionVisible(v.x(), v.y()))
 				.collect(Collectors.toSet());
 		if (allowedBlocks.isEmpty()) {
 			log.warn("No chunks selected, please increase your bounds");
@@ -129,34 +176,95 @@ public class PostProcessing {
 
 		int width = maxPixelX - minPixelX;
 		int height = maxPixelZ - minPixelZ;
-		log.debug("Dimension: " + width + ", " + height);
-		BufferedImage bigImage = null;
-		try {
-			bigImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-		} catch (Throwable t) {
-			log.error("Could not create image, is it too big?", t);
-			return 1;
+		if (width <= 0 || height <= 0) {
+			log.warn("No chunks selected, please increase your bounds");
+			return 2;
 		}
+		int outWidth = (width + downscale - 1) / downscale;
+		int outHeight = (height + downscale - 1) / downscale;
+		log.debug("Dimension: " + width + ", " + height + ", output: " + outWidth + ", " + outHeight);
 
-		for (Vector2ic pos : world.listRegions()) {
-			BufferedImage region = null;
-			try {
-				region = world.render(pos).getImage();
-			} catch (IOException e) {
-				log.warn("Could not load image " + pos, e);
-				continue;
+		Path outputFile = outputDir.resolve("big.png");
+		try (PngWriter png = new PngWriter(new BufferedOutputStream(Files.newOutputStream(outputFile)), outWidth, outHeight)) {
+			int[] line = new int[width];
+			int[] outLine = new int[outWidth];
+			/* Sums of the premultiplied color channels and the alpha channel of each output pixel in the current output row */
+			long[] sums = new long[outWidth * 4];
+			int[][] tiles = new int[maxX - minX + 1][];
+
+			for (int z = minZ; z <= maxZ; z++) {
+				/* Load one row of regions */
+				for (int x = minX; x <= maxX; x++) {
+					tiles[x - minX] = null;
+					Vector2ic pos = new Vector2i(x, z);
+					if (!allowedBlocks.contains(pos))
+						continue;
+					try {
+						BufferedImage region = world.render(pos).getImage();
+						tiles[x - minX] = region.getRGB(0, 0, 512, 512, null, 0, 512);
+					} catch (IOException e) {
+						log.warn("Could not load image " + pos, e);
+					}
+				}
+
+				/* Stream the pixel rows covered by this band into the encoder */
+				int fromZ = Math.max(z << 9, minPixelZ), toZ = Math.min((z << 9) + 512, maxPixelZ);
+				for (int pixelZ = fromZ; pixelZ < toZ; pixelZ++) {
+					for (int pixelX = minPixelX; pixelX < maxPixelX;) {
+						int[] tile = tiles[(pixelX >> 9) - minX];
+						int end = Math.min(((pixelX >> 9) + 1) << 9, maxPixelX);
+						if (tile == null)
+							Arrays.fill(line, pixelX - minPixelX, end - minPixelX, 0);
+						else
+							System.arraycopy(tile, (pixelX & 511) | (pixelZ & 511) << 9, line, pixelX - minPixelX, end - pixelX);
+						pixelX = end;
+					}
+
+					if (downscale == 1) {
+						png.writeRow(line, 0);
+					} else {
+						for (int i = 0; i < width; i++) {
+							int color = line[i], alpha = color >>> 24, j = (i / downscale) * 4;
+							sums[j] += ((color >> 16) & 0xFF) * alpha;
+							sums[j + 1] += ((color >> 8) & 0xFF) * alpha;
+							sums[j + 2] += (color & 0xFF) * alpha;
+							sums[j + 3] += alpha;
+						}
+						int row = pixelZ - minPixelZ;
+						if ((row + 1) % downscale == 0 || row + 1 == height) {
+							int rows = row % downscale + 1;
+							for (int i = 0; i < outWidth; i++) {
+								int columns = Math.min(downscale, width - i * downscale);
+								outLine[i] = averagePremultiplied(sums, i * 4, rows * columns);
+							}
+							png.writeRow(outLine, 0);
+							Arrays.fill(sums, 0);
+						}
+					}
+				}
 			}
-			bigImage.createGraphics().drawImage(region, pos.x() * 512 - minPixelX, pos.y() * 512 - minPixelZ, null);
-			log.debug("Region " + pos.x() + ", " + pos.y() + " drawn to " + (pos.x() * 512 - minPixelX) + ", " + (pos.y() * 512 - minPixelZ));
-		}
-		try {
-			ImageIO.write(bigImage, "png", new File(outputDir + "/big.png"));
 		} catch (IOException e) {
-			log.error("Could not write big image to " + outputDir + "/big.png", e);
+			log.error("Could not write big image to " + outputFile, e);
+			return 1;
 		}
 		return 0;
 	}
 
+	/**
+	 * Convert the accumulated premultiplied channels of some pixels back into one non-premultiplied ARGB color. Averaging premultiplied
+	 * values prevents the color of transparent pixels from bleeding into the result.
+	 */
+	private static int averagePremultiplied(long[] sums, int offset, int count) {
+		long alpha = sums[offset + 3];
+		if (alpha == 0)
+			return 0;
+		int r = (int) (sums[offset] / alpha);
+		int g = (int) (sums[offset + 1] / alpha);
+		int b = (int) (sums[offset + 2] / alpha);
+		int a = (int) (alpha / count);
+		return a << 24 | r << 16 | g << 8 | b;
+	}
+
 	/** Test if the given region file contains blocks that should be rendered. The bounds are given in world space. */
 	public static boolean inBounds(int region, int min, int max) {
 		return (min >> 9) <= region && region <= (max >> 9);
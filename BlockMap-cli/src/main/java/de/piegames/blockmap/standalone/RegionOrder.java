@@ -0,0 +1,99 @@
+package de.piegames.blockmap.standalone;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joml.Vector2d;
+import org.joml.Vector2dc;
+import org.joml.Vector2ic;
+
+import de.piegames.blockmap.world.LevelMetadata;
+import de.piegames.blockmap.world.RegionFolder;
+
+/**
+ * The order in which the regions of a world get rendered. This matters when rendering gets interrupted or has a limited time budget: the
+ * regions at the front of the queue are the ones that will be up to date.
+ */
+public enum RegionOrder {
+	/** No particular order */
+	ANY,
+	/** The most recently modified region files first */
+	NEWEST,
+	/** Closest to the world spawn first */
+	SPAWN,
+	/** Closest to any (online) player first. Falls back to {@link #SPAWN} if there are no players in this dimension. */
+	PLAYERS;
+
+	private static Log log = LogFactory.getLog(RegionOrder.class);
+
+	/**
+	 * Sort the regions according to this order.
+	 *
+	 * @param metadata
+	 *            the metadata of the world, to get the spawn and player positions from. If missing, the world origin will be used as spawn.
+	 * @param onlinePlayers
+	 *            the UUIDs of the players that are online. If present, only their positions count for {@link #PLAYERS}.
+	 */
+	public List<Vector2ic> sort(RegionFolder world, Collection<Vector2ic> regions, Optional<LevelMetadata> metadata,
+			Optional<Set<String>> onlinePlayers) {
+		List<Vector2ic> sorted = new ArrayList<>(regions);
+		switch (this) {
+		case ANY:
+			break;
+		case NEWEST:
+			Map<Vector2ic, Long> timestamps = new HashMap<>();
+			for (Vector2ic pos : sorted) {
+				try {
+					timestamps.put(pos, world.getTimestamp(pos));
+				} catch (IOException e) {
+					timestamps.put(pos, 0L);
+				}
+			}
+			sorted.sort(Comparator.comparing(timestamps::get, Comparator.reverseOrder()));
+			break;
+		case PLAYERS:
+			List<Vector2dc> players = metadata.flatMap(LevelMetadata::getPlayers).stream()
+					.flatMap(List::stream)
+					.filter(player -> onlinePlayers.isEmpty() || player.getUUID().map(onlinePlayers.get()::contains).orElse(false))
+					.map(player -> new Vector2d(player.getPosition().x(), player.getPosition().z()))
+					.collect(Collectors.toList());
+			if (players.isEmpty()) {
+				log.debug("No players found, rendering the regions around the spawn first");
+				sortByDistance(sorted, List.of(getSpawn(metadata)));
+			} else
+				sortByDistance(sorted, players);
+			break;
+		case SPAWN:
+			sortByDistance(sorted, List.of(getSpawn(metadata)));
+			break;
+		}
+		return sorted;
+	}
+
+	/** The position of the world spawn, or the origin if it is not known */
+	private static Vector2dc getSpawn(Optional<LevelMetadata> metadata) {
+		return metadata.flatMap(LevelMetadata::getWorldSpawn)
+				.map(pin -> (Vector2dc) new Vector2d(pin.getSpawnpoint().x(), pin.getSpawnpoint().z()))
+				.orElse(new Vector2d());
+	}
+
+	/** Sort the regions by the distance of their center to the closest of the given block positions */
+	private static void sortByDistance(List<Vector2ic> regions, List<Vector2dc> targets) {
+		Map<Vector2ic, Double> distances = new HashMap<>();
+		for (Vector2ic pos : regions) {
+			double centerX = (pos.x() << 9) + 256, centerZ = (pos.y() << 9) + 256;
+			distances.put(pos, targets.stream().mapToDouble(target -> target.distanceSquared(centerX, centerZ)).min().orElse(0));
+		}
+		regions.sort(Comparator.comparing(distances::get));
+	}
+}
@@ -0,0 +1,295 @@
+package de.piegames.blockmap.standalone;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joml.Vector2ic;
+
+import de.piegames.blockmap.world.RegionFolder.CachedRegionFolder;
+import de.piegames.blockmap.world.RegionFolder.WorldRegionFolder;
+
+/**
+ * Keeps rendered worlds up to date while the game is running. The region folders are watched for changes using a {@link WatchService},
+ * or by regularly polling the timestamps of the region files if that is not available. Since the game writes region files in bursts while
+ * saving, each region is only re-rendered once no further changes came in for a while. Rendering happens on a background pool and the
+ * worlds are saved periodically if anything changed.
+ */
+public class RegionWatcher implements AutoCloseable {
+
+	private static Log log = LogFactory.getLog(RegionWatcher.class);
+
+	/** Saving a world, including all the post-processing that should happen afterwards */
+	@FunctionalInterface
+	public static interface SaveAction {
+		void save() throws IOException;
+	}
+
+	private static class WatchedWorld {
+		final String					name;
+		final Path						regionFolder;
+		final WorldRegionFolder			world;
+		final CachedRegionFolder		cached;
+		final Predicate<Vector2ic>		filter;
+		final SaveAction				save;
+
+		/* Regions with recent changes, mapped to the time of the last change */
+		final Map<Vector2ic, Long>		pending	= new ConcurrentHashMap<>();
+		/* Regions that are waiting to be rendered */
+		final Set<Vector2ic>			queued	= ConcurrentHashMap.newKeySet();
+		/* Last modified timestamps of all region files, for polling and for rescanning after missed events */
+		final Map<Path, Long>			timestamps	= new HashMap<>();
+		/* Whether the timestamps have been scanned once. Guarded by timestamps. */
+		boolean							scanned;
+		final AtomicBoolean				dirty	= new AtomicBoolean();
+		boolean							polling;
+
+		WatchedWorld(String name, Path regionFolder, WorldRegionFolder world, CachedRegionFolder cached, Predicate<Vector2ic> filter, SaveAction save) {
+			this.name = name;
+			this.regionFolder = regionFolder;
+			this.world = world;
+			this.cached = cached;
+			this.filter = filter;
+			this.save = save;
+		}
+	}
+
+	private final List<WatchedWorld>		worlds		= new ArrayList<>();
+	private final Map<WatchKey, WatchedWorld>	watchKeys	= new HashMap<>();
+	private final long						debounce, pollInterval, saveInterval;
+	private final boolean					forcePolling;
+	private final ThreadPoolExecutor		renderPool;
+	private final ScheduledExecutorService	scheduler	= Executors.newSingleThreadScheduledExecutor();
+	private final CountDownLatch			closed		= new CountDownLatch(1);
+	private WatchService					watchService;
+	private Thread							watchThread;
+
+	/**
+	 * @param threads
+	 *            the number of regions to render in parallel
+	 * @param debounce
+	 *            the time in milliseconds a region file must stay unchanged before it gets rendered
+	 * @param pollInterval
+	 *            how often to check for changes in milliseconds, if polling is used
+	 * @param saveInterval
+	 *            how often to save the worlds in milliseconds
+	 * @param forcePolling
+	 *            always poll instead of using the file system's notifications. Use this for network drives and other file systems
+	 *            where the notifications are not reliable.
+	 */
+	public RegionWatcher(int threads, long debounce, long pollInterval, long saveInterval, boolean forcePolling) {
+		this.renderPool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+		this.debounce = debounce;
+		this.pollInterval = pollInterval;
+		this.saveInterval = saveInterval;
+		this.forcePolling = forcePolling;
+	}
+
+	/**
+	 * Watch a world. All changed regions that pass the filter will be rendered through the {@link CachedRegionFolder}.
+	 */
+	public void addWorld(String name, Path regionFolder, WorldRegionFolder world, CachedRegionFolder cached, Predicate<Vector2ic> filter, SaveAction save) {
+		worlds.add(new WatchedWorld(name, regionFolder, world, cached, filter, save));
+	}
+
+	public void start() throws IOException {
+		for (WatchedWorld world : worlds) {
+			world.polling = forcePolling;
+			if (!world.polling) {
+				try {
+					if (watchService == null)
+						watchService = FileSystems.getDefault().newWatchService();
+					WatchKey key = world.regionFolder.register(watchService,
+							StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_MODIFY,
+							StandardWatchEventKinds.ENTRY_DELETE);
+					watchKeys.put(key, world);
+				} catch (IOException | UnsupportedOperationException e) {
+					log.warn("Cannot watch " + world.regionFolder + " for changes, falling back to polling", e);
+					world.polling = true;
+				}
+			}
+			/* Remember the current state, even if the folder is watched, to know what changed if events get lost */
+			scan(world);
+			log.info("Watching world " + world.name + " for changes" + (world.polling ? " (polling)" : ""));
+		}
+
+		if (!watchKeys.isEmpty()) {
+			watchThread = new Thread(this::watch, "region-watcher");
+			watchThread.setDaemon(true);
+			watchThread.start();
+		}
+		if (worlds.stream().anyMatch(world -> world.polling))
+			scheduler.scheduleWithFixedDelay(() -> {
+				for (WatchedWorld world : worlds)
+					if (world.polling)
+						scan(world);
+			}, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+		long tick = Math.max(100, Math.min(1000, debounce / 4));
+		scheduler.scheduleWithFixedDelay(this::dispatch, tick, tick, TimeUnit.MILLISECONDS);
+		scheduler.scheduleWithFixedDelay(this::save, saveInterval, saveInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/** Block until the watcher has been closed. */
+	public void awaitClose() throws InterruptedException {
+		closed.await();
+	}
+
+	/**
+	 * Stop watching, finish the renders that are already running and save all worlds one last time. Regions that are still waiting to be
+	 * rendered are dropped, they will be rendered the next time.
+	 */
+	@Override
+	public void close() {
+		if (closed.getCount() == 0)
+			return;
+		try {
+			if (watchService != null)
+				watchService.close();
+		} catch (IOException e) {
+			log.warn("Could not close the watch service", e);
+		}
+		scheduler.shutdownNow();
+		/* Don't interrupt the running renders, that would abort writing their images */
+		renderPool.shutdown();
+		renderPool.getQueue().clear();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+			renderPool.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		save();
+		closed.countDown();
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = nextKey(watchService);
+				WatchedWorld world = watchKeys.get(key);
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						/* We missed some events, so look at everything */
+						log.debug("Too many changes in " + world.regionFolder + ", rescanning");
+						scan(world);
+						continue;
+					}
+					Vector2ic pos = WorldRegionFolder.parsePosition(((Path) event.context()).getFileName().toString());
+					if (pos != null)
+						world.pending.put(pos, System.currentTimeMillis());
+				}
+				if (!key.reset()) {
+					log.error("The region folder " + world.regionFolder + " cannot be watched anymore");
+					watchKeys.remove(key);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			/* Shutting down */
+		}
+	}
+
+	/** Wait for the next key that has events */
+	protected WatchKey nextKey(WatchService watchService) throws InterruptedException {
+		return watchService.take();
+	}
+
+	/** Compare the timestamps of all region files with the ones from the last scan and mark the changed ones. */
+	private void scan(WatchedWorld world) {
+		synchronized (world.timestamps) {
+			Map<Path, Long> current = new HashMap<>();
+			try (Stream<Path> files = Files.list(world.regionFolder)) {
+				for (Path file : (Iterable<Path>) files::iterator) {
+					if (WorldRegionFolder.parsePosition(file.getFileName().toString()) != null)
+						current.put(file, Files.getLastModifiedTime(file).toMillis());
+				}
+			} catch (IOException e) {
+				log.warn("Could not scan " + world.regionFolder + " for changes", e);
+				return;
+			}
+			/* The first scan only records the current state, everything up to now has been rendered at start */
+			boolean initial = !world.scanned;
+			world.scanned = true;
+			long now = System.currentTimeMillis();
+			for (var entry : current.entrySet())
+				if (!initial && !entry.getValue().equals(world.timestamps.get(entry.getKey())))
+					world.pending.put(WorldRegionFolder.parsePosition(entry.getKey().getFileName().toString()), now);
+			for (Path removed : world.timestamps.keySet())
+				if (!current.containsKey(removed))
+					world.pending.put(WorldRegionFolder.parsePosition(removed.getFileName().toString()), now);
+			world.timestamps.clear();
+			world.timestamps.putAll(current);
+		}
+	}
+
+	/** Render all regions that have not been changed for long enough */
+	private void dispatch() {
+		long now = System.currentTimeMillis();
+		for (WatchedWorld world : worlds) {
+			for (var entry : world.pending.entrySet()) {
+				if (now - entry.getValue() < debounce)
+					continue;
+				Vector2ic pos = entry.getKey();
+				if (!world.pending.remove(pos, entry.getValue()))
+					continue;
+				Path file = world.regionFolder.resolve("r." + pos.x() + "." + pos.y() + ".mca");
+				if (!world.world.updateRegion(pos, file)) {
+					log.debug("Region " + pos + " of world " + world.name + " has been deleted");
+					try {
+						world.cached.remove(pos);
+					} catch (IOException e) {
+						log.warn("Could not delete the rendered region " + pos + " of world " + world.name, e);
+					}
+					world.dirty.set(true);
+					continue;
+				}
+				if (world.filter.test(pos) && world.queued.add(pos))
+					renderPool.submit(() -> {
+						world.queued.remove(pos);
+						try {
+							log.debug("Re-rendering region " + pos + " of world " + world.name);
+							world.cached.render(pos);
+							world.dirty.set(true);
+						} catch (IOException | RuntimeException e) {
+							log.error("Could not render region file", e);
+						}
+					});
+			}
+		}
+	}
+
+	private void save() {
+		for (WatchedWorld world : worlds) {
+			if (!world.dirty.getAndSet(false))
+				continue;
+			try {
+				world.save.save();
+			} catch (IOException | RuntimeException e) {
+				log.error("Could not save the rendered world " + world.name, e);
+			}
+		}
+	}
+}
@@ -96,6 +96,9 @@ public class ServerSettings {
 		public Path inputDir;
 		public MinecraftDimension dimension = MinecraftDimension.OVERWORLD;
 		public boolean force = false;
+		/** The number of zoomed out levels of the tile pyramid to generate. Zero disables the pyramid. */
+		@SerializedName("tile pyramid levels")
+		public int tilePyramidLevels = 0;
 		@SerializedName("render settings")
 		public RenderSettings renderSettings = new RenderSettings();
 	}
@@ -0,0 +1,79 @@
+package de.piegames.blockmap.standalone;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache for encoded files (tiles, metadata) of the {@link TileServer}. Its size is bounded by the total number
+ * of bytes of all cached files instead of their number, since the size of region images varies a lot.
+ */
+class TileCache {
+
+	/** An encoded file together with the values needed to validate it */
+	static class Entry {
+		final byte[]	data;
+		final String	etag;
+		final long		lastModified;
+
+		Entry(byte[] data, String etag, long lastModified) {
+			this.data = data;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+	}
+
+	private final long					maxBytes;
+	private long						bytes;
+	private long						hits, misses;
+	/* Access order, so that the eldest entry is the least recently used one */
+	private final Map<String, Entry>	entries	= new LinkedHashMap<>(256, 0.75f, true);
+
+	public TileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the cached entry for that key, but only if its ETag matches the expected one. Outdated entries are removed.
+	 */
+	public synchronized Entry get(String key, String etag) {
+		Entry entry = entries.get(key);
+		if (entry != null && !entry.etag.equals(etag)) {
+			remove(key);
+			entry = null;
+		}
+		if (entry == null)
+			misses++;
+		else
+			hits++;
+		return entry;
+	}
+
+	/** Add an entry to the cache and evict the least recently used ones until the size limit is met again. */
+	public synchronized void put(String key, Entry entry) {
+		if (entry.data.length > maxBytes)
+			return;
+		remove(key);
+		entries.put(key, entry);
+		bytes += entry.data.length;
+		for (Iterator<Entry> it = entries.values().iterator(); bytes > maxBytes && it.hasNext();) {
+			bytes -= it.next().data.length;
+			it.remove();
+		}
+	}
+
+	private void remove(String key) {
+		Entry old = entries.remove(key);
+		if (old != null)
+			bytes -= old.data.length;
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return entries.size() + " entries, " + (bytes >> 10) + "/" + (maxBytes >> 10) + " KiB, " + hits + " hits, " + misses + " misses";
+	}
+}
@@ -0,0 +1,285 @@
+package de.piegames.blockmap.standalone;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+
+import com.google.gson.JsonParseException;
+
+import de.piegames.blockmap.world.RegionFolder.LocalRegionFolder;
+
+/**
+ * Generates a zoomable tile pyramid from the rendered region images, in a layout that can be directly consumed by Leaflet and other
+ * XYZ tile viewers: {@code tiles/<level>/<x>/<z>.png}. Level 0 contains the region images themselves, each tile of level {@code n}
+ * covers 2x2 tiles of level {@code n-1} at half the resolution.
+ * <p>
+ * The pyramid is updated incrementally. A manifest ({@code tiles/pyramid.json}) stores which regions each tile is built from and the
+ * timestamps of the region images that went into it. On the next run, only the tiles that depend on a region that changed, appeared or
+ * vanished since then will be regenerated. Tiles that don't have any regions anymore, including the ones of levels that are not generated
+ * anymore, will be deleted.
+ */
+public class TilePyramid {
+
+	private static Log log = LogFactory.getLog(TilePyramid.class);
+
+	private final LocalRegionFolder	world;
+	private final Path				outputDir;
+	private final int				levels;
+
+	/**
+	 * @param world
+	 *            the rendered regions. Each one of them must have an image on the disk.
+	 * @param outputDir
+	 *            where the {@code tiles} folder will be created in
+	 * @param levels
+	 *            the number of zoom levels to generate, not counting the full resolution one. At level {@code n}, a tile contains
+	 *            {@code 2^n x 2^n} regions.
+	 */
+	public TilePyramid(LocalRegionFolder world, Path outputDir, int levels) {
+		this.world = world;
+		this.outputDir = outputDir;
+		this.levels = levels;
+	}
+
+	/**
+	 * Bring the pyramid up to date with the given regions.
+	 *
+	 * @return the number of tiles that could not be generated
+	 */
+	public int update(Set<Vector2ic> regions) throws IOException {
+		Path tilesDir = outputDir.resolve("tiles");
+		Path manifestFile = tilesDir.resolve("pyramid.json");
+		Files.createDirectories(tilesDir);
+
+		Manifest old = null;
+		try (Reader reader = Files.newBufferedReader(manifestFile)) {
+			old = CommandLineMain.GSON.fromJson(reader, Manifest.class);
+		} catch (NoSuchFileException e) {
+		} catch (JsonParseException e) {
+			log.warn("The pyramid manifest is corrupt, regenerating all tiles", e);
+		}
+		if (old != null && (old.regions == null || old.tiles == null))
+			old = null;
+
+		/* Compare the current region images with the state the pyramid was built from */
+		Manifest manifest = new Manifest(levels);
+		Set<Vector2ic> dirty = new HashSet<>();
+		for (Vector2ic pos : regions) {
+			Path image = world.getPath(pos);
+			if (image == null || !Files.exists(image))
+				continue;
+			String key = pos.x() + "," + pos.y();
+			long timestamp = Files.getLastModifiedTime(image).toMillis();
+			manifest.regions.put(key, timestamp);
+			if (old == null || !Long.valueOf(timestamp).equals(old.regions.get(key)))
+				dirty.add(pos);
+		}
+		if (old != null)
+			for (String key : old.regions.keySet())
+				if (!manifest.regions.containsKey(key))
+					dirty.add(parseKey(key));
+
+		/* The dependencies of each tile */
+		for (String key : manifest.regions.keySet()) {
+			Vector2ic pos = parseKey(key);
+			for (int level = 0; level <= levels; level++)
+				manifest.tiles.computeIfAbsent(tileKey(level, pos.x() >> level, pos.y() >> level), k -> new ArrayList<>()).add(key);
+		}
+
+		/* A tile is outdated if it is new, if the regions it is built from changed or if one of them has a new image */
+		List<Set<Vector2ic>> outdated = new ArrayList<>(levels + 1);
+		for (int level = 0; level <= levels; level++)
+			outdated.add(new HashSet<>());
+		Set<String> dirtyKeys = new HashSet<>();
+		for (Vector2ic pos : dirty)
+			dirtyKeys.add(pos.x() + "," + pos.y());
+		for (Map.Entry<String, List<String>> tile : manifest.tiles.entrySet()) {
+			List<String> previous = old == null ? null : old.tiles.get(tile.getKey());
+			if (previous == null || !new HashSet<>(previous).equals(new HashSet<>(tile.getValue()))
+					|| tile.getValue().stream().anyMatch(dirtyKeys::contains)) {
+				String[] split = tile.getKey().split("/");
+				outdated.get(Integer.parseInt(split[0])).add(new Vector2i(Integer.parseInt(split[1]), Integer.parseInt(split[2])));
+			}
+		}
+		log.info("Updating the tile pyramid for " + dirty.size() + " out of " + manifest.regions.size() + " regions");
+
+		/* Tiles that are not built from any region anymore */
+		if (old != null)
+			for (String key : old.tiles.keySet())
+				if (!manifest.tiles.containsKey(key))
+					deleteTile(tilesDir, tilesDir.resolve(key + ".png"));
+
+		/* Tiles that could not be generated, they will be tried again on the next run */
+		Set<String> failed = ConcurrentHashMap.newKeySet();
+
+		/* Level 0: link or copy the region images */
+		outdated.get(0).parallelStream().forEach(pos -> {
+			Path tile = tilePath(tilesDir, 0, pos.x(), pos.y());
+			try {
+				Files.deleteIfExists(tile);
+				Files.createDirectories(tile.getParent());
+				Path image = world.getPath(pos);
+				try {
+					Files.createLink(tile, image);
+				} catch (IOException | UnsupportedOperationException e) {
+					Files.copy(image, tile, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} catch (IOException e) {
+				log.warn("Could not create tile for region " + pos, e);
+				failed.add(tileKey(0, pos.x(), pos.y()));
+			}
+		});
+
+		/* Build each level from the one below it. All tiles of one level are independent of each other */
+		for (int level = 1; level <= levels; level++) {
+			final int currentLevel = level;
+			outdated.get(level).parallelStream().forEach(pos -> {
+				try {
+					generateTile(tilesDir, currentLevel, pos);
+				} catch (IOException e) {
+					log.warn("Could not generate tile " + tileKey(currentLevel, pos.x(), pos.y()), e);
+					failed.add(tileKey(currentLevel, pos.x(), pos.y()));
+				}
+			});
+		}
+
+		/* Forget about the failed tiles and everything built from them */
+		for (String key : failed) {
+			String[] split = key.split("/");
+			int level = Integer.parseInt(split[0]), x = Integer.parseInt(split[1]), z = Integer.parseInt(split[2]);
+			for (int i = 0; level + i <= levels; i++)
+				manifest.tiles.remove(tileKey(level + i, x >> i, z >> i));
+		}
+		try (Writer writer = Files.newBufferedWriter(manifestFile)) {
+			CommandLineMain.GSON.toJson(manifest, writer);
+		}
+		return failed.size();
+	}
+
+	/** Write the HTML page showing the pyramid using Leaflet. */
+	public void writeHtml() throws IOException {
+		String page;
+		try (InputStream in = TilePyramid.class.getResourceAsStream("pyramid.html")) {
+			page = new String(in.readAllBytes(), "UTF-8");
+		}
+		Files.write(outputDir.resolve("pyramid.html"), page.replace("%LEVELS%", Integer.toString(levels)).getBytes("UTF-8"));
+	}
+
+	/** (Re-)generates a tile from its four children, or deletes it if none of them exists (anymore). */
+	private void generateTile(Path tilesDir, int level, Vector2ic pos) throws IOException {
+		Path tile = tilePath(tilesDir, level, pos.x(), pos.y());
+		int[] target = null;
+		int[] source = new int[512 * 512];
+		for (int i = 0; i < 4; i++) {
+			int childX = pos.x() << 1 | (i & 1), childZ = pos.y() << 1 | (i >> 1);
+			Path childPath = tilePath(tilesDir, level - 1, childX, childZ);
+			if (!Files.exists(childPath))
+				continue;
+			BufferedImage child = ImageIO.read(childPath.toFile());
+			if (child == null)
+				throw new IOException("Could not read " + childPath);
+			child.getRGB(0, 0, 512, 512, source, 0, 512);
+			if (target == null)
+				target = new int[512 * 512];
+			downsample(source, target, (i & 1) * 256, (i >> 1) * 256);
+		}
+
+		if (target == null) {
+			Files.deleteIfExists(tile);
+		} else {
+			BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+			image.setRGB(0, 0, 512, 512, target, 0, 512);
+			Files.createDirectories(tile.getParent());
+			ImageIO.write(image, "png", tile.toFile());
+		}
+	}
+
+	/**
+	 * Scale a 512x512 image down by two, averaging each 2x2 pixels block with premultiplied alpha to avoid dark edges around transparent
+	 * areas. The result is written into the 256x256 quadrant at the given offset of the target image.
+	 */
+	static void downsample(int[] source, int[] target, int offsetX, int offsetZ) {
+		for (int z = 0; z < 256; z++) {
+			for (int x = 0; x < 256; x++) {
+				int i = (x << 1) | (z << 10);
+				int c1 = source[i], c2 = source[i + 1], c3 = source[i + 512], c4 = source[i + 513];
+				int a1 = c1 >>> 24, a2 = c2 >>> 24, a3 = c3 >>> 24, a4 = c4 >>> 24;
+				int alpha = a1 + a2 + a3 + a4;
+				int color = 0;
+				if (alpha != 0) {
+					int r = (((c1 >> 16) & 0xFF) * a1 + ((c2 >> 16) & 0xFF) * a2 + ((c3 >> 16) & 0xFF) * a3 + ((c4 >> 16) & 0xFF) * a4) / alpha;
+					int g = (((c1 >> 8) & 0xFF) * a1 + ((c2 >> 8) & 0xFF) * a2 + ((c3 >> 8) & 0xFF) * a3 + ((c4 >> 8) & 0xFF) * a4) / alpha;
+					int b = ((c1 & 0xFF) * a1 + (c2 & 0xFF) * a2 + (c3 & 0xFF) * a3 + (c4 & 0xFF) * a4) / alpha;
+					color = (alpha >> 2) << 24 | r << 16 | g << 8 | b;
+				}
+				target[(offsetX + x) | (offsetZ + z) << 9] = color;
+			}
+		}
+	}
+
+	/** Delete a tile, and the folders of its column and level if they are empty afterwards */
+	private static void deleteTile(Path tilesDir, Path tile) throws IOException {
+		Files.deleteIfExists(tile);
+		for (Path folder = tile.getParent(); !folder.equals(tilesDir); folder = folder.getParent()) {
+			try {
+				Files.delete(folder);
+			} catch (DirectoryNotEmptyException e) {
+				break;
+			} catch (NoSuchFileException e) {
+			}
+		}
+	}
+
+	private static Path tilePath(Path tilesDir, int level, int x, int z) {
+		return tilesDir.resolve(Integer.toString(level)).resolve(Integer.toString(x)).resolve(z + ".png");
+	}
+
+	private static String tileKey(int level, int x, int z) {
+		return level + "/" + x + "/" + z;
+	}
+
+	private static Vector2ic parseKey(String key) {
+		String[] split = key.split(",");
+		return new Vector2i(Integer.parseInt(split[0]), Integer.parseInt(split[1]));
+	}
+
+	/** Object representation of the {@code pyramid.json} manifest */
+	static class Manifest {
+		int							levels;
+		/** The last modified timestamps of all region images the pyramid was built from, keyed by {@code "x,z"} */
+		Map<String, Long>			regions	= new HashMap<>();
+		/** For each tile ({@code "level/x/z"}), the regions it depends on */
+		Map<String, List<String>>	tiles	= new HashMap<>();
+
+		Manifest(int levels) {
+			this.levels = levels;
+		}
+
+		@SuppressWarnings("unused")
+		private Manifest() {
+			// Used by GSON
+			this(0);
+		}
+	}
+}
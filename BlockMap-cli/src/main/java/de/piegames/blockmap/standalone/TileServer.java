@@ -0,0 +1,318 @@
+package de.piegames.blockmap.standalone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.piegames.blockmap.renderer.RenderSettings;
+import de.piegames.blockmap.world.RegionFolder.CachedRegionFolder;
+import de.piegames.blockmap.world.ServerMetadata;
+
+/**
+ * An embedded HTTP server that renders region files on demand. It serves the same file layout as the output of {@code render-many},
+ * so the GUI can connect to it like to any other server:
+ * <ul>
+ * <li>{@code /index.json}: the {@link ServerMetadata} listing all worlds</li>
+ * <li>{@code /<world>/rendered.json.gz}: all regions of a world, including the ones that have not been rendered yet</li>
+ * <li>{@code /<world>/pins.json.gz}: the pins of a world</li>
+ * <li>{@code /<world>/r.<x>.<z>.png} and {@code /<world>/r.<x>.<z>.json.gz}: the image and chunk metadata of a region</li>
+ * </ul>
+ * Regions are rendered through a {@link CachedRegionFolder} the first time they are requested, or if their region file changed since.
+ * Recently used files are kept in memory. All responses carry an ETag and a Last-Modified header based on the timestamp of the region
+ * file, so clients can cache them.
+ */
+public class TileServer {
+
+	private static Log log = LogFactory.getLog(TileServer.class);
+
+	private static final Pattern			REGION_PATTERN	= Pattern.compile("^/([^/]+)/r\\.(-?\\d+)\\.(-?\\d+)\\.(png|json\\.gz)$");
+	private static final Pattern			FILE_PATTERN	= Pattern.compile("^/([^/]+)/(rendered\\.json\\.gz|pins\\.json\\.gz)$");
+	/** The world index is regenerated at most this often, since it requires looking at the timestamps of all region files */
+	private static final long				INDEX_MAX_AGE	= 30_000;
+	/** The number of locks that the regions of a world share. Unrelated regions on the same lock wait for each other, but that's rare. */
+	private static final int				LOCK_STRIPES	= 64;
+
+	private final HttpServer				server;
+	private final ExecutorService			executor;
+	private final ScheduledExecutorService	saveExecutor;
+	private final CountDownLatch			stopped			= new CountDownLatch(1);
+	private final TileCache					cache;
+	private final ServerMetadata			metadata;
+	private final Map<String, ServedWorld>	worlds			= new LinkedHashMap<>();
+	private final long						startTime		= System.currentTimeMillis();
+
+	/** A world that is served together with everything needed to answer requests for it. */
+	private static class ServedWorld {
+		final CachedRegionFolder				cached;
+		final Set<Vector2ic>					regions;
+		final Object[]							locks	= new Object[LOCK_STRIPES];
+		TileCache.Entry							index;
+		TileCache.Entry							pins;
+
+		ServedWorld(CachedRegionFolder cached, RenderSettings settings) {
+			this.cached = cached;
+			this.regions = cached.listRegions().stream()
+					.filter(v -> settings.isRegionVisible(v.x(), v.y()))
+					.collect(Collectors.toSet());
+			for (int i = 0; i < locks.length; i++)
+				locks[i] = new Object();
+		}
+
+		Object getLock(Vector2ic pos) {
+			return locks[Math.floorMod(pos.hashCode(), locks.length)];
+		}
+	}
+
+	/**
+	 * @param address
+	 *            the address to bind to
+	 * @param threads
+	 *            the number of requests that will be handled concurrently. Each one of them may need to render a region.
+	 * @param cacheBytes
+	 *            the maximum total size of the files kept in memory
+	 * @param metadata
+	 *            will be served as {@code index.json}. Its levels will be set by {@link #addWorld(String, CachedRegionFolder, RenderSettings)}.
+	 */
+	public TileServer(InetSocketAddress address, int threads, long cacheBytes, ServerMetadata metadata) throws IOException {
+		this.server = HttpServer.create(address, 0);
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.saveExecutor = Executors.newSingleThreadScheduledExecutor();
+		this.cache = new TileCache(cacheBytes);
+		this.metadata = metadata;
+		this.metadata.levels = new ArrayList<>();
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+	}
+
+	/**
+	 * Serve a world under the given name. Only the regions within the bounds of the render settings will be listed.
+	 */
+	public void addWorld(String name, CachedRegionFolder cached, RenderSettings settings) {
+		worlds.put(name, new ServedWorld(cached, settings));
+		metadata.levels.add(new ServerMetadata.ServerLevel(name, URLEncoder.encode(name, StandardCharsets.UTF_8).replace("+", "%20") + "/rendered.json.gz"));
+	}
+
+	/** Start answering requests. Rendered worlds are saved regularly in the background. */
+	public void start(long saveIntervalSeconds) {
+		server.start();
+		saveExecutor.scheduleWithFixedDelay(this::save, saveIntervalSeconds, saveIntervalSeconds, TimeUnit.SECONDS);
+		log.info("Listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/");
+	}
+
+	/** Stop the server, waiting for running requests to complete, and save all worlds. */
+	public void stop() {
+		server.stop(1);
+		saveExecutor.shutdown();
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		save();
+		stopped.countDown();
+	}
+
+	/** Block until {@link #stop()} has completed. */
+	public void awaitStop() throws InterruptedException {
+		stopped.await();
+	}
+
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	private void save() {
+		for (var world : worlds.entrySet()) {
+			try {
+				world.getValue().cached.save();
+			} catch (IOException e) {
+				log.error("Could not save world " + world.getKey(), e);
+			}
+		}
+		log.debug("Tile cache: " + cache);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+				sendError(exchange, 405);
+				return;
+			}
+			String path = exchange.getRequestURI().getPath();
+			Matcher m;
+			if (path.equals("/index.json")) {
+				byte[] data = CommandLineMain.GSON.toJson(metadata, ServerMetadata.class).getBytes(StandardCharsets.UTF_8);
+				send(exchange, new TileCache.Entry(data, etag(data), startTime), "application/json");
+			} else if ((m = REGION_PATTERN.matcher(path)).matches()) {
+				ServedWorld world = worlds.get(m.group(1));
+				Vector2ic pos = new Vector2i(Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)));
+				if (world == null || !world.regions.contains(pos)) {
+					sendError(exchange, 404);
+					return;
+				}
+				boolean image = m.group(4).equals("png");
+				send(exchange, getRegion(world, pos, image, path), image ? "image/png" : "application/gzip");
+			} else if ((m = FILE_PATTERN.matcher(path)).matches()) {
+				ServedWorld world = worlds.get(m.group(1));
+				TileCache.Entry entry = null;
+				if (world != null) {
+					if (m.group(2).equals("rendered.json.gz"))
+						entry = getIndex(world);
+					else
+						entry = getPins(world);
+				}
+				if (entry == null)
+					sendError(exchange, 404);
+				else
+					send(exchange, entry, "application/gzip");
+			} else {
+				sendError(exchange, 404);
+			}
+		} catch (IOException | RuntimeException e) {
+			log.warn("Could not answer request " + exchange.getRequestURI(), e);
+			try {
+				sendError(exchange, 500);
+			} catch (IOException | RuntimeException e1) {
+				/* The headers have probably already been sent */
+			}
+		}
+	}
+
+	/** Get the image or metadata of a region, rendering it if needed */
+	private TileCache.Entry getRegion(ServedWorld world, Vector2ic pos, boolean image, String key) throws IOException {
+		long timestamp = world.cached.getWorld().getTimestamp(pos);
+		String etag = "\"" + Long.toHexString(timestamp) + "\"";
+		TileCache.Entry entry = cache.get(key, etag);
+		if (entry != null)
+			return entry;
+
+		byte[] data;
+		/* Don't render the same region multiple times in parallel */
+		synchronized (world.getLock(pos)) {
+			if (!world.cached.isUpToDate(pos))
+				world.cached.render(pos);
+			if (image) {
+				data = Files.readAllBytes(world.cached.getPath(pos));
+			} else {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				CachedRegionFolder.saveJson(out, world.cached.getMetadata(pos).values());
+				data = out.toByteArray();
+			}
+		}
+		entry = new TileCache.Entry(data, etag, timestamp);
+		cache.put(key, entry);
+		return entry;
+	}
+
+	private TileCache.Entry getIndex(ServedWorld world) throws IOException {
+		synchronized (world) {
+			if (world.index == null || System.currentTimeMillis() - world.index.lastModified > INDEX_MAX_AGE) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				world.cached.writeIndex(out, world.regions);
+				byte[] data = out.toByteArray();
+				world.index = new TileCache.Entry(data, etag(data), System.currentTimeMillis());
+			}
+			return world.index;
+		}
+	}
+
+	private TileCache.Entry getPins(ServedWorld world) throws IOException {
+		synchronized (world) {
+			if (world.pins == null) {
+				if (world.cached.getPins().isEmpty())
+					return null;
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				CachedRegionFolder.saveJson(out, world.cached.getPins().get());
+				byte[] data = out.toByteArray();
+				world.pins = new TileCache.Entry(data, etag(data), world.cached.getTimestamp());
+			}
+			return world.pins;
+		}
+	}
+
+	private static void send(HttpExchange exchange, TileCache.Entry entry, String contentType) throws IOException {
+		Headers headers = exchange.getResponseHeaders();
+		headers.set("ETag", entry.etag);
+		headers.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(entry.lastModified), ZoneOffset.UTC)));
+		/* Clients may cache everything, but need to revalidate it since the world may change at any time */
+		headers.set("Cache-Control", "no-cache");
+		headers.set("Access-Control-Allow-Origin", "*");
+		if (isNotModified(exchange.getRequestHeaders(), entry)) {
+			exchange.sendResponseHeaders(304, -1);
+			return;
+		}
+		headers.set("Content-Type", contentType);
+		if (exchange.getRequestMethod().equals("HEAD")) {
+			headers.set("Content-Length", Integer.toString(entry.data.length));
+			exchange.sendResponseHeaders(200, -1);
+		} else {
+			exchange.sendResponseHeaders(200, entry.data.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(entry.data);
+			}
+		}
+	}
+
+	private static boolean isNotModified(Headers request, TileCache.Entry entry) {
+		String ifNoneMatch = request.getFirst("If-None-Match");
+		if (ifNoneMatch != null)
+			return ifNoneMatch.contains(entry.etag) || ifNoneMatch.trim().equals("*");
+		String ifModifiedSince = request.getFirst("If-Modified-Since");
+		if (ifModifiedSince != null) {
+			try {
+				long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+				return entry.lastModified / 1000 <= since;
+			} catch (DateTimeParseException e) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private static void sendError(HttpExchange exchange, int code) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/plain");
+		byte[] message = (code + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(code, message.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(message);
+		}
+	}
+
+	private static String etag(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(data.length) + "\"";
+	}
+}
@@ -5,20 +5,21 @@ import java.nio.file.Paths;
 
 public enum MinecraftDimension {
 
-	OVERWORLD("Overworld", 0, Paths.get("region"), Paths.get("data", "villages.dat"), Paths.get("poi")),
-	NETHER("Nether", -1, Paths.get("DIM-1", "region"), Paths.get("data", "villages_nether.dat"), Paths.get("DIM-1", "poi")),
-	END("End", 1, Paths.get("DIM1", "region"), Paths.get("data", "villages_end.dat"), Paths.get("DIM1", "poi"));
+	OVERWORLD("Overworld", 0, Paths.get("region"), Paths.get("data", "villages.dat"), Paths.get("poi"), Paths.get("data")),
+	NETHER("Nether", -1, Paths.get("DIM-1", "region"), Paths.get("data", "villages_nether.dat"), Paths.get("DIM-1", "poi"), Paths.get("DIM-1", "data")),
+	END("End", 1, Paths.get("DIM1", "region"), Paths.get("data", "villages_end.dat"), Paths.get("DIM1", "poi"), Paths.get("DIM1", "data"));
 
 	public final int index;
 	public final String	displayName;
-	public final Path regionPath, villagePath, poiPath;
+	public final Path regionPath, villagePath, poiPath, dataPath;
 
-	MinecraftDimension(String displayName, int index, Path regionPath, Path villagePath, Path poiPath) {
+	MinecraftDimension(String displayName, int index, Path regionPath, Path villagePath, Path poiPath, Path dataPath) {
 		this.displayName = displayName;
 		this.index = index;
 		this.regionPath = regionPath;
 		this.villagePath = villagePath;
 		this.poiPath = poiPath;
+		this.dataPath = dataPath;
 	}
 
 	public Path getRegionPath() {
@@ -33,6 +34,11 @@ public enum MinecraftDimension {
 		return poiPath;
 	}
 
+	/** The folder containing the dimension specific data files, like {@code chunks.dat} */
+	public Path getDataPath() {
+		return dataPath;
+	}
+
 	public static MinecraftDimension byName(String uuid) {
 		switch (uuid) {
 		case "minecraft:overworld":
@@ -0,0 +1,54 @@
+package de.piegames.blockmap.renderer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the blocks that determine the height of each column of a region, while it is being rendered. The chunk renderers map the block
+ * names of each section palette to ids once, so counting a column is just an array increment.
+ */
+public class BlockHistogram {
+
+	private final Map<String, Integer>	ids		= new HashMap<>();
+	private final List<String>			names	= new ArrayList<>();
+	private int[]						counts	= new int[64];
+	/* The columns that have been counted, in XZ order */
+	private final BitSet				columns	= new BitSet(512 * 512);
+
+	/** Get the id of a block, for {@link #add(int, int)}. Ids are assigned in the order the blocks are first seen. */
+	int getId(String blockName) {
+		Integer id = ids.get(blockName);
+		if (id == null) {
+			id = names.size();
+			ids.put(blockName, id);
+			names.add(blockName);
+			if (id == counts.length)
+				counts = Arrays.copyOf(counts, counts.length * 2);
+		}
+		return id;
+	}
+
+	/** Count a column with the block of the given id at its top. The column is given as XZ index within the region. */
+	void add(int regionXZ, int id) {
+		counts[id]++;
+		columns.set(regionXZ);
+	}
+
+	/** Whether a column has been counted, i.e. it has a top block */
+	public boolean contains(int regionXZ) {
+		return columns.get(regionXZ);
+	}
+
+	/** The number of columns for each block name. Blocks that have only been seen in a palette are not included. */
+	public Map<String, Integer> toMap() {
+		Map<String, Integer> map = new HashMap<>();
+		for (int i = 0; i < names.size(); i++)
+			if (counts[i] > 0)
+				map.put(names.get(i), counts[i]);
+		return map;
+	}
+}
@@ -0,0 +1,40 @@
+package de.piegames.blockmap.renderer;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation of rendering. The renderer checks the token before each chunk and the {@link de.piegames.blockmap.world.RegionFolder.CachedRegionFolder}
+ * before encoding and writing an image, and stops with a {@link CancellationException}. The partially rendered region is discarded.
+ * <p>
+ * Interrupting the rendering thread works as well, but the interrupt also aborts any IO that happens at that time and closes the channels
+ * involved. Use a token to cancel rendering while the threads keep being used, and interrupts only to shut them down.
+ */
+public class CancellationToken {
+
+	/** A token that is never cancelled. Rendering can still be stopped by interrupting the thread. */
+	public static final CancellationToken	NONE	= new CancellationToken();
+
+	private volatile boolean				cancelled;
+
+	/** Make all renders using this token stop at their next check. This can't be undone. */
+	public void cancel() {
+		if (this == NONE)
+			throw new UnsupportedOperationException("The NONE token can't be cancelled");
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @throws CancellationException
+	 *             if this token has been cancelled or the current thread has been interrupted. The interrupt flag stays set.
+	 */
+	public void check() {
+		if (cancelled)
+			throw new CancellationException("Rendering got cancelled");
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException("Rendering got interrupted");
+	}
+}
@@ -24,7 +24,14 @@ abstract class ChunkRenderer {
 		this.settings = settings;
 	}
 
-	abstract ChunkMetadata renderChunk(Vector2ic chunkPosRegion, Vector2ic chunkPosWorld, CompoundTag level, Color[] map, int[] height, String[] regionBiomes);
+	/**
+	 * Render the columns of a chunk into the arrays of its region. All arrays are 512*512 elements in XZ order.
+	 *
+	 * @param topBlocks
+	 *            if not {@code null}, the block that determines the height of each column will be counted in there, for collecting statistics
+	 */
+	abstract ChunkMetadata renderChunk(Vector2ic chunkPosRegion, Vector2ic chunkPosWorld, CompoundTag level, Color[] map, int[] height, String[] regionBiomes,
+			BlockHistogram topBlocks);
 
 	protected static BitSet parseBlockState(CompoundTag properties, BlockState state) {
 		BitSet ret = new BitSet(state.getSize());
@@ -40,7 +40,8 @@ public class ChunkRenderer_1_13 extends ChunkRenderer {
 	}
 
 	@Override
-	ChunkMetadata renderChunk(Vector2ic chunkPosRegion, Vector2ic chunkPosWorld, CompoundTag level, Color[] map, int[] height, String[] regionBiomes) {
+	ChunkMetadata renderChunk(Vector2ic chunkPosRegion, Vector2ic chunkPosWorld, CompoundTag level, Color[] map, int[] height, String[] regionBiomes,
+			BlockHistogram topBlocks) {
 		blockColors = settings.blockColors.get(version);
 
 		try {
@@ -198,6 +199,8 @@ public class ChunkRenderer_1_13 extends ChunkRenderer {
 								discardTop = false;
 							if (!discardTop && !colorData.isTranslucent && !heightSet) {
 								height[chunkPosRegion.x() << 4 | x | chunkPosRegion.y() << 13 | z << 9] = s << 4 | y;
+								if (topBlocks != null)
+									topBlocks.add(chunkPosRegion.x() << 4 | x | chunkPosRegion.y() << 13 | z << 9, topBlocks.getId(block.name));
 								heightSet = true;
 							}
 
@@ -2,6 +2,7 @@ package de.piegames.blockmap.renderer;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -42,7 +43,8 @@ class ChunkRenderer_1_17 extends ChunkRenderer {
 	}
 
 	@Override
-	ChunkMetadata renderChunk(Vector2ic chunkPosRegion, Vector2ic chunkPosWorld, CompoundTag level, Color[] map, int[] height, String[] regionBiomes) {
+	ChunkMetadata renderChunk(Vector2ic chunkPosRegion, Vector2ic chunkPosWorld, CompoundTag level, Color[] map, int[] height, String[] regionBiomes,
+			BlockHistogram topBlocks) {
 		blockColors = settings.blockColors.get(version);
 		if (settings.minY < 0) {
 			Arrays.fill(height, 0);
@@ -108,6 +110,8 @@ class ChunkRenderer_1_17 extends ChunkRenderer {
 			int lowestLoadedSection = 16;
 			/* Null entries indicate a section full of air */
 			BlockColor[][] loadedSections = new BlockColor[16][];
+			/* The block ids of the loaded sections, only if statistics are collected */
+			int[][] loadedBlockIds = topBlocks == null ? null : new int[16][];
 
 			/* Get the list of all sections and map them to their y coordinate using streams */
 			Map<Byte, CompoundMap> sections = level.getAsListTag("Sections")
@@ -196,7 +200,9 @@ class ChunkRenderer_1_17 extends ChunkRenderer {
 						if (s < lowestLoadedSection) {
 							// log.debug("Loading section " + s);
 							try {
-								loadedSections[s] = renderSection(sections.get(s), blockColors);
+								if (topBlocks != null)
+									loadedBlockIds[s] = new int[4096];
+								loadedSections[s] = renderSection(sections.get(s), blockColors, topBlocks, topBlocks == null ? null : loadedBlockIds[s]);
 							} catch (Exception e) {
 								log.warn("Failed to render chunk (" + chunkPosRegion.x() + ", " + chunkPosRegion.y() + ") section " + s
 										+ ". This is very likely because your chunk is corrupt. If possible, please verify it "
@@ -226,6 +232,8 @@ class ChunkRenderer_1_17 extends ChunkRenderer {
 								discardTop = false;
 							if (!discardTop && !colorData.isTranslucent && !heightSet) {
 								height[regionXZ] = h;
+								if (topBlocks != null)
+									topBlocks.add(regionXZ, loadedBlockIds[s][xzy]);
 								heightSet = true;
 							}
 
@@ -248,23 +256,26 @@ class ChunkRenderer_1_17 extends ChunkRenderer {
 
 	/**
 	 * Takes in the NBT data for a section and returns an int[] containing the color of each block in that section. The returned array thus has
-	 * a length of 16³=4096 items and the blocks are mapped to them in XZY order.
+	 * a length of 16³=4096 items and the blocks are mapped to them in XZY order. If {@code ids} is not {@code null}, the id of each block in
+	 * the histogram will be written into it in the same order.
 	 */
-	private BlockColor[] renderSection(CompoundMap section, BlockColorMap blockColors) {
+	private BlockColor[] renderSection(CompoundMap section, BlockColorMap blockColors, BlockHistogram topBlocks, int[] ids) {
 		/* Sometimes sections only contain "Y" and "SkyLight", but no "Palette"?! */
 		if (section == null || !section.containsKey("Palette"))
 			return null;
 
 		/* Parse palette */
-		List<BlockColor> palette = section.get("Palette")
+		List<CompoundTag> paletteTags = section.get("Palette")
 				.getAsListTag()
 				.flatMap(ListTag::getAsCompoundTagList)
 				.map(Tag::getValue)
-				.stream().flatMap(Collection::stream)
+				.orElse(Collections.emptyList());
+		List<BlockColor> palette = paletteTags.stream()
 				.map(map -> blockColors.getBlockColor(
 						map.getStringValue("Name").get(),
 						() -> parseBlockState(map.getAsCompoundTag("Properties").get(), version.getBlockStates())))
 				.collect(Collectors.toList());
+		int[] paletteIds = ids == null ? null : paletteTags.stream().mapToInt(map -> topBlocks.getId(map.getStringValue("Name").get())).toArray();
 
 		long[] blocks = section.get("BlockStates").getAsLongArrayTag().get().getValue();
 
@@ -278,6 +289,8 @@ class ChunkRenderer_1_17 extends ChunkRenderer {
 				continue;
 			}
 			ret[i] = palette.get(b);
+			if (ids != null)
+				ids[i] = paletteIds[b];
 		}
 
 		return ret;
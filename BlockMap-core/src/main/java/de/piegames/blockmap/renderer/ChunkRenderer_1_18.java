@@ -2,6 +2,7 @@ package de.piegames.blockmap.renderer;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,7 +44,8 @@ class ChunkRenderer_1_18 extends ChunkRenderer {
 	}
 
 	@Override
-	ChunkMetadata renderChunk(Vector2ic chunkPosRegion, Vector2ic chunkPosWorld, CompoundTag level, Color[] map, int[] height, String[] regionBiomes) {
+	ChunkMetadata renderChunk(Vector2ic chunkPosRegion, Vector2ic chunkPosWorld, CompoundTag level, Color[] map, int[] height, String[] regionBiomes,
+			BlockHistogram topBlocks) {
 		blockColors = settings.blockColors.get(version);
 
 		try {
@@ -93,6 +95,8 @@ class ChunkRenderer_1_18 extends ChunkRenderer {
 			int lowestLoadedSection = 20;
 			/* Lazily load from top to bottom */
 			BlockColor[][] loadedSections = new BlockColor[24][];
+			/* The block ids of the loaded sections, only if statistics are collected */
+			int[][] loadedBlockIds = topBlocks == null ? null : new int[24][];
 			/*
 			 * Every section is divided into 4x4x4 4x4x4 subvolumes, each of them has a biome. But for now, we simply extract the top 4x4 layer of a
 			 * chunk (16 items) and ignore the rest
@@ -188,7 +192,9 @@ class ChunkRenderer_1_18 extends ChunkRenderer {
 						if (s < lowestLoadedSection) {
 							try {
 								var section = sections.get(s);
-								loadedSections[s + 4] = renderSection(section, blockColors);
+								if (topBlocks != null)
+									loadedBlockIds[s + 4] = new int[4096];
+								loadedSections[s + 4] = renderSection(section, blockColors, topBlocks, topBlocks == null ? null : loadedBlockIds[s + 4]);
 								/* Read the biome for the top layer */
 								if (loadedTopBiomes == null) {
 									loadedTopBiomes = new String[16];
@@ -268,6 +274,8 @@ class ChunkRenderer_1_18 extends ChunkRenderer {
 								discardTop = false;
 							if (!discardTop && !colorData.isTranslucent && !heightSet) {
 								height[regionXZ] = h;
+								if (topBlocks != null)
+									topBlocks.add(regionXZ, loadedBlockIds[s + 4][xzy]);
 								heightSet = true;
 							}
 
@@ -291,20 +299,23 @@ class ChunkRenderer_1_18 extends ChunkRenderer {
 
 	/**
 	 * Takes in the NBT data for a section and returns an int[] containing the color of each block in that section. The returned array thus has
-	 * a length of 16³=4096 items and the blocks are mapped to them in XZY order.
+	 * a length of 16³=4096 items and the blocks are mapped to them in XZY order. If {@code ids} is not {@code null}, the id of each block in
+	 * the histogram will be written into it in the same order.
 	 */
-	private BlockColor[] renderSection(CompoundMap section, BlockColorMap blockColors) {
+	private BlockColor[] renderSection(CompoundMap section, BlockColorMap blockColors, BlockHistogram topBlocks, int[] ids) {
 		CompoundTag blockStates = section.get("block_states").getAsCompoundTag().get();
 
 		/* Parse palette */
-		List<BlockColor> palette = blockStates.getAsListTag("palette")
+		List<CompoundTag> paletteTags = blockStates.getAsListTag("palette")
 				.flatMap(ListTag::getAsCompoundTagList)
 				.map(Tag::getValue)
-				.stream().flatMap(Collection::stream)
+				.orElse(Collections.emptyList());
+		List<BlockColor> palette = paletteTags.stream()
 				.map(map -> blockColors.getBlockColor(
 						map.getStringValue("Name").get(),
 						() -> parseBlockState(map.getAsCompoundTag("Properties").get(), version.getBlockStates())))
 				.collect(Collectors.toList());
+		int[] paletteIds = ids == null ? null : paletteTags.stream().mapToInt(map -> topBlocks.getId(map.getStringValue("Name").get())).toArray();
 
 		BlockColor[] ret = new BlockColor[4096];
 
@@ -315,6 +326,8 @@ class ChunkRenderer_1_18 extends ChunkRenderer {
 			var state = palette.get(0);
 			for (int i = 0; i < 4096; i++)
 				ret[i] = state;
+			if (ids != null)
+				Arrays.fill(ids, paletteIds[0]);
 			return ret;
 		}
 
@@ -328,6 +341,8 @@ class ChunkRenderer_1_18 extends ChunkRenderer {
 				continue;
 			}
 			ret[i] = palette.get(b);
+			if (ids != null)
+				ids[i] = paletteIds[b];
 		}
 
 		return ret;
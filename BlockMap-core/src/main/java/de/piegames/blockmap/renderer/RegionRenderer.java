@@ -1,14 +1,18 @@
 package de.piegames.blockmap.renderer;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -20,8 +24,10 @@ import de.piegames.blockmap.color.Color;
 import de.piegames.blockmap.world.ChunkMetadata;
 import de.piegames.blockmap.world.ChunkMetadata.ChunkMetadataCulled;
 import de.piegames.blockmap.world.ChunkMetadata.ChunkMetadataFailed;
+import de.piegames.blockmap.world.ChunkMetadata.ChunkMetadataRendered;
 import de.piegames.blockmap.world.ChunkMetadata.ChunkMetadataVersion;
 import de.piegames.blockmap.world.Region;
+import de.piegames.blockmap.world.RegionStatistics;
 import de.piegames.nbt.CompoundTag;
 import de.piegames.nbt.Tag;
 import de.piegames.nbt.regionfile.Chunk;
@@ -30,7 +36,9 @@ import de.piegames.nbt.stream.NBTInputStream;
 
 public class RegionRenderer {
 
-	private static Log			log	= LogFactory.getLog(RegionRenderer.class);
+	private static Log			log				= LogFactory.getLog(RegionRenderer.class);
+	/** The color of existing chunks in a {@link #preview(Vector2ic, RegionFile)} */
+	public static final int		PREVIEW_COLOR	= 0xFF8C8C8C;
 
 	public final RenderSettings	settings;
 	private final ChunkRenderer renderer13, renderer14, renderer15, renderer16, renderer17, renderer18;
@@ -53,22 +61,32 @@ public class RegionRenderer {
 	 * @param regionPos
 	 *            The position of the region file in region coordinates. Used to check if blocks are within the bounds of the area to render.
 	 * @return An array of colors representing the final image. The image is square and 512x512 wide. The array sorted in XZ order.
+	 * @throws CancellationException
+	 *             if the thread gets interrupted
 	 */
 	public Region render(Vector2ic regionPos, RegionFile file) {
+		return render(regionPos, file, CancellationToken.NONE);
+	}
+
+	/**
+	 * Render a given {@link RegionFile}, unless the token gets cancelled in the meantime.
+	 *
+	 * @throws CancellationException
+	 *             if the token gets cancelled or the thread gets interrupted
+	 * @see #render(Vector2ic, RegionFile)
+	 */
+	public Region render(Vector2ic regionPos, RegionFile file, CancellationToken token) {
 		log.info("Rendering region file " + regionPos.x() + " " + regionPos.y());
-		BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
-		Map<Vector2ic, ChunkMetadata> metadata = new HashMap<>();
-		Color[] colors = renderRaw(regionPos, file, metadata);
-		// image.setRGB(0, 0, 512, 512, colors, 0, 512);
-		for (int x = 0; x < 512; x++)
-			for (int z = 0; z < 512; z++)
-				if (colors[x | (z << 9)] != null)
-					image.setRGB(x, z, colors[x | (z << 9)].toRGB());
-		return new Region(regionPos, image, metadata);
+		RenderedRegion rendered = renderColumns(read(regionPos, file, token), token);
+		token.check();
+		shade(rendered);
+		return new Region(regionPos, toImage(rendered.map), rendered.metadata, rendered.statistics);
 	}
 
 	/**
-	 * Render a given {@link RegionFile} to an image, represented as color array.
+	 * Render a given {@link RegionFile} to an image, represented as color array. This runs all the steps of rendering a region one after
+	 * another: {@link #read(Vector2ic, RegionFile)}, {@link #renderColumns(RawRegion)} and {@link #shade(RenderedRegion)}. They can
+	 * also be called separately to distribute the work of rendering many regions over different threads.
 	 *
 	 * @param file
 	 *            The file to render. Should not be {@code null}
@@ -80,41 +98,122 @@ public class RegionRenderer {
 	 * @see RegionFile
 	 */
 	protected Color[] renderRaw(Vector2ic regionPos, RegionFile file, Map<Vector2ic, ChunkMetadata> metadata) {
-		/* The final map of the chunk, 512*512 pixels, XZ */
-		Color[] map = new Color[512 * 512];
-		/* If nothing is set otherwise, the height map is set to the minimum height. */
-		int[] height = new int[512 * 512];
-		String[] regionBiomes = new String[512 * 512];
-		Arrays.fill(height, settings.minY);
+		RenderedRegion rendered = renderColumns(read(regionPos, file));
+		shade(rendered);
+		metadata.putAll(rendered.metadata);
+		return rendered.map;
+	}
 
+	/**
+	 * Create a rough preview of a region with one pixel per chunk, as a 32x32 image. It only needs the header of the region file, so this
+	 * is orders of magnitude faster than rendering the region. Chunks that exist and are visible with the current settings are drawn in
+	 * {@link #PREVIEW_COLOR}, all other ones are transparent.
+	 */
+	public BufferedImage preview(Vector2ic regionPos, RegionFile file) {
+		BufferedImage image = new BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB);
+		if (!settings.isRegionVisible(regionPos.x(), regionPos.y()))
+			return image;
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
 		for (int chunkIndex : file.listChunks()) {
-			Chunk chunk = null;
+			/* The index of a chunk is in the same XZ order as the pixels */
+			int chunkX = (regionPos.x() << 5) | (chunkIndex & 0x1F);
+			int chunkZ = (regionPos.y() << 5) | (chunkIndex >> 5);
+			if (settings.isChunkVisible(chunkX, chunkZ))
+				pixels[chunkIndex] = PREVIEW_COLOR;
+		}
+		return image;
+	}
+
+	/**
+	 * Read the compressed data of all chunks of a region file. Chunks that cannot be read or are outside of the area to render will get
+	 * their metadata set accordingly and are not part of the result. Culling only needs the positions from the header of the region file,
+	 * so culled chunks are never read.
+	 * <p>
+	 * The chunks are only decompressed and parsed one at a time by {@link #renderColumns(RawRegion)}, as the parsed NBT data of a whole
+	 * region takes many times the memory of the file.
+	 * 
+	 * @throws CancellationException
+	 *             if the thread gets interrupted
+	 */
+	public RawRegion read(Vector2ic regionPos, RegionFile file) {
+		return read(regionPos, file, CancellationToken.NONE);
+	}
+
+	/**
+	 * Like {@link #read(Vector2ic, RegionFile)}, checking the token before each chunk.
+	 *
+	 * @throws CancellationException
+	 *             if the token gets cancelled or the thread gets interrupted
+	 */
+	public RawRegion read(Vector2ic regionPos, RegionFile file, CancellationToken token) {
+		RawRegion raw = new RawRegion(regionPos);
+		Map<Vector2ic, ChunkMetadata> metadata = raw.metadata;
+		boolean regionVisible = settings.isRegionVisible(regionPos.x(), regionPos.y());
+
+		for (int chunkIndex : file.listChunks()) {
+			token.check();
+			/* The position of a chunk within the region is encoded in its index */
+			int x = chunkIndex & 0x1F, z = chunkIndex >> 5;
+			int chunkX = ((regionPos.x() << 5) | x);
+			int chunkZ = ((regionPos.y() << 5) | z);
+			Vector2ic chunkPosRegion = new Vector2i(x, z);
+			Vector2ic chunkPos = new Vector2i(chunkX, chunkZ);
+
+			if (!regionVisible || !settings.isChunkVisible(chunkX, chunkZ)) {
+				metadata.put(chunkPos, new ChunkMetadataCulled(chunkPos));
+				continue;
+			}
+
 			try {
-				chunk = file.loadChunk(chunkIndex);
+				raw.chunks.add(new RawChunk(chunkPosRegion, chunkPos, file.loadChunk(chunkIndex)));
 			} catch (ClosedByInterruptException e) {
-				log.info("Got interrupted while rendering, stopping");
-				break;
+				throw (CancellationException) new CancellationException("Got interrupted while loading chunk " + chunkPosRegion).initCause(e);
 			} catch (IOException | RuntimeException e) {
-				int x = chunkIndex & 0xF, z = chunkIndex >> 4;
-				log.warn("Failed to load chunk (" + x + ", " + z + ")", e);
-				Vector2ic chunkPos = new Vector2i(((regionPos.x() << 5) | x), ((regionPos.y() << 5) | z));
+				log.warn("Failed to load chunk " + chunkPosRegion, e);
 				metadata.put(chunkPos, new ChunkMetadataFailed(chunkPos, e));
 				continue;
 			}
-			int chunkX = ((regionPos.x() << 5) | chunk.x);
-			int chunkZ = ((regionPos.y() << 5) | chunk.z);
-			Vector2ic chunkPosRegion = new Vector2i(chunk.x, chunk.z);
-			Vector2ic chunkPos = new Vector2i(chunkX, chunkZ);
+		}
+		return raw;
+	}
 
-			if (((chunkX << 4) + 16 < settings.minX || (chunkX << 4) > settings.maxX)
-					&& ((chunkZ << 4) + 16 < settings.minZ || (chunkZ << 4) > settings.maxZ)) {
-				metadata.put(chunkPos, new ChunkMetadataCulled(chunkPos));
-				continue;
-			}
+	/**
+	 * Parse and render the block columns of all read chunks of a region, one chunk at a time, using the chunk renderer matching the version
+	 * of each chunk. The result is not shaded yet. If {@link RenderSettings#collectStatistics} is set, the statistics of the region are
+	 * computed as well.
+	 * 
+	 * @throws CancellationException
+	 *             if the thread gets interrupted
+	 */
+	public RenderedRegion renderColumns(RawRegion raw) {
+		return renderColumns(raw, CancellationToken.NONE);
+	}
 
+	/**
+	 * Like {@link #renderColumns(RawRegion)}, checking the token before each chunk.
+	 *
+	 * @throws CancellationException
+	 *             if the token gets cancelled or the thread gets interrupted
+	 */
+	public RenderedRegion renderColumns(RawRegion raw, CancellationToken token) {
+		RenderedRegion rendered = new RenderedRegion(raw.regionPos, raw.metadata, settings.collectStatistics);
+		/* The final map of the chunk, 512*512 pixels, XZ */
+		Color[] map = rendered.map;
+		/* If nothing is set otherwise, the height map is set to the minimum height. */
+		int[] height = rendered.height;
+		String[] regionBiomes = rendered.biomes;
+		BlockHistogram topBlocks = rendered.topBlocks;
+		Map<Vector2ic, ChunkMetadata> metadata = rendered.metadata;
+		Arrays.fill(height, settings.minY);
+
+		for (RawChunk chunk : raw.chunks) {
+			/* Outside of the try, a cancellation is not a failure of the chunk */
+			token.check();
+			Vector2ic chunkPosRegion = chunk.chunkPosRegion;
+			Vector2ic chunkPos = chunk.chunkPos;
 			CompoundTag root;
-			try (NBTInputStream nbtIn = new NBTInputStream(new ByteArrayInputStream(chunk.getData().array(), 5, chunk.getRealLength()), chunk
-					.getCompression(), true);) {
+			try (NBTInputStream nbtIn = new NBTInputStream(new ByteArrayInputStream(chunk.data.getData().array(), 5, chunk.data.getRealLength()),
+					chunk.data.getCompression(), true);) {
 				root = new CompoundTag("chunk", ((CompoundTag) nbtIn.readTag()).getValue());
 			} catch (IOException | RuntimeException e) {
 				log.warn("Failed to load chunk " + chunkPosRegion, e);
@@ -132,21 +231,21 @@ public class RegionRenderer {
 						continue;
 					} else if (version <= MinecraftVersion.MC_1_13.maxVersion) {
 						CompoundTag level = root.getAsCompoundTag("Level").get();
-						metadata.put(chunkPos, renderer13.renderChunk(chunkPosRegion, chunkPos, level, map, height, regionBiomes));
+						metadata.put(chunkPos, renderer13.renderChunk(chunkPosRegion, chunkPos, level, map, height, regionBiomes, topBlocks));
 					} else if (version >= MinecraftVersion.MC_1_14.minVersion && version <= MinecraftVersion.MC_1_14.maxVersion) {
 						CompoundTag level = root.getAsCompoundTag("Level").get();
-						metadata.put(chunkPos, renderer14.renderChunk(chunkPosRegion, chunkPos, level, map, height, regionBiomes));
+						metadata.put(chunkPos, renderer14.renderChunk(chunkPosRegion, chunkPos, level, map, height, regionBiomes, topBlocks));
 					} else if (version >= MinecraftVersion.MC_1_15.minVersion && version <= MinecraftVersion.MC_1_15.maxVersion) {
 						CompoundTag level = root.getAsCompoundTag("Level").get();
-						metadata.put(chunkPos, renderer15.renderChunk(chunkPosRegion, chunkPos, level, map, height, regionBiomes));
+						metadata.put(chunkPos, renderer15.renderChunk(chunkPosRegion, chunkPos, level, map, height, regionBiomes, topBlocks));
 					} else if (version >= MinecraftVersion.MC_1_16.minVersion && version <= MinecraftVersion.MC_1_16.maxVersion) {
 						CompoundTag level = root.getAsCompoundTag("Level").get();
-						metadata.put(chunkPos, renderer16.renderChunk(chunkPosRegion, chunkPos, level, map, height, regionBiomes));
+						metadata.put(chunkPos, renderer16.renderChunk(chunkPosRegion, chunkPos, level, map, height, regionBiomes, topBlocks));
 					} else if (version >= MinecraftVersion.MC_1_17.minVersion && version <= MinecraftVersion.MC_1_17.maxVersion) {
 						CompoundTag level = root.getAsCompoundTag("Level").get();
-						metadata.put(chunkPos, renderer17.renderChunk(chunkPosRegion, chunkPos, level, map, height, regionBiomes));
+						metadata.put(chunkPos, renderer17.renderChunk(chunkPosRegion, chunkPos, level, map, height, regionBiomes, topBlocks));
 					} else if (version >= MinecraftVersion.MC_1_18.minVersion && version <= MinecraftVersion.MC_1_18.maxVersion) {
-						metadata.put(chunkPos, renderer18.renderChunk(chunkPosRegion, chunkPos, root, map, height, regionBiomes));
+						metadata.put(chunkPos, renderer18.renderChunk(chunkPosRegion, chunkPos, root, map, height, regionBiomes, topBlocks));
 					} else {
 						log.warn("Could not render chunk with Minecraft format version " + version);
 						metadata.put(chunkPos, new ChunkMetadataVersion(chunkPos, "Could not find a chunk rendering engine for this version", version));
@@ -163,7 +262,100 @@ public class RegionRenderer {
 				continue;
 			}
 		}
-		settings.regionShader.shade(map, height, regionBiomes, settings.biomeColors);
-		return map;
+		if (topBlocks != null)
+			rendered.statistics = collectStatistics(rendered);
+		return rendered;
+	}
+
+	/**
+	 * Count the columns of a rendered region. Only the columns that have a top block are counted, everything else is either culled or
+	 * empty.
+	 */
+	private RegionStatistics collectStatistics(RenderedRegion rendered) {
+		/* The biome names come from the palettes of the chunks, so there are only few distinct ones */
+		Map<String, int[]> biomeCounts = new HashMap<>();
+		int minHeight = Integer.MAX_VALUE, maxHeight = Integer.MIN_VALUE;
+		for (int i = 0; i < 512 * 512; i++) {
+			if (!rendered.topBlocks.contains(i))
+				continue;
+			if (rendered.biomes[i] != null)
+				biomeCounts.computeIfAbsent(rendered.biomes[i], k -> new int[1])[0]++;
+			minHeight = Math.min(minHeight, rendered.height[i]);
+			maxHeight = Math.max(maxHeight, rendered.height[i]);
+		}
+		int[] heights = new int[minHeight > maxHeight ? 0 : maxHeight - minHeight + 1];
+		for (int i = 0; i < 512 * 512; i++)
+			if (rendered.topBlocks.contains(i))
+				heights[rendered.height[i] - minHeight]++;
+		Map<String, Integer> biomes = new HashMap<>();
+		biomeCounts.forEach((biome, count) -> biomes.put(biome, count[0]));
+
+		Map<String, Integer> generationStatus = new HashMap<>();
+		for (ChunkMetadata chunk : rendered.metadata.values())
+			if (chunk instanceof ChunkMetadataRendered)
+				generationStatus.merge(((ChunkMetadataRendered) chunk).generationStatus, 1, Integer::sum);
+		return new RegionStatistics(rendered.topBlocks.toMap(), biomes, heights.length == 0 ? 0 : minHeight, heights, generationStatus);
+	}
+
+	/** Apply the {@link RegionShader} of the settings to a rendered region. This modifies its colors in place. */
+	public void shade(RenderedRegion rendered) {
+		settings.regionShader.shade(rendered.map, rendered.height, rendered.biomes, settings.biomeColors);
+	}
+
+	/**
+	 * Convert the colors of a region to a 512x512 image. Missing colors will be transparent. The image is of
+	 * {@link BufferedImage#TYPE_INT_ARGB}, its pixels are written directly into the backing array, which is in the same XZ order as the
+	 * colors.
+	 */
+	public static BufferedImage toImage(Color[] colors) {
+		BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		for (int i = 0; i < 512 * 512; i++)
+			if (colors[i] != null)
+				pixels[i] = colors[i].toRGB();
+		return image;
+	}
+
+	/** A chunk as read from the region file, still compressed */
+	public static class RawChunk {
+		final Vector2ic	chunkPosRegion, chunkPos;
+		final Chunk		data;
+
+		RawChunk(Vector2ic chunkPosRegion, Vector2ic chunkPos, Chunk data) {
+			this.chunkPosRegion = chunkPosRegion;
+			this.chunkPos = chunkPos;
+			this.data = data;
+		}
+	}
+
+	/** The result of {@link RegionRenderer#read(Vector2ic, RegionFile)} */
+	public static class RawRegion {
+		public final Vector2ic						regionPos;
+		public final List<RawChunk>					chunks		= new ArrayList<>();
+		/** The metadata of all chunks that could not be read or were culled */
+		public final Map<Vector2ic, ChunkMetadata>	metadata	= new HashMap<>();
+
+		public RawRegion(Vector2ic regionPos) {
+			this.regionPos = regionPos;
+		}
+	}
+
+	/** The result of {@link RegionRenderer#renderColumns(RawRegion)}. All arrays contain 512*512 elements in XZ order. */
+	public static class RenderedRegion {
+		public final Vector2ic						regionPos;
+		public final Color[]						map		= new Color[512 * 512];
+		public final int[]							height	= new int[512 * 512];
+		public final String[]						biomes	= new String[512 * 512];
+		/** Counts the blocks that determine the height of each column. Only present if statistics are collected, {@code null} otherwise. */
+		public final BlockHistogram					topBlocks;
+		public final Map<Vector2ic, ChunkMetadata>	metadata;
+		/** {@code null} if statistics are not collected */
+		public RegionStatistics						statistics;
+
+		RenderedRegion(Vector2ic regionPos, Map<Vector2ic, ChunkMetadata> metadata, boolean collectStatistics) {
+			this.regionPos = regionPos;
+			this.metadata = metadata;
+			this.topBlocks = collectStatistics ? new BlockHistogram() : null;
+		}
 	}
 }
@@ -24,6 +24,11 @@ public class RenderSettings {
 	public Map<MinecraftVersion, BlockColorMap> blockColors;
 	public BiomeColorMap biomeColors;
 	public RegionShader regionShader = new ReliefShader();
+	/**
+	 * Collect {@link de.piegames.blockmap.world.RegionStatistics} about every rendered region. They are taken from the data that is
+	 * computed for rendering anyway, so this costs no additional I/O. This does not affect the rendered images.
+	 */
+	public boolean collectStatistics = false;
 
 	public RenderSettings() {
 		loadDefaultColors();
@@ -47,6 +52,18 @@ public class RenderSettings {
 		biomeColors = BiomeColorMap.loadDefault();
 	}
 
+	/** Whether the region at the given region coordinates contains any blocks within the bounds of these settings. */
+	public boolean isRegionVisible(int regionX, int regionZ) {
+		return (minX >> 9) <= regionX && regionX <= (maxX >> 9)
+				&& (minZ >> 9) <= regionZ && regionZ <= (maxZ >> 9);
+	}
+
+	/** Whether the chunk at the given chunk coordinates (in world space) contains any blocks within the bounds of these settings. */
+	public boolean isChunkVisible(int chunkX, int chunkZ) {
+		return (minX >> 4) <= chunkX && chunkX <= (maxX >> 4)
+				&& (minZ >> 4) <= chunkZ && chunkZ <= (maxZ >> 4);
+	}
+
 	@ExposeMethodParam("block colors")
 	public void loadBlockColors(String name) {
 		blockColors = InternalColorMap.valueOf(name).getColorMap();
@@ -84,4 +101,4 @@ public class RenderSettings {
 		return Objects.equals(biomeColors, other.biomeColors) && Objects.equals(blockColors, other.blockColors) && maxX == other.maxX && maxY == other.maxY
 				&& maxZ == other.maxZ && minX == other.minX && minY == other.minY && minZ == other.minZ && Objects.equals(regionShader, other.regionShader);
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
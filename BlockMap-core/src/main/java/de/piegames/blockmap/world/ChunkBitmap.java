@@ -0,0 +1,115 @@
+package de.piegames.blockmap.world;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import io.gsonfire.annotations.Exclude;
+import io.gsonfire.annotations.PostDeserialize;
+import io.gsonfire.annotations.PostSerialize;
+
+/**
+ * A set of chunks, stored as one bit per chunk. The bits are grouped by region, so that each region that contains any chunk takes 1024
+ * bits ({@code long[16]}), indexed by {@code x | z << 5} with the chunk coordinates relative to the region. This is a lot more compact
+ * than a list of positions for properties that apply to many chunks, like slime chunks.
+ * <p>
+ * It is serialized as a map from {@code "<x>,<z>"} region coordinates to the Base64 encoded bits of that region.
+ */
+public class ChunkBitmap {
+
+	/** The number of longs per region */
+	public static final int	REGION_LONGS	= 16;
+
+	@Exclude
+	Map<Long, long[]>		regions			= new HashMap<>();
+
+	public ChunkBitmap() {
+	}
+
+	/** Whether the chunk at the given chunk coordinates (in world space) is contained */
+	public boolean get(int chunkX, int chunkZ) {
+		long[] bits = regions.get(key(chunkX >> 5, chunkZ >> 5));
+		int index = (chunkX & 31) | (chunkZ & 31) << 5;
+		return bits != null && (bits[index >> 6] & 1L << index) != 0;
+	}
+
+	/** Add the chunk at the given chunk coordinates (in world space) */
+	public void set(int chunkX, int chunkZ) {
+		long[] bits = regions.computeIfAbsent(key(chunkX >> 5, chunkZ >> 5), k -> new long[REGION_LONGS]);
+		int index = (chunkX & 31) | (chunkZ & 31) << 5;
+		bits[index >> 6] |= 1L << index;
+	}
+
+	/**
+	 * Get the bits of a region. The returned array is backed by this bitmap and must not be modified.
+	 *
+	 * @return the bits or {@code Optional.empty()} if no chunk of that region is contained
+	 */
+	public Optional<long[]> getRegion(int regionX, int regionZ) {
+		return Optional.ofNullable(regions.get(key(regionX, regionZ)));
+	}
+
+	/** Replace the bits of a region. The array must have a length of {@value #REGION_LONGS} and will not be copied. */
+	public void setRegion(int regionX, int regionZ, long[] bits) {
+		if (bits.length != REGION_LONGS)
+			throw new IllegalArgumentException("A region has " + REGION_LONGS + " longs, not " + bits.length);
+		regions.put(key(regionX, regionZ), bits);
+	}
+
+	/** All regions that have bits set */
+	public Set<Vector2ic> listRegions() {
+		return Collections.unmodifiableSet(regions.keySet().stream()
+				.map(key -> new Vector2i((int) (key >> 32), (int) (long) key))
+				.collect(Collectors.toSet()));
+	}
+
+	/** The number of contained chunks */
+	public int size() {
+		int size = 0;
+		for (long[] bits : regions.values())
+			for (long l : bits)
+				size += Long.bitCount(l);
+		return size;
+	}
+
+	private static long key(int regionX, int regionZ) {
+		return (long) regionX << 32 | regionZ & 0xFFFFFFFFL;
+	}
+
+	@PostSerialize
+	private void postSerialize(JsonElement src, Gson gson) {
+		JsonObject object = new JsonObject();
+		for (Map.Entry<Long, long[]> e : regions.entrySet()) {
+			ByteBuffer buffer = ByteBuffer.allocate(REGION_LONGS * Long.BYTES);
+			buffer.asLongBuffer().put(e.getValue());
+			object.addProperty((int) (e.getKey() >> 32) + "," + (int) (long) e.getKey(), Base64.getEncoder().encodeToString(buffer.array()));
+		}
+		src.getAsJsonObject().add("regions", object);
+	}
+
+	@PostDeserialize
+	private void postDeserialize(JsonElement src, Gson gson) {
+		regions = new HashMap<>();
+		JsonObject object = src.getAsJsonObject().getAsJsonObject("regions");
+		if (object == null)
+			return;
+		for (Map.Entry<String, JsonElement> e : object.entrySet()) {
+			String[] pos = e.getKey().split(",");
+			long[] bits = new long[REGION_LONGS];
+			ByteBuffer.wrap(Base64.getDecoder().decode(e.getValue().getAsString())).asLongBuffer().get(bits);
+			regions.put(key(Integer.parseInt(pos[0]), Integer.parseInt(pos[1])), bits);
+		}
+	}
+}
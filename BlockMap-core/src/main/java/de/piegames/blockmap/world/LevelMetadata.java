@@ -5,13 +5,16 @@ import java.math.BigInteger;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,7 +32,9 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
 
 import de.piegames.blockmap.MinecraftDimension;
+import de.piegames.blockmap.renderer.RenderSettings;
 import de.piegames.blockmap.world.LevelMetadata.MapPin.BannerPin;
+import de.piegames.blockmap.world.RegionFolder.WorldRegionFolder;
 import de.piegames.nbt.ByteArrayTag;
 import de.piegames.nbt.ByteTag;
 import de.piegames.nbt.CompoundMap;
@@ -41,7 +46,6 @@ import de.piegames.nbt.ListTag;
 import de.piegames.nbt.LongTag;
 import de.piegames.nbt.StringTag;
 import de.piegames.nbt.Tag;
-import de.piegames.nbt.regionfile.RegionFile;
 import de.piegames.nbt.stream.NBTInputStream;
 import io.gsonfire.annotations.Exclude;
 import io.gsonfire.annotations.PostDeserialize;
@@ -69,7 +73,10 @@ public class LevelMetadata {
 	Optional<List<PlayerPin>> players;
 	Optional<List<MapPin>> maps;
 	Optional<List<VillageObjectPin>> villageObjects;
-	Optional<List<ChunkPin>> slimeChunks, loadedChunks;
+	/** The slime chunks of all regions in the world, computed from the seed. Only present for the overworld. */
+	Optional<ChunkBitmap> slimeChunks;
+	/** The chunks that are force-loaded using the {@code /forceload} command */
+	Optional<ChunkBitmap> loadedChunks;
 	Optional<BorderPin> barrier;
 	Optional<WorldSpawnPin> worldSpawn;
 
@@ -78,8 +85,8 @@ public class LevelMetadata {
 		// Used by GSON
 	}
 
-	public LevelMetadata(String worldName, List<PlayerPin> players, List<MapPin> maps, List<VillageObjectPin> villageObjects, List<ChunkPin> slimeChunks,
-			List<ChunkPin> loadedChunks, BorderPin barrier, WorldSpawnPin worldSpawn) {
+	public LevelMetadata(String worldName, List<PlayerPin> players, List<MapPin> maps, List<VillageObjectPin> villageObjects, ChunkBitmap slimeChunks,
+			ChunkBitmap loadedChunks, BorderPin barrier, WorldSpawnPin worldSpawn) {
 		this(Optional.ofNullable(worldName), Optional.ofNullable(players), Optional.ofNullable(maps), Optional.ofNullable(villageObjects), Optional.ofNullable(
 				slimeChunks), Optional
 				.ofNullable(loadedChunks), Optional.ofNullable(barrier), Optional.ofNullable(worldSpawn));
@@ -87,8 +94,8 @@ public class LevelMetadata {
 
 	public LevelMetadata(Optional<String> worldName, Optional<List<PlayerPin>> players, Optional<List<MapPin>> maps,
 			Optional<List<VillageObjectPin>> villageObjects,
-			Optional<List<ChunkPin>> slimeChunks,
-			Optional<List<ChunkPin>> loadedChunks, Optional<BorderPin> barrier, Optional<WorldSpawnPin> worldSpawn) {
+			Optional<ChunkBitmap> slimeChunks,
+			Optional<ChunkBitmap> loadedChunks, Optional<BorderPin> barrier, Optional<WorldSpawnPin> worldSpawn) {
 		this.worldName = worldName;
 		this.players = players;
 		this.maps = maps;
@@ -111,11 +118,11 @@ public class LevelMetadata {
 		return maps;
 	}
 
-	public Optional<List<ChunkPin>> getSlimeChunks() {
+	public Optional<ChunkBitmap> getSlimeChunks() {
 		return slimeChunks;
 	}
 
-	public Optional<List<ChunkPin>> getLoadedChunks() {
+	public Optional<ChunkBitmap> getLoadedChunks() {
 		return loadedChunks;
 	}
 
@@ -131,6 +138,11 @@ public class LevelMetadata {
 		return villageObjects;
 	}
 
+	/** Create a copy of this metadata with different maps */
+	LevelMetadata withMaps(List<MapPin> maps) {
+		return new LevelMetadata(worldName, players, Optional.of(maps), villageObjects, slimeChunks, loadedChunks, barrier, worldSpawn);
+	}
+
 	public static class PlayerPin {
 		Vector3dc position;
 		MinecraftDimension dimension;
@@ -185,6 +197,13 @@ public class LevelMetadata {
 		Optional<List<BannerPin>> banners;
 		@Exclude
 		Optional<byte[]> colors;
+		/**
+		 * The gzipped file containing the colors, relative to the {@code rendered.json.gz}. Saved worlds store the colors there instead
+		 * of inline, see {@link RegionFolder.CachedRegionFolder#save()}.
+		 */
+		Optional<String> colorsFile = Optional.empty();
+		transient ColorsSource colorsSource;
+		transient CompletableFuture<Optional<byte[]>> loadedColors;
 
 		@SuppressWarnings("unused")
 		private MapPin() {
@@ -213,6 +232,15 @@ public class LevelMetadata {
 			colors = Optional.ofNullable(src.getAsJsonObject().getAsJsonPrimitive("colors"))
 					.map(JsonPrimitive::getAsString)
 					.map(Base64.getDecoder()::decode);
+			if (colorsFile == null)
+				colorsFile = Optional.empty();
+		}
+
+		/** Create a copy of this map that references its colors by file name instead of containing them */
+		MapPin withColorsFile(String file) {
+			MapPin map = new MapPin(scale, position, dimension, banners, Optional.empty());
+			map.colorsFile = Optional.of(file);
+			return map;
 		}
 
 		public byte getScale() {
@@ -231,10 +259,44 @@ public class LevelMetadata {
 			return banners;
 		}
 
+		/**
+		 * Returns the colors of the map if they are stored inline. Maps loaded from a saved world reference a separate file instead, use
+		 * {@link #loadColors()} for those.
+		 */
 		public Optional<byte[]> getColors() {
 			return colors;
 		}
 
+		public Optional<String> getColorsFile() {
+			return colorsFile;
+		}
+
+		/**
+		 * Get the colors of the map, loading them in the background if they are stored in a separate file. They are loaded at most once.
+		 * 
+		 * @return the colors or {@code Optional.empty()} if the map has none or they could not be loaded
+		 */
+		public synchronized CompletableFuture<Optional<byte[]>> loadColors() {
+			if (colors.isPresent() || colorsSource == null)
+				return CompletableFuture.completedFuture(colors);
+			if (loadedColors == null)
+				loadedColors = CompletableFuture.supplyAsync(() -> {
+					try {
+						return Optional.of(colorsSource.load());
+					} catch (IOException | RuntimeException e) {
+						log.warn("Could not load the colors of the map at " + position + " from " + colorsFile.orElse(null), e);
+						return Optional.empty();
+					}
+				});
+			return loadedColors;
+		}
+
+		/** Loads the colors of a map from wherever {@link MapPin#colorsFile} points to */
+		@FunctionalInterface
+		static interface ColorsSource {
+			byte[] load() throws IOException;
+		}
+
 		public static class BannerPin {
 			Vector3ic position;
 			Optional<String> color;
@@ -296,23 +358,6 @@ public class LevelMetadata {
 		}
 	}
 
-	public static class ChunkPin {
-		Vector2ic position;
-
-		@SuppressWarnings("unused")
-		private ChunkPin() {
-			// Used by GSON
-		}
-
-		public ChunkPin(Vector2ic position) {
-			this.position = position;
-		}
-
-		public Vector2ic getPosition() {
-			return position;
-		}
-	}
-
 	public static class BorderPin {
 		Vector2dc	center;
 		double		size;
@@ -353,177 +398,136 @@ public class LevelMetadata {
 		}
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Extract all the metadata from a world.
+	 * 
+	 * @see #loadFromWorld(Path, MinecraftDimension, MetadataCache)
+	 */
 	public static LevelMetadata loadFromWorld(Path worldPath, MinecraftDimension filterDimension) {
-		List<PlayerPin> players = new ArrayList<>();
+		return loadFromWorld(worldPath, filterDimension, new MetadataCache());
+	}
+
+	/**
+	 * Extract all the metadata from a world. Equivalent to loading it without any POI type or bounds filter.
+	 * 
+	 * @see #loadFromWorld(Path, MinecraftDimension, MetadataCache, Optional, Optional)
+	 */
+	public static LevelMetadata loadFromWorld(Path worldPath, MinecraftDimension filterDimension, MetadataCache cache) {
+		return loadFromWorld(worldPath, filterDimension, cache, Optional.empty(), Optional.empty());
+	}
+
+	/**
+	 * Extract all the metadata from a world. The player data, POI region files and maps are loaded in parallel. Files whose content is
+	 * already in the cache and that did not change since then won't be parsed again.
+	 * <p>
+	 * The POI files are the largest part of the metadata, so the filters are applied while reading them: only the folder of the requested
+	 * dimension is scanned, POI region files outside of the bounds are not opened at all and records of other types are skipped without
+	 * being parsed.
+	 * <p>
+	 * The slime chunks are computed from the seed in the {@code level.dat} for every overworld region file within the bounds. The
+	 * force-loaded chunks are read from the {@code chunks.dat} of the dimension (the overworld if no dimension is given).
+	 * 
+	 * @param filterDimension
+	 *            only load the pins in this dimension, or all of them if {@code null}
+	 * @param cache
+	 *            the cache to use. It will be updated with all files that had to be parsed.
+	 * @param poiTypes
+	 *            if present, only load the points of interest with one of these types
+	 * @param bounds
+	 *            if present, only load the points of interest within the bounds of these settings
+	 */
+	public static LevelMetadata loadFromWorld(Path worldPath, MinecraftDimension filterDimension, MetadataCache cache,
+			Optional<Set<String>> poiTypes, Optional<RenderSettings> bounds) {
+		cache.startLoading();
+
 		// Players
-		try (DirectoryStream<Path> d = Files.newDirectoryStream(worldPath.resolve("playerdata"))) {
-			for (Path p : d) {
-				if (!p.getFileName().toString().endsWith(".dat"))
-					continue;
-				log.debug("Loading player metadata from " + p.toAbsolutePath());
-				try (NBTInputStream in = new NBTInputStream(Files.newInputStream(p), NBTInputStream.GZIP_COMPRESSION)) {
-					CompoundMap map = (CompoundMap) in.readTag().getValue();
-					List<DoubleTag> pos = ((ListTag<DoubleTag>) map.get("Pos")).getValue();
-					Vector3d position = new Vector3d(pos.get(0).getValue(), pos.get(1).getValue(), pos.get(2).getValue());
-
-					var dimension = map.get("Dimension").getAsStringTag()
-							.map(tag -> MinecraftDimension.byName(tag.getValue()))
-							/* The dimension is an int in pre-1.16 */
-							.orElseGet(() -> MinecraftDimension.byID(map.get("Dimension").getAsIntTag().get().getValue()));
-					if (filterDimension != null && dimension != filterDimension)
-						continue;
-					
-					String UUID;
-					if (map.containsKey("UUID")) {
-						int[] uuid = ((IntArrayTag) map.get("UUID")).getValue();
-						UUID = BigInteger.valueOf(uuid[0]).and(new BigInteger("FFFFFFFF", 16))
-								.shiftLeft(32)
-								.or(BigInteger.valueOf(uuid[1]).and(new BigInteger("FFFFFFFF", 16)))
-								.shiftLeft(32)
-								.or(BigInteger.valueOf(uuid[2]).and(new BigInteger("FFFFFFFF", 16)))
-								.shiftLeft(32)
-								.or(BigInteger.valueOf(uuid[3]).and(new BigInteger("FFFFFFFF", 16)))
-								.toString(16);
-					} else {
-						/* Pre 1.16 */
-						UUID = BigInteger.valueOf(((LongTag) map.get("UUIDMost"))
-									.getValue())
-							.and(new BigInteger("FFFFFFFFFFFFFFFF", 16))
-							.shiftLeft(64)
-							.or(BigInteger.valueOf(((LongTag) map.get("UUIDLeast")).getValue()).and(new BigInteger("FFFFFFFFFFFFFFFF", 16)))
-							.toString(16);
+		List<PlayerPin> players = listFiles(worldPath.resolve("playerdata"), "player data", p -> p.getFileName().toString().endsWith(".dat"))
+				.parallelStream()
+				.map(p -> {
+					try {
+						return cache.get(worldPath, p, e -> e.player, (e, v) -> e.player = v, LevelMetadata::loadPlayer);
+					} catch (IOException | RuntimeException e) {
+						log.warn("Could not load player metadata from " + p.toAbsolutePath());
+						return null;
 					}
-					Vector3i spawnpoint = null;
-					if (map.containsKey("SpawnX"))
-						spawnpoint = new Vector3i(
-								((IntTag) map.get("SpawnX")).getValue(),
-								((IntTag) map.get("SpawnY")).getValue(),
-								((IntTag) map.get("SpawnZ")).getValue());
-					int gamemode = ((IntTag) map.get("playerGameType")).getValue();
-					players.add(new PlayerPin(position, dimension, UUID, spawnpoint, gamemode));
-				} catch (IOException e) {
-					log.warn("Could not load player metadata from " + p.toAbsolutePath());
-				}
-			}
-		} catch (IOException e) {
-			log.warn("Could not access player data", e);
-		}
+				})
+				.filter(player -> player != null && (filterDimension == null || player.dimension == filterDimension))
+				.collect(Collectors.toList());
 
 		// Village 2.0
 		List<VillageObjectPin> villageObjects = new ArrayList<>();
 		for (MinecraftDimension dimension : MinecraftDimension.values()) {
 			if (filterDimension != null && dimension != filterDimension)
 				continue;
-			try (DirectoryStream<Path> d = Files.newDirectoryStream(worldPath.resolve(dimension.getPoiPath()))) {
-				for (Path p : d) {
-					if (!p.toString().endsWith(".mca"))
-						continue;
-					log.debug("Loading village metadata from " + p.toAbsolutePath());
-
-					try (RegionFile file = new RegionFile(p, StandardOpenOption.READ);) {
-						for (int i : file.listChunks()) {
-							for (CompoundTag section : (Iterable<CompoundTag>) file.loadChunk(i)
-									.readTag().getAsCompoundTag("Sections")
-									.map(tag -> tag.getValue().values())
-									.stream().flatMap(Collection::stream)
-									.map(t -> (CompoundTag) t)::iterator) {
-
-								if (section.getByteValue("Valid").orElse((byte) 0) != 1) {
-									log.warn("Found invalid records during village loading in region file " + file.getPath().toString() + " in chunk " + i);
-									continue;
-								}
-
-								List<CompoundTag> records = section.getAsListTag("Records")
-										.flatMap(ListTag::getAsCompoundTagList)
-										.map(Tag::getValue)
-										.orElse(Collections.emptyList());
-
-								for (CompoundTag j : records) {
-									int freeTickets = j.getIntValue("free_tickets").orElse(-1);
-									String type = j.getStringValue("type").orElse("<unknown>");
-									int[] pos = j.getIntArrayValue("pos").orElse(new int[] { 0, 0, 0, });
-
-									Vector3ic position = new Vector3i(pos[0], pos[1], pos[2]);
-
-									villageObjects.add(new VillageObjectPin(position, dimension, freeTickets, type));
+			PoiReader reader = new PoiReader(dimension, poiTypes.isPresent() ? poiTypes.get()::contains : type -> true);
+			listFiles(worldPath.resolve(dimension.getPoiPath()), "village data", p -> {
+				if (!p.toString().endsWith(".mca"))
+					return false;
+				Vector2ic pos = WorldRegionFolder.parsePosition(p.getFileName().toString());
+				return pos == null || bounds.map(b -> b.isRegionVisible(pos.x(), pos.y())).orElse(true);
+			})
+					.parallelStream()
+					.map(p -> {
+						try {
+							/* Entries that were loaded with a different type filter cannot be reused */
+							return cache.get(worldPath, p,
+									e -> Objects.equals(e.poiTypes, poiTypes.orElse(null)) ? e.villageObjects : null,
+									(e, v) -> {
+										e.villageObjects = v;
+										e.poiTypes = poiTypes.orElse(null);
+									},
+									reader::read);
+						} catch (RuntimeException | IOException e) {
+							try {
+								if (Files.size(p) == 0) {
+									log.warn("'" + worldPath.relativize(p) + "' is empty?!");
+									return Collections.<VillageObjectPin> emptyList();
 								}
+							} catch (IOException e1) {
 							}
-						}
-					} catch (RuntimeException | IOException e) {
-						if (Files.size(p) == 0)
-							log.warn("'" + worldPath.relativize(p) + "' is empty?!");
-						else
 							log.warn("Could not load village data from " + p.getFileName(), e);
-					}
-				}
-			} catch (IOException | RuntimeException e) {
-				log.warn("Could not access village data", e);
-			}
+							return Collections.<VillageObjectPin> emptyList();
+						}
+					})
+					.flatMap(List::stream)
+					.filter(pin -> bounds.map(b -> b.isChunkVisible(pin.position.x() >> 4, pin.position.z() >> 4)).orElse(true))
+					.forEachOrdered(villageObjects::add);
 		}
 
-		List<MapPin> maps = new ArrayList<>();
 		// Maps
-		try (DirectoryStream<Path> d = Files.newDirectoryStream(worldPath.resolve("data"))) {
-			for (Path p : d) {
-				if (!p.getFileName().toString().endsWith(".dat")
-						|| !p.getFileName().toString().startsWith("map_"))
-					continue;
-				log.debug("Loading map metadata from " + p.toAbsolutePath());
-				try (NBTInputStream in = new NBTInputStream(Files.newInputStream(p), NBTInputStream.GZIP_COMPRESSION)) {
-					CompoundMap map = (CompoundMap) ((CompoundMap) in.readTag().getValue()).get("data").getValue();
-					byte scale = ((ByteTag) map.get("scale")).getValue();
-					Vector2i center = new Vector2i(
-							((IntTag) map.get("xCenter")).getValue(),
-							((IntTag) map.get("zCenter")).getValue());
-					List<BannerPin> banners = null;
-					if (map.containsKey("banners")) {
-						banners = new ArrayList<>();
-						for (CompoundTag banner : ((ListTag<CompoundTag>) map.get("banners")).getValue()) {
-							CompoundMap bannerMap = banner.getValue();
-							String color = bannerMap.containsKey("Color") ? ((StringTag) bannerMap.get("Color")).getValue() : null;
-							String name = bannerMap.containsKey("Name") ? ((StringTag) bannerMap.get("Name")).getValue() : null;
-							CompoundMap pos = ((CompoundTag) bannerMap.get("Pos")).getValue();
-							banners.add(new BannerPin(new Vector3i(
-									((IntTag) pos.get("X")).getValue(),
-									((IntTag) pos.get("Y")).getValue(),
-									((IntTag) pos.get("Z")).getValue()), color, name));
-						}
+		List<MapPin> maps = listFiles(worldPath.resolve("data"), "map data",
+				p -> p.getFileName().toString().endsWith(".dat") && p.getFileName().toString().startsWith("map_"))
+				.parallelStream()
+				.map(p -> {
+					try {
+						return cache.get(worldPath, p, e -> e.map, (e, v) -> e.map = v, LevelMetadata::loadMap);
+					} catch (RuntimeException | IOException e) {
+						log.warn("Could not access map " + p.getFileName(), e);
+						return null;
 					}
-					byte[] colors = null;
-					if (map.containsKey("colors"))
-						colors = ((ByteArrayTag) map.get("colors")).getValue();
-
-					var dimension = map.get("dimension")
-							.getAsStringTag()
-							.map(tag -> MinecraftDimension.byName(tag.getValue()))
-							/* The dimension is an int in pre-1.16 */
-							.or(() -> map.get("dimension").getAsIntTag()
-									.map(IntTag::getValue)
-									.map(MinecraftDimension::byID))
-							/* Except when it's a byte */
-							.or(() -> map.get("dimension").getAsByteTag()
-									.map(ByteTag::getValue)
-									.map(MinecraftDimension::byID))
-							.get();
-					if (filterDimension != null && dimension != filterDimension)
-						continue;
-					maps.add(new MapPin(scale, center, dimension, banners, colors));
-				} catch (RuntimeException | IOException e) {
-					log.warn("Could not access map " + p.getFileName(), e);
+				})
+				.filter(map -> map != null && (filterDimension == null || map.dimension == filterDimension))
+				.collect(Collectors.toList());
+
+		// Loaded chunks
+		ChunkBitmap loadedChunks = null;
+		{
+			Path chunksFile = worldPath.resolve((filterDimension == null ? MinecraftDimension.OVERWORLD : filterDimension).getDataPath())
+					.resolve("chunks.dat");
+			/* The file only exists once a chunk has been force-loaded */
+			if (Files.exists(chunksFile)) {
+				try {
+					loadedChunks = loadForcedChunks(chunksFile, bounds);
+				} catch (IOException | RuntimeException e) {
+					log.warn("Could not load force-loaded chunks from " + chunksFile, e);
 				}
 			}
-		} catch (IOException e) {
-			log.warn("Could not access map data", e);
-		}
-
-		{ // Loaded chunks
-
 		}
 
 		WorldSpawnPin worldSpawn = null;
 		BorderPin barrier = null;
 		String name = null;
+		Optional<Long> seed = Optional.empty();
 		/* Stuff from level.dat */
 		try (NBTInputStream in = new NBTInputStream(Files.newInputStream(worldPath.resolve("level.dat")), NBTInputStream.GZIP_COMPRESSION)) {
 			CompoundMap level = ((CompoundTag) ((CompoundTag) in.readTag()).getValue().get("Data")).getValue();
@@ -535,9 +539,145 @@ public class LevelMetadata {
 			barrier = new BorderPin(
 					new Vector2d(((DoubleTag) level.get("BorderCenterX")).getValue(), ((DoubleTag) level.get("BorderCenterZ")).getValue()),
 					((DoubleTag) level.get("BorderSize")).getValue());
+			seed = Optional.ofNullable(level.get("WorldGenSettings"))
+					.flatMap(Tag::getAsCompoundTag)
+					.flatMap(tag -> tag.getLongValue("seed"))
+					/* Pre 1.16 */
+					.or(() -> Optional.ofNullable(level.get("RandomSeed")).flatMap(Tag::getAsLongTag).map(LongTag::getValue));
 		} catch (IOException e) {
 			log.warn("Could not access level data", e);
 		}
-		return new LevelMetadata(name, players, maps, villageObjects, null, null, barrier, worldSpawn);
+
+		// Slime chunks
+		ChunkBitmap slimeChunks = null;
+		if (seed.isPresent() && (filterDimension == null || filterDimension == MinecraftDimension.OVERWORLD)) {
+			List<Vector2ic> regions = listFiles(worldPath.resolve(MinecraftDimension.OVERWORLD.getRegionPath()), "region files",
+					p -> p.toString().endsWith(".mca"))
+							.stream()
+							.map(p -> WorldRegionFolder.parsePosition(p.getFileName().toString()))
+							.filter(pos -> pos != null && bounds.map(b -> b.isRegionVisible(pos.x(), pos.y())).orElse(true))
+							.collect(Collectors.toList());
+			slimeChunks = SlimeChunks.compute(seed.get(), regions);
+		}
+		return new LevelMetadata(name, players, maps, villageObjects, slimeChunks, loadedChunks, barrier, worldSpawn);
+	}
+
+	/**
+	 * Read the force-loaded chunks from a {@code chunks.dat} file. Minecraft stores them as one long per chunk, with the X coordinate in the
+	 * lower and the Z coordinate in the upper half.
+	 */
+	static ChunkBitmap loadForcedChunks(Path file, Optional<RenderSettings> bounds) throws IOException {
+		try (NBTInputStream in = new NBTInputStream(Files.newInputStream(file), NBTInputStream.GZIP_COMPRESSION)) {
+			long[] forced = ((CompoundTag) in.readTag()).getAsCompoundTag("data")
+					.flatMap(data -> data.getLongArrayValue("Forced"))
+					.orElse(new long[0]);
+			ChunkBitmap bitmap = new ChunkBitmap();
+			for (long chunk : forced) {
+				int x = (int) chunk, z = (int) (chunk >> 32);
+				if (bounds.map(b -> b.isChunkVisible(x, z)).orElse(true))
+					bitmap.set(x, z);
+			}
+			return bitmap;
+		}
+	}
+
+	/** List all files in a folder that match the filter. If the folder cannot be accessed, this will log a warning and return nothing. */
+	private static List<Path> listFiles(Path folder, String description, Predicate<Path> filter) {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> d = Files.newDirectoryStream(folder)) {
+			for (Path p : d)
+				if (filter.test(p))
+					files.add(p);
+		} catch (IOException e) {
+			log.warn("Could not access " + description, e);
+		}
+		return files;
+	}
+
+	/** Load a player from its file in the {@code playerdata} folder */
+	@SuppressWarnings("unchecked")
+	static PlayerPin loadPlayer(Path p) throws IOException {
+		try (NBTInputStream in = new NBTInputStream(Files.newInputStream(p), NBTInputStream.GZIP_COMPRESSION)) {
+			CompoundMap map = (CompoundMap) in.readTag().getValue();
+			List<DoubleTag> pos = ((ListTag<DoubleTag>) map.get("Pos")).getValue();
+			Vector3d position = new Vector3d(pos.get(0).getValue(), pos.get(1).getValue(), pos.get(2).getValue());
+
+			var dimension = map.get("Dimension").getAsStringTag()
+					.map(tag -> MinecraftDimension.byName(tag.getValue()))
+					/* The dimension is an int in pre-1.16 */
+					.orElseGet(() -> MinecraftDimension.byID(map.get("Dimension").getAsIntTag().get().getValue()));
+
+			String UUID;
+			if (map.containsKey("UUID")) {
+				int[] uuid = ((IntArrayTag) map.get("UUID")).getValue();
+				UUID = BigInteger.valueOf(uuid[0]).and(new BigInteger("FFFFFFFF", 16))
+						.shiftLeft(32)
+						.or(BigInteger.valueOf(uuid[1]).and(new BigInteger("FFFFFFFF", 16)))
+						.shiftLeft(32)
+						.or(BigInteger.valueOf(uuid[2]).and(new BigInteger("FFFFFFFF", 16)))
+						.shiftLeft(32)
+						.or(BigInteger.valueOf(uuid[3]).and(new BigInteger("FFFFFFFF", 16)))
+						.toString(16);
+			} else {
+				/* Pre 1.16 */
+				UUID = BigInteger.valueOf(((LongTag) map.get("UUIDMost"))
+							.getValue())
+					.and(new BigInteger("FFFFFFFFFFFFFFFF", 16))
+					.shiftLeft(64)
+					.or(BigInteger.valueOf(((LongTag) map.get("UUIDLeast")).getValue()).and(new BigInteger("FFFFFFFFFFFFFFFF", 16)))
+					.toString(16);
+			}
+			Vector3i spawnpoint = null;
+			if (map.containsKey("SpawnX"))
+				spawnpoint = new Vector3i(
+						((IntTag) map.get("SpawnX")).getValue(),
+						((IntTag) map.get("SpawnY")).getValue(),
+						((IntTag) map.get("SpawnZ")).getValue());
+			int gamemode = ((IntTag) map.get("playerGameType")).getValue();
+			return new PlayerPin(position, dimension, UUID, spawnpoint, gamemode);
+		}
+	}
+
+	/** Load a map from its {@code map_<id>.dat} file in the {@code data} folder */
+	@SuppressWarnings("unchecked")
+	static MapPin loadMap(Path p) throws IOException {
+		try (NBTInputStream in = new NBTInputStream(Files.newInputStream(p), NBTInputStream.GZIP_COMPRESSION)) {
+			CompoundMap map = (CompoundMap) ((CompoundMap) in.readTag().getValue()).get("data").getValue();
+			byte scale = ((ByteTag) map.get("scale")).getValue();
+			Vector2i center = new Vector2i(
+					((IntTag) map.get("xCenter")).getValue(),
+					((IntTag) map.get("zCenter")).getValue());
+			List<BannerPin> banners = null;
+			if (map.containsKey("banners")) {
+				banners = new ArrayList<>();
+				for (CompoundTag banner : ((ListTag<CompoundTag>) map.get("banners")).getValue()) {
+					CompoundMap bannerMap = banner.getValue();
+					String color = bannerMap.containsKey("Color") ? ((StringTag) bannerMap.get("Color")).getValue() : null;
+					String name = bannerMap.containsKey("Name") ? ((StringTag) bannerMap.get("Name")).getValue() : null;
+					CompoundMap pos = ((CompoundTag) bannerMap.get("Pos")).getValue();
+					banners.add(new BannerPin(new Vector3i(
+							((IntTag) pos.get("X")).getValue(),
+							((IntTag) pos.get("Y")).getValue(),
+							((IntTag) pos.get("Z")).getValue()), color, name));
+				}
+			}
+			byte[] colors = null;
+			if (map.containsKey("colors"))
+				colors = ((ByteArrayTag) map.get("colors")).getValue();
+
+			var dimension = map.get("dimension")
+					.getAsStringTag()
+					.map(tag -> MinecraftDimension.byName(tag.getValue()))
+					/* The dimension is an int in pre-1.16 */
+					.or(() -> map.get("dimension").getAsIntTag()
+							.map(IntTag::getValue)
+							.map(MinecraftDimension::byID))
+					/* Except when it's a byte */
+					.or(() -> map.get("dimension").getAsByteTag()
+							.map(ByteTag::getValue)
+							.map(MinecraftDimension::byID))
+					.get();
+			return new MapPin(scale, center, dimension, banners, colors);
+		}
 	}
 }
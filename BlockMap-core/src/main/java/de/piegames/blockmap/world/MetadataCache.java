@@ -0,0 +1,154 @@
+package de.piegames.blockmap.world;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.piegames.blockmap.world.LevelMetadata.MapPin;
+import de.piegames.blockmap.world.LevelMetadata.PlayerPin;
+import de.piegames.blockmap.world.LevelMetadata.VillageObjectPin;
+import de.piegames.blockmap.world.RegionFolder.CachedRegionFolder;
+
+/**
+ * Remembers the pins that {@link LevelMetadata#loadFromWorld(Path, de.piegames.blockmap.MinecraftDimension, MetadataCache)} extracted from
+ * each file of a world (player data, POI regions and maps), so that files that did not change since the last run don't need to be parsed
+ * again. A file counts as unchanged if its size and last modified time are the same.
+ * <p>
+ * The cache is stored as gzipped JSON, usually as {@value #FILE_NAME} next to the {@code rendered.json.gz} of a world. Entries that were
+ * not used the last time the world got loaded (because the file got deleted) will be dropped on {@link #save()}.
+ */
+public class MetadataCache {
+
+	private static Log			log			= LogFactory.getLog(MetadataCache.class);
+
+	/** The file name of the cache in the output directory */
+	public static final String	FILE_NAME	= "metadata-cache.json.gz";
+
+	static class Entry {
+		long					lastModified, size;
+		PlayerPin				player;
+		List<VillageObjectPin>	villageObjects;
+		/* The type filter the village objects were loaded with, null if they are unfiltered */
+		Set<String>				poiTypes;
+		MapPin					map;
+
+		@SuppressWarnings("unused")
+		private Entry() {
+			// Used by GSON
+		}
+
+		Entry(long lastModified, long size) {
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+	}
+
+	/** Loads the content of a file, see {@link MetadataCache#get(Path, Path, Function, BiConsumer, Loader)} */
+	@FunctionalInterface
+	static interface Loader<T> {
+		T load(Path file) throws IOException;
+	}
+
+	/* Object representation of the cache file */
+	private static class SavedCache {
+		Map<String, Entry> entries;
+	}
+
+	private final Path					file;
+	private final Map<String, Entry>	entries;
+	/* The keys that were requested since the start of the last load */
+	private final Set<String>			used	= ConcurrentHashMap.newKeySet();
+	private volatile boolean			dirty;
+
+	/** Create an empty cache that will not be persisted. */
+	public MetadataCache() {
+		this(null, new ConcurrentHashMap<>());
+	}
+
+	private MetadataCache(Path file, Map<String, Entry> entries) {
+		this.file = file;
+		this.entries = entries;
+	}
+
+	/** Called at the start of loading a world, so that only the files that still exist count as used. */
+	void startLoading() {
+		used.clear();
+	}
+
+	/**
+	 * Get the value for a file from the cache or load it if the file changed since it got cached.
+	 *
+	 * @param worldPath
+	 *            the cache keys are relative to this
+	 * @param file
+	 *            the file to load
+	 * @param get
+	 *            which value of the entry to use. Entries where it is {@code null} will be reloaded.
+	 * @param set
+	 *            sets the loaded value on a new entry
+	 */
+	<T> T get(Path worldPath, Path file, Function<Entry, T> get, BiConsumer<Entry, T> set, Loader<T> loader) throws IOException {
+		String key = worldPath.relativize(file).toString().replace('\\', '/');
+		long lastModified = Files.getLastModifiedTime(file).toMillis(), size = Files.size(file);
+		used.add(key);
+		Entry entry = entries.get(key);
+		if (entry != null && entry.lastModified == lastModified && entry.size == size && get.apply(entry) != null)
+			return get.apply(entry);
+		log.debug("Loading " + file.toAbsolutePath());
+		T value = loader.load(file);
+		entry = new Entry(lastModified, size);
+		set.accept(entry, value);
+		entries.put(key, entry);
+		dirty = true;
+		return value;
+	}
+
+	/** Write the cache back to the file it was loaded from, but only if anything changed. Does nothing for in-memory caches. */
+	public void save() throws IOException {
+		if (file == null)
+			return;
+		/* Only prune if the world has actually been loaded using this cache */
+		if (!used.isEmpty() && entries.keySet().retainAll(used))
+			dirty = true;
+		if (!dirty)
+			return;
+		SavedCache saved = new SavedCache();
+		saved.entries = entries;
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		CachedRegionFolder.saveJson(Files.newOutputStream(tmp), saved);
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		dirty = false;
+	}
+
+	/**
+	 * Load a cache from a file. If the file does not exist or cannot be read, an empty cache will be returned, which will be written to
+	 * that file on {@link #save()}.
+	 */
+	public static MetadataCache load(Path file) {
+		Map<String, Entry> entries = new ConcurrentHashMap<>();
+		try (Reader reader = new InputStreamReader(new GZIPInputStream(Files.newInputStream(file), 8192))) {
+			SavedCache saved = RegionFolder.GSON.fromJson(reader, SavedCache.class);
+			if (saved != null && saved.entries != null)
+				entries.putAll(saved.entries);
+		} catch (NoSuchFileException e) {
+		} catch (IOException | RuntimeException e) {
+			/* Corrupt or written by an incompatible version, which is fine for a cache */
+			log.warn("Could not load the metadata cache, it will be recreated", e);
+		}
+		return new MetadataCache(file, entries);
+	}
+}
@@ -0,0 +1,210 @@
+package de.piegames.blockmap.world;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joml.Vector3i;
+
+import de.piegames.blockmap.MinecraftDimension;
+import de.piegames.blockmap.world.LevelMetadata.VillageObjectPin;
+import de.piegames.nbt.regionfile.Chunk;
+import de.piegames.nbt.regionfile.RegionFile;
+import de.piegames.nbt.stream.NBTInputStream;
+
+/**
+ * Extracts the points of interest from a region file in the {@code poi} folder without building the NBT tree of each chunk. The NBT data
+ * is read as a stream and everything except for the records is skipped. Records whose type does not pass the filter are skipped as well,
+ * so they never turn into objects.
+ */
+class PoiReader {
+
+	private static Log log = LogFactory.getLog(PoiReader.class);
+
+	private static final int	TAG_END			= 0, TAG_BYTE = 1, TAG_SHORT = 2, TAG_INT = 3, TAG_LONG = 4, TAG_FLOAT = 5, TAG_DOUBLE = 6,
+			TAG_BYTE_ARRAY = 7, TAG_STRING = 8, TAG_LIST = 9, TAG_COMPOUND = 10, TAG_INT_ARRAY = 11, TAG_LONG_ARRAY = 12;
+
+	private final MinecraftDimension	dimension;
+	private final Predicate<String>		typeFilter;
+
+	/**
+	 * @param dimension
+	 *            the dimension of the POI files that will be read
+	 * @param typeFilter
+	 *            only records with a type that passes this filter will be returned
+	 */
+	PoiReader(MinecraftDimension dimension, Predicate<String> typeFilter) {
+		this.dimension = dimension;
+		this.typeFilter = typeFilter;
+	}
+
+	/** Read all matching points of interest from a POI region file */
+	List<VillageObjectPin> read(Path path) throws IOException {
+		List<VillageObjectPin> villageObjects = new ArrayList<>();
+		try (RegionFile file = new RegionFile(path, StandardOpenOption.READ)) {
+			for (int i : file.listChunks()) {
+				Chunk chunk;
+				try {
+					chunk = file.loadChunk(i);
+				} catch (ClosedByInterruptException e) {
+					throw e;
+				} catch (IOException | RuntimeException e) {
+					log.warn("Could not load chunk " + i + " of " + path.getFileName(), e);
+					continue;
+				}
+				try (DataInputStream in = new DataInputStream(open(chunk))) {
+					readChunk(in, villageObjects, path, i);
+				}
+			}
+		}
+		return villageObjects;
+	}
+
+	private static InputStream open(Chunk chunk) throws IOException {
+		InputStream raw = new ByteArrayInputStream(chunk.getData().array(), 5, chunk.getRealLength());
+		switch (chunk.getCompression()) {
+		case NBTInputStream.GZIP_COMPRESSION:
+			return new GZIPInputStream(raw);
+		case NBTInputStream.ZLIB_COMPRESSION:
+			return new InflaterInputStream(raw);
+		default:
+			return raw;
+		}
+	}
+
+	/* root { Sections { <y> { Valid, Records [ { pos, type, free_tickets } ] } } } */
+	private void readChunk(DataInputStream in, List<VillageObjectPin> villageObjects, Path path, int chunk) throws IOException {
+		if (in.readByte() != TAG_COMPOUND)
+			throw new IOException("The root tag of a chunk must be a compound");
+		in.readUTF();
+		for (int type; (type = in.readByte()) != TAG_END;) {
+			String name = in.readUTF();
+			if (type == TAG_COMPOUND && name.equals("Sections")) {
+				for (int sectionType; (sectionType = in.readByte()) != TAG_END;) {
+					in.readUTF();
+					if (sectionType != TAG_COMPOUND) {
+						skip(in, sectionType);
+						continue;
+					}
+					if (!readSection(in, villageObjects))
+						log.warn("Found invalid records during village loading in region file " + path + " in chunk " + chunk);
+				}
+			} else {
+				skip(in, type);
+			}
+		}
+	}
+
+	/** Returns {@code false} if the section is not valid, in which case its records are discarded */
+	private boolean readSection(DataInputStream in, List<VillageObjectPin> villageObjects) throws IOException {
+		/* The order of the tags is not specified, so we only know if the section is valid at the end */
+		int start = villageObjects.size();
+		boolean valid = false;
+		for (int type; (type = in.readByte()) != TAG_END;) {
+			String name = in.readUTF();
+			if (type == TAG_BYTE && name.equals("Valid")) {
+				valid = in.readByte() == 1;
+			} else if (type == TAG_LIST && name.equals("Records")) {
+				int elementType = in.readByte();
+				int length = in.readInt();
+				for (int i = 0; i < length; i++) {
+					if (elementType == TAG_COMPOUND)
+						readRecord(in, villageObjects);
+					else
+						skip(in, elementType);
+				}
+			} else {
+				skip(in, type);
+			}
+		}
+		if (!valid)
+			villageObjects.subList(start, villageObjects.size()).clear();
+		return valid;
+	}
+
+	private void readRecord(DataInputStream in, List<VillageObjectPin> villageObjects) throws IOException {
+		int freeTickets = -1;
+		String type = "<unknown>";
+		int x = 0, y = 0, z = 0;
+		for (int tagType; (tagType = in.readByte()) != TAG_END;) {
+			String name = in.readUTF();
+			if (tagType == TAG_INT && name.equals("free_tickets")) {
+				freeTickets = in.readInt();
+			} else if (tagType == TAG_STRING && name.equals("type")) {
+				type = in.readUTF();
+			} else if (tagType == TAG_INT_ARRAY && name.equals("pos")) {
+				int length = in.readInt();
+				int[] pos = new int[3];
+				for (int i = 0; i < length; i++) {
+					int value = in.readInt();
+					if (i < 3)
+						pos[i] = value;
+				}
+				x = pos[0];
+				y = pos[1];
+				z = pos[2];
+			} else {
+				skip(in, tagType);
+			}
+		}
+		if (typeFilter.test(type))
+			villageObjects.add(new VillageObjectPin(new Vector3i(x, y, z), dimension, freeTickets, type));
+	}
+
+	/** Skip the payload of a tag */
+	private static void skip(DataInputStream in, int type) throws IOException {
+		switch (type) {
+		case TAG_BYTE:
+			in.skipNBytes(1);
+			break;
+		case TAG_SHORT:
+			in.skipNBytes(2);
+			break;
+		case TAG_INT:
+		case TAG_FLOAT:
+			in.skipNBytes(4);
+			break;
+		case TAG_LONG:
+		case TAG_DOUBLE:
+			in.skipNBytes(8);
+			break;
+		case TAG_BYTE_ARRAY:
+			in.skipNBytes(in.readInt());
+			break;
+		case TAG_STRING:
+			in.skipNBytes(in.readUnsignedShort());
+			break;
+		case TAG_LIST:
+			int elementType = in.readByte();
+			int length = in.readInt();
+			for (int i = 0; i < length; i++)
+				skip(in, elementType);
+			break;
+		case TAG_COMPOUND:
+			for (int t; (t = in.readByte()) != TAG_END;) {
+				in.skipNBytes(in.readUnsignedShort());
+				skip(in, t);
+			}
+			break;
+		case TAG_INT_ARRAY:
+			in.skipNBytes(4L * in.readInt());
+			break;
+		case TAG_LONG_ARRAY:
+			in.skipNBytes(8L * in.readInt());
+			break;
+		default:
+			throw new IOException("Unknown tag type " + type);
+		}
+	}
+}
@@ -3,6 +3,7 @@ package de.piegames.blockmap.world;
 import java.awt.image.BufferedImage;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.joml.Vector2ic;
 
@@ -11,11 +12,18 @@ public class Region {
 	protected Vector2ic									position;
 	protected BufferedImage								image;
 	protected Map<? extends Vector2ic, ChunkMetadata>	metadata;
+	protected RegionStatistics							statistics;
 
 	public Region(Vector2ic position, BufferedImage image, Map<? extends Vector2ic, ChunkMetadata> metadata) {
+		this(position, image, metadata, null);
+	}
+
+	/** @param statistics may be {@code null} if no statistics have been collected */
+	public Region(Vector2ic position, BufferedImage image, Map<? extends Vector2ic, ChunkMetadata> metadata, RegionStatistics statistics) {
 		this.position = Objects.requireNonNull(position);
 		this.image = Objects.requireNonNull(image);
 		this.metadata = Objects.requireNonNull(metadata);
+		this.statistics = statistics;
 	}
 
 	public Vector2ic getPosition() {
@@ -29,4 +37,8 @@ public class Region {
 	public Map<? extends Vector2ic, ChunkMetadata> getChunkMetadata() {
 		return metadata;
 	}
+
+	public Optional<RegionStatistics> getStatistics() {
+		return Optional.ofNullable(statistics);
+	}
 }
@@ -1,24 +1,39 @@
 package de.piegames.blockmap.world;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.URI;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.spi.FileSystemProvider;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,6 +43,10 @@ import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,13 +62,16 @@ import org.joml.Vector3ic;
 import com.google.gson.Gson;
 
 import de.piegames.blockmap.MinecraftDimension;
+import de.piegames.blockmap.renderer.CancellationToken;
 import de.piegames.blockmap.renderer.RegionRenderer;
+import de.piegames.blockmap.renderer.RegionRenderer.RawRegion;
 import de.piegames.blockmap.world.ChunkMetadata.ChunkMetadataCulled;
 import de.piegames.blockmap.world.ChunkMetadata.ChunkMetadataFailed;
 import de.piegames.blockmap.world.ChunkMetadata.ChunkMetadataRendered;
 import de.piegames.blockmap.world.ChunkMetadata.ChunkMetadataVersion;
 import de.piegames.blockmap.world.ChunkMetadata.ChunkMetadataVisitor;
 import de.piegames.blockmap.world.ChunkMetadata.ChunkRenderState;
+import de.piegames.blockmap.world.LevelMetadata.MapPin;
 import de.piegames.blockmap.world.RegionFolder.SavedRegionHelper.RegionHelper;
 import de.piegames.nbt.regionfile.RegionFile;
 import io.gsonfire.GsonFireBuilder;
@@ -72,6 +94,7 @@ public abstract class RegionFolder {
 			.enableExcludeByAnnotation()
 			.enableHooks(RegionHelper.class)
 			.enableHooks(LevelMetadata.MapPin.class)
+			.enableHooks(ChunkBitmap.class)
 			.registerTypeSelector(Vector2ic.class, e -> Vector2i.class)
 			.registerTypeSelector(Vector3ic.class, e -> Vector3i.class)
 			.registerTypeSelector(Vector2dc.class, e -> Vector2d.class)
@@ -105,6 +128,27 @@ public abstract class RegionFolder {
 	 */
 	public abstract Region render(Vector2ic pos) throws IOException;
 
+	/**
+	 * Like {@link #render(Vector2ic)}, but stop early with a {@link CancellationException} once the token gets cancelled. Implementations
+	 * that render the region check the token before each chunk, the others only once before loading it.
+	 */
+	public Region render(Vector2ic pos, CancellationToken token) throws IOException {
+		token.check();
+		return render(pos);
+	}
+
+	/**
+	 * Generates a quick, low resolution preview of the region at the given position, with one pixel per chunk (32x32 pixels). It is meant
+	 * to be shown until {@link #render(Vector2ic)} has finished and should be much faster than it.
+	 * 
+	 * @return the preview image or {@code Optional.empty()} if this RegionFolder can't create previews faster than rendering the region
+	 * @throws IOException
+	 *             if the preview could not be created
+	 */
+	public Optional<BufferedImage> preview(Vector2ic pos) throws IOException {
+		return Optional.empty();
+	}
+
 	/**
 	 * Get the time the region file at {@code pos} was last modified. This will be used to determine if
 	 * a cached rendered image of that file is still valid or not.
@@ -121,6 +165,17 @@ public abstract class RegionFolder {
 	/** Returns the pins of this specific world or {@code Optional.empty()} if they are not loaded. */
 	public abstract Optional<LevelMetadata> getPins();
 
+	/**
+	 * Returns the pins of this specific world once they are available. Implementations that load their pins
+	 * in the background will complete the returned future later on, all others return an already completed
+	 * one.
+	 * 
+	 * @see #getPins()
+	 */
+	public CompletableFuture<Optional<LevelMetadata>> getPinsAsync() {
+		return CompletableFuture.completedFuture(getPins());
+	}
+
 	/**
 	 * Whether the render process of this region folder may need caching or not.
 	 */
@@ -149,7 +204,8 @@ public abstract class RegionFolder {
 		/**
 		 * @param file
 		 *            map region coordinates to paths, which point to the respective file. Those are treated
-		 *            as the "world" represented by this RegionFolder. May not be {@code null}.
+		 *            as the "world" represented by this RegionFolder. May not be {@code null}. It must be
+		 *            mutable and thread safe in order to use {@link #updateRegion(Vector2ic, Path)}.
 		 * @param pins
 		 *            The pins of this world. May not be {@code null}.
 		 * @param renderer
@@ -173,10 +229,15 @@ public abstract class RegionFolder {
 
 		@Override
 		public Region render(Vector2ic pos) throws IOException {
+			return render(pos, CancellationToken.NONE);
+		}
+
+		@Override
+		public Region render(Vector2ic pos, CancellationToken token) throws IOException {
 			if (regions.containsKey(pos)) {
 				var path = regions.get(pos);
 				try (RegionFile file = new RegionFile(path, StandardOpenOption.READ)) {
-					return renderer.render(pos, file);
+					return renderer.render(pos, file, token);
 				} catch (RuntimeException | IOException e) {
 					if (Files.size(path) == 0) {
 						log.warn("'" + path + "' is empty?!");
@@ -188,11 +249,77 @@ public abstract class RegionFolder {
 				return null;
 		}
 
+		/** Create a preview from the header of the region file, see {@link RegionRenderer#preview(Vector2ic, RegionFile)} */
+		@Override
+		public Optional<BufferedImage> preview(Vector2ic pos) throws IOException {
+			var path = regions.get(pos);
+			if (path == null || Files.size(path) == 0)
+				return Optional.empty();
+			try (RegionFile file = new RegionFile(path, StandardOpenOption.READ)) {
+				return Optional.of(renderer.preview(pos, file));
+			}
+		}
+
+		/**
+		 * Only do the first step of rendering a region, which is reading the compressed data of all of its chunks. Used by the
+		 * {@link RenderPipeline}.
+		 * 
+		 * @return the chunks or {@code null} if there is no region at that position
+		 * @see RegionRenderer#read(Vector2ic, RegionFile)
+		 */
+		public RawRegion read(Vector2ic pos) throws IOException {
+			var path = regions.get(pos);
+			if (path == null)
+				return null;
+			try (RegionFile file = new RegionFile(path, StandardOpenOption.READ)) {
+				return renderer.read(pos, file);
+			} catch (RuntimeException | IOException e) {
+				if (Files.size(path) == 0) {
+					log.warn("'" + path + "' is empty?!");
+					return new RawRegion(pos);
+				} else
+					throw e;
+			}
+		}
+
+		public RegionRenderer getRenderer() {
+			return renderer;
+		}
+
 		@Override
 		public long getTimestamp(Vector2ic pos) throws IOException {
 			return Files.getLastModifiedTime(regions.get(pos)).toMillis();
 		}
 
+		/**
+		 * Bring a region in sync with the disk after its file has been created, modified or deleted. This allows
+		 * following the changes of a running world without loading the whole folder again.
+		 * 
+		 * @return whether the region exists
+		 */
+		public boolean updateRegion(Vector2ic pos, Path file) {
+			if (Files.exists(file)) {
+				regions.put(pos, file);
+				return true;
+			} else {
+				regions.remove(pos);
+				return false;
+			}
+		}
+
+		/**
+		 * Get the position of a region file from its name.
+		 * 
+		 * @return the position or {@code null} if the name does not match the one of a region file
+		 */
+		public static Vector2ic parsePosition(String fileName) {
+			Matcher m = rfpat.matcher(fileName);
+			if (m.matches())
+				return new Vector2i(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)));
+			else
+				return null;
+		}
+
 		@Override
 		public long getTimestamp() {
 			return timestamp;
@@ -239,8 +366,9 @@ public abstract class RegionFolder {
 
 		/**
 		 * Loads a region folder from a given path. All region files found in this folder (not searching
-		 * recursively) will be added to the returned object. Files added later on won't be recognized.
-		 * Removing files will lead to errors when trying to render them. All files whose name matches
+		 * recursively) will be added to the returned object. Files added later on won't be recognized unless
+		 * they are passed to {@link #updateRegion(Vector2ic, Path)}. Removing files will lead to errors when
+		 * trying to render them. All files whose name matches
 		 * {@code ^r\.(-?\d+)\.(-?\d+)\.mca$} are taken. If one of them isn't a proper region file,
 		 * rendering it will fail.
 		 * 
@@ -250,12 +378,12 @@ public abstract class RegionFolder {
 		 *            requirement. It has to be a directory.
 		 */
 		public static WorldRegionFolder load(Path regionFolder, RegionRenderer renderer, boolean isNether) throws IOException {
-			Map<Vector2ic, Path> files = new HashMap<>();
+			Map<Vector2ic, Path> files = new ConcurrentHashMap<>();
 			try (Stream<Path> stream = Files.list(regionFolder)) {
 				for (Path p : (Iterable<Path>) stream::iterator) {
-					Matcher m = rfpat.matcher(p.getFileName().toString());
-					if (m.matches())
-						files.put(new Vector2i(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))), p);
+					Vector2ic pos = parsePosition(p.getFileName().toString());
+					if (pos != null)
+						files.put(pos, p);
 				}
 			}
 			return new WorldRegionFolder(files, renderer, isNether);
@@ -277,26 +405,58 @@ public abstract class RegionFolder {
 		/** The path to the metadata.json file. All paths are relative to this. */
 		protected final T basePath;
 		protected final Map<Vector2ic, RegionHelper> regions;
-		protected final Optional<LevelMetadata> pins;
+		protected final CompletableFuture<Optional<LevelMetadata>> pins;
 		protected final long timestamp;
 		protected final boolean isNether;
 
 		/**
 		 * Loads a json file that contains the information about all rendered files.
 		 * 
-		 * @see #parseSaved(JsonElement)
+		 * @see #SavedRegionFolder(Object, boolean)
 		 */
 		protected SavedRegionFolder(T file) throws IOException {
+			this(file, false);
+		}
+
+		/**
+		 * Loads a json file that contains the information about all rendered files.
+		 * 
+		 * @param lazy
+		 *            if set to true, only the list of regions will be loaded up front. The chunk metadata of
+		 *            each region will be fetched the first time it gets rendered and the pins will be loaded in
+		 *            the background (see {@link #getPinsAsync()}). This only makes a difference for save files
+		 *            that store their metadata in separate files, which is the case for everything written by
+		 *            {@link CachedRegionFolder#save()}.
+		 */
+		protected SavedRegionFolder(T file, boolean lazy) throws IOException {
+			this(file, lazy, true);
+		}
+
+		/**
+		 * Like {@link #SavedRegionFolder(Object, boolean)}, but the pins may be skipped for subclasses that get them from somewhere else.
+		 * 
+		 * @param loadPins
+		 *            if set to false, the pins will not be loaded and {@link #getPins()} will always be empty
+		 */
+		protected SavedRegionFolder(T file, boolean lazy, boolean loadPins) throws IOException {
 			this.basePath = file;
 			SavedRegionHelper helper = load(file);
 			if (helper == null)
 				throw new IOException("The rendered.json.gz file in the output directory is corrupt, please delete it and try again.");
-			pins = Optional.ofNullable(helper.pins);
 			regions = Optional.ofNullable(helper.regions)
 					.stream().flatMap(Collection::stream)
-					.collect(Collectors.toMap(r -> new Vector2i(r.x, r.z), Function.identity()));
+					.collect(Collectors.toMap(r -> new Vector2i(r.x, r.z), Function.identity(), (a, b) -> b, ConcurrentHashMap::new));
 			timestamp = helper.timestamp;
 			isNether = helper.isNether;
+			if (!lazy)
+				for (RegionHelper region : regions.values())
+					loadMetadata(region);
+			if (!loadPins)
+				pins = CompletableFuture.completedFuture(Optional.empty());
+			else if (lazy)
+				pins = CompletableFuture.supplyAsync(() -> loadPins(helper));
+			else
+				pins = CompletableFuture.completedFuture(loadPins(helper));
 		}
 
 		@Override
@@ -304,7 +464,7 @@ public abstract class RegionFolder {
 			RegionHelper helper = regions.get(pos);
 			if (helper == null)
 				return null;
-			return new Region(pos, render(helper), helper.metadata);
+			return new Region(pos, render(helper), loadMetadata(helper));
 		}
 
 		/** Mapping from the path type T to an input stream. */
@@ -315,7 +475,100 @@ public abstract class RegionFolder {
 		protected abstract SavedRegionHelper load(T basePath) throws IOException;
 
 		protected BufferedImage render(RegionHelper rawRegion) throws IOException {
-			return ImageIO.read(getInputStream(getSibling(basePath, rawRegion.image)));
+			/* Closing the ImageInputStream does not close the stream it reads from */
+			try (InputStream source = getInputStream(getSibling(basePath, rawRegion.image));
+					ImageInputStream in = ImageIO.createImageInputStream(source)) {
+				return readImage(in);
+			}
+		}
+
+		/**
+		 * Decode an image. If the format allows it, the image will be decoded directly into a {@link BufferedImage#TYPE_INT_ARGB} raster like
+		 * the one of freshly rendered regions, so that consumers can use its pixel array without converting it first.
+		 */
+		static BufferedImage readImage(ImageInputStream in) throws IOException {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext())
+				throw new IOException("Unknown image format");
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				ImageReadParam param = reader.getDefaultReadParam();
+				for (Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0); types.hasNext();) {
+					ImageTypeSpecifier type = types.next();
+					if (type.getBufferedImageType() == BufferedImage.TYPE_INT_ARGB) {
+						param.setDestinationType(type);
+						break;
+					}
+				}
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+
+		/** Read a gzipped json file and deserialize it using {@link RegionFolder#GSON}. */
+		protected <U> U loadJson(T path, Class<U> clazz) throws IOException {
+			try (Reader reader = new InputStreamReader(new GZIPInputStream(getInputStream(path), 8192))) {
+				return GSON.fromJson(reader, clazz);
+			}
+		}
+
+		/**
+		 * Get the chunk metadata of a region without loading its image.
+		 * 
+		 * @return the metadata or {@code null} if there is no region at that position
+		 */
+		public Map<? extends Vector2ic, ChunkMetadata> getMetadata(Vector2ic pos) throws IOException {
+			RegionHelper helper = regions.get(pos);
+			return helper == null ? null : loadMetadata(helper);
+		}
+
+		/**
+		 * Get the statistics of a region, if they have been collected while rendering it (see
+		 * {@link de.piegames.blockmap.renderer.RenderSettings#collectStatistics}). They are loaded from the disk
+		 * every time.
+		 */
+		public Optional<RegionStatistics> getStatistics(Vector2ic pos) throws IOException {
+			RegionHelper helper = regions.get(pos);
+			if (helper == null || helper.statisticsFile == null)
+				return Optional.empty();
+			return Optional.of(loadJson(getSibling(basePath, helper.statisticsFile), RegionStatistics.class));
+		}
+
+		/**
+		 * Get the chunk metadata of a region. If it is stored in a separate file and has not been loaded yet, this
+		 * will do so.
+		 */
+		protected Map<? extends Vector2ic, ChunkMetadata> loadMetadata(RegionHelper region) throws IOException {
+			synchronized (region) {
+				if (region.metadata == null) {
+					if (region.metadataFile != null)
+						region.postDeserialize(Arrays.asList(loadJson(getSibling(basePath, region.metadataFile), ChunkMetadata[].class)));
+					else
+						region.metadata = Collections.emptyMap();
+				}
+				return region.metadata;
+			}
+		}
+
+		private Optional<LevelMetadata> loadPins(SavedRegionHelper helper) {
+			if (helper.pinsFile == null)
+				return Optional.ofNullable(helper.pins);
+			try {
+				LevelMetadata pins = loadJson(getSibling(basePath, helper.pinsFile), LevelMetadata.class);
+				if (pins != null && pins.maps != null)
+					for (MapPin map : pins.maps.orElse(Collections.emptyList()))
+						map.colorsFile.ifPresent(file -> map.colorsSource = () -> {
+							try (InputStream in = new GZIPInputStream(getInputStream(getSibling(basePath, file)))) {
+								return in.readAllBytes();
+							}
+						});
+				return Optional.ofNullable(pins);
+			} catch (IOException | RuntimeException e) {
+				log.warn("Could not load pins from " + helper.pinsFile, e);
+				return Optional.empty();
+			}
 		}
 
 		@Override
@@ -338,8 +591,17 @@ public abstract class RegionFolder {
 			return isNether;
 		}
 
+		/**
+		 * Returns the pins of this world. If they are loaded lazily and are not available yet, this will return
+		 * {@code Optional.empty()} instead of waiting for them.
+		 */
 		@Override
 		public Optional<LevelMetadata> getPins() {
+			return pins.getNow(Optional.empty());
+		}
+
+		@Override
+		public CompletableFuture<Optional<LevelMetadata>> getPinsAsync() {
 			return pins;
 		}
 	}
@@ -356,6 +618,14 @@ public abstract class RegionFolder {
 			super(file);
 		}
 
+		public LocalRegionFolder(Path file, boolean lazy) throws IOException {
+			super(file, lazy);
+		}
+
+		protected LocalRegionFolder(Path file, boolean lazy, boolean loadPins) throws IOException {
+			super(file, lazy, loadPins);
+		}
+
 		@Override
 		protected InputStream getInputStream(Path path) throws IOException {
 			return Files.newInputStream(path);
@@ -363,9 +633,7 @@ public abstract class RegionFolder {
 
 		@Override
 		public SavedRegionHelper load(Path basePath) throws IOException {
-			try (Reader reader = new InputStreamReader(new GZIPInputStream(getInputStream(basePath)))) {
-				return GSON.fromJson(reader, SavedRegionHelper.class);
-			}
+			return loadJson(basePath, SavedRegionHelper.class);
 		}
 
 		@Override
@@ -396,6 +664,10 @@ public abstract class RegionFolder {
 			super(file);
 		}
 
+		public RemoteRegionFolder(URI file, boolean lazy) throws IOException {
+			super(file, lazy);
+		}
+
 		@Override
 		protected InputStream getInputStream(URI path) throws IOException {
 			return path.toURL().openStream();
@@ -403,9 +675,7 @@ public abstract class RegionFolder {
 
 		@Override
 		protected SavedRegionHelper load(URI basePath) throws IOException {
-			try (Reader reader = new InputStreamReader(new GZIPInputStream(getInputStream(basePath), 8192))) {
-				return GSON.fromJson(reader, SavedRegionHelper.class);
-			}
+			return loadJson(basePath, SavedRegionHelper.class);
 		}
 
 		@Override
@@ -428,63 +698,250 @@ public abstract class RegionFolder {
 
 		protected RegionFolder world;
 		protected boolean lazy;
+		protected Set<String> allowedStructures;
+		/* Append-only log of the regions rendered since the last save, opened on first use */
+		protected Path journalPath;
+		protected Writer journal;
+		/* Regions whose images have been written by this instance. They are up to date even if it is not lazy. */
+		protected final Set<Vector2ic> written = ConcurrentHashMap.newKeySet();
 
 		/**
 		 * @param cached
 		 *            the renderer used to create images of region files if they haven't been rendered yet
 		 * @param lazy
-		 *            if set to false, no cached files will be returned for re-rendering. If set to true, a
+		 *            if set to false, no cached files from previous runs will be returned for re-rendering. If set to true, a
 		 *            re-render will load the image from disk if the respective region file has not been
 		 *            modified since then (based on the timestamp). Laziness has the effect that changing
-		 *            the render settings will not cause already rendered files to be updated.
+		 *            the render settings will not cause already rendered files to be updated. Images written by this
+		 *            instance are always reused as long as the region file did not change.
 		 * @throws IOException
 		 */
 		protected CachedRegionFolder(RegionFolder cached, boolean lazy, Path file) throws IOException {
-			super(file);
+			/* The pins come from the cached world */
+			super(file, true, false);
 			this.lazy = lazy;
 			this.world = Objects.requireNonNull(cached);
+			this.journalPath = getSibling(file, JOURNAL_NAME);
+			replayJournal();
+		}
+
+		/**
+		 * Add the regions from the journal of a previous run that did not get to {@link #save()} to the index. Entries whose image
+		 * does not exist anymore are dropped, as well as a partially written last line. The journal is then rewritten with the
+		 * remaining entries so that new ones can be appended safely.
+		 */
+		private void replayJournal() throws IOException {
+			if (!Files.exists(journalPath))
+				return;
+			List<String> valid = new ArrayList<>();
+			for (String line : Files.readAllLines(journalPath)) {
+				if (line.isBlank())
+					continue;
+				RegionHelper region;
+				try {
+					region = GSON.fromJson(line, RegionHelper.class);
+				} catch (RuntimeException e) {
+					/* Most likely the last line, which was being written when the process got killed */
+					log.warn("Skipping corrupt journal entry " + line);
+					continue;
+				}
+				if (region == null || region.image == null || !Files.exists(getSibling(basePath, region.image)))
+					continue;
+				/* The metadata is stored in its own file and will be loaded lazily */
+				region.metadata = null;
+				regions.put(new Vector2i(region.x, region.z), region);
+				valid.add(line);
+			}
+			if (!valid.isEmpty())
+				log.info("Resuming with " + valid.size() + " regions from an interrupted run");
+			Path tmp = getSibling(basePath, JOURNAL_NAME + ".tmp");
+			Files.write(tmp, valid);
+			Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 		}
 
 		/**
 		 * If the image folder already contains a matching image for this position <b>and</b> the
-		 * {@code lazy} flag was set in the constructor <b>and</b> the saved file is newer than the region
-		 * file, this image will be returned. Otherwise, it will be rendered again and written to disk.
+		 * {@code lazy} flag was set in the constructor or the image has been written by this instance <b>and</b> the
+		 * saved file is newer than the region file, this image will be returned. Otherwise, it will be rendered again and written to disk.
 		 * 
 		 * @see SavedRegionFolder#render(Vector2ic)
 		 */
 		@Override
 		public Region render(Vector2ic pos) throws IOException {
+			return render(pos, CancellationToken.NONE);
+		}
+
+		/**
+		 * Like {@link #render(Vector2ic)}. If the token gets cancelled, this stops while rendering, before encoding or before writing the
+		 * image. Once writing has started, it will be finished. The cache stays consistent in every case.
+		 */
+		@Override
+		public Region render(Vector2ic pos, CancellationToken token) throws IOException {
 			if (!listRegions().contains(pos))
 				return null;
 			RegionHelper helper = regions.get(pos);
-			if (helper != null
-					&& lazy
-					&& world.getTimestamp(pos) < helper.lastModified) {
+			if (isUpToDate(pos)) {
 				return new Region(pos,
 						super.render(helper),
-						helper.metadata);
+						loadMetadata(helper));
 			} else {
-				Region rendered = world.render(pos);
-				String imageName = "r." + pos.x() + "." + pos.y() + ".png";
-				Path imagePath = getSibling(basePath, imageName);
-				ImageIO.write(rendered.getImage(), "png", Files.newOutputStream(imagePath));
-				synchronized (regions) {
-					regions.put(pos, new RegionHelper(pos.x(), pos.y(), Files.getLastModifiedTime(imagePath).toMillis(), imageName, rendered.metadata));
-				}
+				Region rendered = world.render(pos, token);
+				token.check();
+				byte[] png = encode(rendered.getImage());
+				token.check();
+				write(pos, png, rendered.metadata, rendered.statistics);
 				return rendered;
 			}
 		}
 
+		/** Encode a rendered image as PNG, ready to be passed to {@link #write(Vector2ic, byte[], Map)}. */
+		public static byte[] encode(BufferedImage image) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+			ImageIO.write(image, "png", out);
+			return out.toByteArray();
+		}
+
+		/**
+		 * Store a freshly rendered region: write its image and metadata to the disk and add it to the index.
+		 * 
+		 * @param png
+		 *            the image of the region, encoded as PNG
+		 */
+		public void write(Vector2ic pos, byte[] png, Map<? extends Vector2ic, ChunkMetadata> metadata) throws IOException {
+			write(pos, png, metadata, null);
+		}
+
+		/**
+		 * Store a freshly rendered region together with its statistics.
+		 * 
+		 * @param statistics
+		 *            will be written to a separate file next to the metadata. May be {@code null}.
+		 * @see #write(Vector2ic, byte[], Map)
+		 */
+		public void write(Vector2ic pos, byte[] png, Map<? extends Vector2ic, ChunkMetadata> metadata, RegionStatistics statistics)
+				throws IOException {
+			/*
+			 * An interrupt would close the channels we write to, leaving half written files behind or breaking the journal. So an interrupt
+			 * that arrived while rendering is only restored afterwards.
+			 */
+			boolean interrupted = Thread.interrupted();
+			try {
+				writeRegion(pos, png, metadata, statistics);
+			} finally {
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+		}
+
+		private void writeRegion(Vector2ic pos, byte[] png, Map<? extends Vector2ic, ChunkMetadata> metadata, RegionStatistics statistics)
+				throws IOException {
+			if (allowedStructures != null)
+				filterStructures(metadata, allowedStructures);
+			String imageName = imageName(pos.x(), pos.y());
+			String metadataName = metadataName(pos.x(), pos.y());
+			Path imagePath = getSibling(basePath, imageName);
+			Files.write(imagePath, png);
+			saveJson(getSibling(basePath, metadataName), metadata.values());
+			RegionHelper region = new RegionHelper(pos.x(), pos.y(), Files.getLastModifiedTime(imagePath).toMillis(), imageName, metadataName,
+					metadata);
+			if (statistics != null) {
+				region.statisticsFile = statisticsName(pos.x(), pos.y());
+				saveJson(getSibling(basePath, region.statisticsFile), statistics);
+			}
+			synchronized (regions) {
+				regions.put(pos, region);
+				appendJournal(region);
+			}
+			written.add(pos);
+		}
+
+		/**
+		 * Record a freshly rendered region, so that it won't be lost if the process gets killed before the next
+		 * {@link #save()}. Must be called while holding the lock on {@link #regions}.
+		 */
+		private void appendJournal(RegionHelper region) throws IOException {
+			String line = GSON.toJson(region);
+			if (journal == null)
+				journal = Files.newBufferedWriter(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			try {
+				journal.write(line);
+				journal.write('\n');
+				journal.flush();
+			} catch (IOException e) {
+				/*
+				 * An interrupt may have closed the journal earlier, possibly in the middle of a line. Reopen it and start on a new line,
+				 * replaying skips the broken one. If that fails too, give up.
+				 */
+				log.warn("Could not append to the journal, reopening it", e);
+				try {
+					journal.close();
+				} catch (IOException e1) {
+				}
+				journal = Files.newBufferedWriter(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+				journal.write('\n');
+				journal.write(line);
+				journal.write('\n');
+				journal.flush();
+			}
+		}
+
+		/**
+		 * Whether {@link #render(Vector2ic)} would load the region from the disk instead of rendering it. This is
+		 * the case if the image exists, the {@code lazy} flag is set or the image has been written by this instance,
+		 * and the region file has not been modified since.
+		 */
+		public boolean isUpToDate(Vector2ic pos) throws IOException {
+			RegionHelper helper = regions.get(pos);
+			return helper != null
+					&& (lazy || written.contains(pos))
+					&& world.getTimestamp(pos) < helper.lastModified;
+		}
+
+		/**
+		 * Remove a region that does not exist in the world anymore. Its files are deleted right away, so that it won't come back from the
+		 * journal either. The index on the disk is updated with the next {@link #save()}.
+		 * 
+		 * @return whether the region was in the cache
+		 */
+		public boolean remove(Vector2ic pos) throws IOException {
+			RegionHelper region;
+			synchronized (regions) {
+				region = regions.remove(pos);
+			}
+			written.remove(pos);
+			if (region == null)
+				return false;
+			for (String file : new String[] { region.image, region.metadataFile, region.statisticsFile })
+				if (file != null)
+					Files.deleteIfExists(getSibling(basePath, file));
+			return true;
+		}
+
+		/** The region folder whose regions get cached */
+		public RegionFolder getWorld() {
+			return world;
+		}
+
 		@Override
 		public Set<Vector2ic> listRegions() {
 			return world.listRegions();
 		}
 
+		@Override
+		public Optional<BufferedImage> preview(Vector2ic pos) throws IOException {
+			return world.preview(pos);
+		}
+
 		@Override
 		public Optional<LevelMetadata> getPins() {
 			return world.getPins();
 		}
 
+		@Override
+		public CompletableFuture<Optional<LevelMetadata>> getPinsAsync() {
+			return world.getPinsAsync();
+		}
+
 		@Override
 		public long getTimestamp() {
 			return world.getTimestamp();
@@ -496,49 +953,181 @@ public abstract class RegionFolder {
 		}
 
 		/**
-		 * Remove all information about generated structures that are not in the set
+		 * Remove all information about generated structures that are not in the set from regions that will be
+		 * rendered from now on. Use {@link #filterStructures(Set)} for the already rendered ones.
+		 * 
+		 * @param allowedStructures
+		 *            the structures to keep or {@code null} to keep all of them
+		 */
+		public void setStructureFilter(Set<String> allowedStructures) {
+			this.allowedStructures = allowedStructures;
+		}
+
+		/**
+		 * Remove all information about generated structures that are not in the set. This needs to load the
+		 * metadata of all regions. Regions whose metadata changed will have it written again on the next
+		 * {@link #save()}.
 		 */
-		public void filterStructures(Set<String> allowedStructs) {
-			regions.values()
-					.stream()
-					.flatMap(regionHelper -> regionHelper.metadata.values().stream())
-					.forEach(metadata -> metadata.visit(new ChunkMetadataVisitor<Void>() {
-						@Override
-						public Void rendered(ChunkMetadataRendered metadata) {
-							metadata.structures.keySet().retainAll(allowedStructs);
-							return null;
-						}
-
-						@Override
-						public Void failed(ChunkMetadataFailed metadata) {
-							return null;
-						}
-
-						@Override
-						public Void culled(ChunkMetadataCulled metadata) {
-							return null;
-						}
-
-						@Override
-						public Void version(ChunkMetadataVersion metadata) {
-							return null;
-						}
-					}));
+		public void filterStructures(Set<String> allowedStructs) throws IOException {
+			for (RegionHelper regionHelper : regions.values()) {
+				if (filterStructures(loadMetadata(regionHelper), allowedStructs))
+					regionHelper.metadataFile = null;
+			}
+		}
+
+		/** Returns whether the metadata changed */
+		private static boolean filterStructures(Map<? extends Vector2ic, ChunkMetadata> metadata, Set<String> allowedStructs) {
+			ChunkMetadataVisitor<Boolean> filter = new ChunkMetadataVisitor<Boolean>() {
+				@Override
+				public Boolean rendered(ChunkMetadataRendered metadata) {
+					return metadata.structures.keySet().retainAll(allowedStructs);
+				}
+
+				@Override
+				public Boolean failed(ChunkMetadataFailed metadata) {
+					return false;
+				}
+
+				@Override
+				public Boolean culled(ChunkMetadataCulled metadata) {
+					return false;
+				}
+
+				@Override
+				public Boolean version(ChunkMetadataVersion metadata) {
+					return false;
+				}
+			};
+			boolean changed = false;
+			for (ChunkMetadata chunk : metadata.values())
+				changed |= chunk.visit(filter);
+			return changed;
 		}
 
 		/**
-		 * Saves the current rendering state of the world, including metadata, back to the provided path.
+		 * Saves the current rendering state of the world, including metadata, back to the provided path. The
+		 * chunk metadata of each region and the pins are written to separate files next to it, so that
+		 * {@link SavedRegionFolder}s can load them lazily. The index is replaced atomically, after which the
+		 * journal of regions rendered since the last save is cleared.
 		 */
 		public void save() throws IOException {
 			synchronized (regions) {
-				try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(basePath,
-						StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), 8192, true))) {
-					GSON.toJson(new SavedRegionHelper(regions.values(), getPins().orElse(null), getTimestamp(), isNether()), writer);
-					writer.flush();
+				for (RegionHelper region : regions.values()) {
+					if (region.metadataFile == null && region.metadata != null) {
+						String metadataName = metadataName(region.x, region.z);
+						saveJson(getSibling(basePath, metadataName), region.metadata.values());
+						region.metadataFile = metadataName;
+					}
+				}
+				String pinsFile = null;
+				Optional<LevelMetadata> pins = getPins();
+				if (pins.isPresent()) {
+					pinsFile = "pins.json.gz";
+					saveJson(getSibling(basePath, pinsFile), saveMapColors(pins.get()));
+				}
+				Path tmp = getSibling(basePath, basePath.getFileName() + ".tmp");
+				saveJson(tmp, new SavedRegionHelper(regions.values(), pinsFile, getTimestamp(), isNether()));
+				Files.move(tmp, basePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+				if (journal != null) {
+					journal.close();
+					journal = null;
+				}
+				Files.deleteIfExists(journalPath);
+			}
+		}
+
+		/**
+		 * Write the colors of all maps to the {@value #MAPS_FOLDER} folder. The files are named after the SHA-1 hash of their content, so
+		 * copies of the same map share a file and files that already exist don't need to be written again. Files that are not referenced
+		 * by any map anymore are deleted.
+		 * 
+		 * @return a copy of the pins where the maps reference their files instead of containing the colors
+		 */
+		private LevelMetadata saveMapColors(LevelMetadata pins) throws IOException {
+			if (pins.maps == null || pins.maps.isEmpty())
+				return pins;
+			Path folder = getSibling(basePath, MAPS_FOLDER);
+			Set<String> used = new HashSet<>();
+			List<MapPin> maps = new ArrayList<>(pins.maps.get().size());
+			for (MapPin map : pins.maps.get()) {
+				if (map.colors.isEmpty()) {
+					map.colorsFile.ifPresent(used::add);
+					maps.add(map);
+					continue;
 				}
+				String name = MAPS_FOLDER + "/" + HexFormat.of().formatHex(sha1(map.colors.get())) + ".gz";
+				Path file = getSibling(basePath, name);
+				if (used.add(name) && !Files.exists(file)) {
+					Files.createDirectories(folder);
+					Path tmp = getSibling(basePath, name + ".tmp");
+					try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+						out.write(map.colors.get());
+					}
+					Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				maps.add(map.withColorsFile(name));
+			}
+			if (Files.isDirectory(folder))
+				try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+					for (Path file : files)
+						if (!used.contains(MAPS_FOLDER + "/" + file.getFileName()))
+							Files.delete(file);
+				}
+			return pins.withMaps(maps);
+		}
+
+		private static byte[] sha1(byte[] data) {
+			try {
+				return MessageDigest.getInstance("SHA-1").digest(data);
+			} catch (NoSuchAlgorithmException e) {
+				/* Every Java platform is required to support SHA-1 */
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Write an index in the format of {@code rendered.json.gz} that lists the given regions with their
+		 * current timestamps, no matter if they have been rendered yet or not. It references the image,
+		 * metadata and pin files by the names {@link #save()} would give them. This is intended for serving a
+		 * world whose regions get rendered on demand.
+		 */
+		public void writeIndex(OutputStream out, Collection<? extends Vector2ic> positions) throws IOException {
+			List<RegionHelper> index = new ArrayList<>(positions.size());
+			for (Vector2ic pos : positions)
+				index.add(new RegionHelper(pos.x(), pos.y(), world.getTimestamp(pos), imageName(pos.x(), pos.y()), metadataName(pos.x(), pos.y()), null));
+			saveJson(out, new SavedRegionHelper(index, getPins().isPresent() ? "pins.json.gz" : null, getTimestamp(), isNether()));
+		}
+
+		/** Serialize an object using {@link RegionFolder#GSON} and write it to a gzipped file. */
+		protected static void saveJson(Path path, Object object) throws IOException {
+			saveJson(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), object);
+		}
+
+		/** Serialize an object using {@link RegionFolder#GSON} and write it gzipped to a stream, which will be closed afterwards. */
+		public static void saveJson(OutputStream out, Object object) throws IOException {
+			try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(out, 8192, true))) {
+				GSON.toJson(object, writer);
+				writer.flush();
 			}
 		}
 
+		private static final String	JOURNAL_NAME	= "rendered.journal";
+		/** The folder containing the colors of the maps, next to the {@code rendered.json.gz} */
+		public static final String		MAPS_FOLDER		= "maps";
+
+		private static String imageName(int x, int z) {
+			return "r." + x + "." + z + ".png";
+		}
+
+		private static String metadataName(int x, int z) {
+			return "r." + x + "." + z + ".json.gz";
+		}
+
+		private static String statisticsName(int x, int z) {
+			return "r." + x + "." + z + ".stats.json.gz";
+		}
+
 		public static CachedRegionFolder create(RegionFolder cached, boolean lazy, Path folder) throws IOException {
 			if (!Files.exists(folder))
 				Files.createDirectories(folder);
@@ -554,16 +1143,20 @@ public abstract class RegionFolder {
 
 	}
 
-	/** Object representation of the content of the {@code rendered.json} metadata file. */
+	/**
+	 * Object representation of the content of the {@code rendered.json} metadata file. Older versions stored
+	 * the pins and the chunk metadata of all regions inline, newer ones reference separate files instead.
+	 */
 	static class SavedRegionHelper {
 		Collection<RegionHelper> regions;
 		LevelMetadata pins;
+		String pinsFile;
 		long timestamp;
 		boolean isNether;
 
-		public SavedRegionHelper(Collection<RegionHelper> regions, LevelMetadata pins, long timestamp, boolean isNether) {
+		public SavedRegionHelper(Collection<RegionHelper> regions, String pinsFile, long timestamp, boolean isNether) {
 			this.regions = regions;
-			this.pins = pins;
+			this.pinsFile = pinsFile;
 			this.timestamp = timestamp;
 			this.isNether = isNether;
 		}
@@ -572,6 +1165,10 @@ public abstract class RegionFolder {
 			int x, z;
 			long lastModified;
 			String image;
+			String metadataFile;
+			/* Null if no statistics have been collected */
+			String statisticsFile;
+			/* Will be null as long as the metadata has not been loaded from metadataFile yet */
 			@Exclude
 			Map<? extends Vector2ic, ChunkMetadata> metadata;
 
@@ -579,21 +1176,26 @@ public abstract class RegionFolder {
 
 			}
 
-			public RegionHelper(int x, int z, long lastModified, String image, Map<? extends Vector2ic, ChunkMetadata> metadata) {
+			public RegionHelper(int x, int z, long lastModified, String image, String metadataFile, Map<? extends Vector2ic, ChunkMetadata> metadata) {
 				this.x = x;
 				this.z = z;
 				this.lastModified = lastModified;
 				this.image = image;
+				this.metadataFile = metadataFile;
 				this.metadata = metadata;
 			}
 
 			@ExposeMethodResult("metadata")
 			private Collection<ChunkMetadata> postSerialize() {
+				if (metadataFile != null)
+					return null;
 				return metadata != null ? metadata.values() : Collections.emptyList();
 			}
 
 			@ExposeMethodParam("metadata")
 			private void postDeserialize(Collection<ChunkMetadata> metadata) {
+				if (metadata == null && metadataFile != null)
+					return;
 				this.metadata = Optional.ofNullable(metadata).stream().flatMap(Collection::stream)
 						.collect(Collectors.toMap(meta -> meta.position, Function.identity()));
 			}
@@ -0,0 +1,91 @@
+package de.piegames.blockmap.world;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Statistics about the surface of a rendered region, collected while rendering it (see
+ * {@link de.piegames.blockmap.renderer.RenderSettings#collectStatistics}). All counts are in columns (i.e. square blocks of area),
+ * except for the generation status which is counted per chunk. Columns that are culled or contain no solid block are not counted.
+ * <p>
+ * Statistics of multiple regions can be combined with {@link #add(RegionStatistics)}.
+ */
+public class RegionStatistics {
+
+	/** The number of columns by the name of their top block, which is the one that determines the height */
+	Map<String, Integer>	topBlocks			= new HashMap<>();
+	/** The number of columns by their biome at the top of the world */
+	Map<String, Integer>	biomes				= new HashMap<>();
+	/** The height of the first entry in {@link #heights} */
+	int						minHeight;
+	/** The number of columns by their height, starting at {@link #minHeight} */
+	int[]					heights				= new int[0];
+	/** The number of rendered chunks by their generation status */
+	Map<String, Integer>	generationStatus	= new HashMap<>();
+
+	public RegionStatistics() {
+	}
+
+	public RegionStatistics(Map<String, Integer> topBlocks, Map<String, Integer> biomes, int minHeight, int[] heights,
+			Map<String, Integer> generationStatus) {
+		this.topBlocks = Objects.requireNonNull(topBlocks);
+		this.biomes = Objects.requireNonNull(biomes);
+		this.minHeight = minHeight;
+		this.heights = Objects.requireNonNull(heights);
+		this.generationStatus = Objects.requireNonNull(generationStatus);
+	}
+
+	public Map<String, Integer> getTopBlocks() {
+		return Collections.unmodifiableMap(topBlocks);
+	}
+
+	public Map<String, Integer> getBiomes() {
+		return Collections.unmodifiableMap(biomes);
+	}
+
+	public int getMinHeight() {
+		return minHeight;
+	}
+
+	/** The number of columns by their height, starting at {@link #getMinHeight()}. Do not modify. */
+	public int[] getHeights() {
+		return heights;
+	}
+
+	public Map<String, Integer> getGenerationStatus() {
+		return Collections.unmodifiableMap(generationStatus);
+	}
+
+	/** The number of columns that have been counted */
+	public long getColumns() {
+		long columns = 0;
+		for (int count : heights)
+			columns += count;
+		return columns;
+	}
+
+	/** Add the counts of other statistics to these ones. */
+	public void add(RegionStatistics other) {
+		other.topBlocks.forEach((k, v) -> topBlocks.merge(k, v, Integer::sum));
+		other.biomes.forEach((k, v) -> biomes.merge(k, v, Integer::sum));
+		other.generationStatus.forEach((k, v) -> generationStatus.merge(k, v, Integer::sum));
+		if (other.heights.length > 0) {
+			if (heights.length == 0) {
+				minHeight = other.minHeight;
+				heights = other.heights.clone();
+			} else {
+				int min = Math.min(minHeight, other.minHeight);
+				int max = Math.max(minHeight + heights.length, other.minHeight + other.heights.length);
+				int[] merged = new int[max - min];
+				for (int i = 0; i < heights.length; i++)
+					merged[minHeight - min + i] += heights[i];
+				for (int i = 0; i < other.heights.length; i++)
+					merged[other.minHeight - min + i] += other.heights[i];
+				minHeight = min;
+				heights = merged;
+			}
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package de.piegames.blockmap.world;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joml.Vector2ic;
+
+import de.piegames.blockmap.renderer.RegionRenderer;
+import de.piegames.blockmap.renderer.RegionRenderer.RawRegion;
+import de.piegames.blockmap.renderer.RegionRenderer.RenderedRegion;
+import de.piegames.blockmap.world.RegionFolder.CachedRegionFolder;
+import de.piegames.blockmap.world.RegionFolder.WorldRegionFolder;
+
+/**
+ * Renders many regions of a world into a {@link CachedRegionFolder}, splitting the work into {@link Stage stages}. Every stage has its
+ * own threads and a bounded queue in front of it. When a stage cannot keep up, its queue fills up and the stages before it will block
+ * until there is room again. This way, CPU heavy stages (rendering, encoding) and IO heavy ones (reading, writing) overlap, while the
+ * number of regions held in memory at once stays bounded. The chunks are passed on compressed and only parsed one at a time while
+ * rendering, so a queued region takes about as much memory as its file.
+ * <p>
+ * Each stage keeps track of how busy it is, see {@link #getStatistics()}. A stage with a full queue and a high utilization is the
+ * bottleneck and should get more threads.
+ */
+public class RenderPipeline implements AutoCloseable {
+
+	private static Log log = LogFactory.getLog(RenderPipeline.class);
+
+	/** The steps of rendering a region, in order */
+	public static enum Stage {
+		/** Read the compressed data of all chunks from the region file */
+		READ,
+		/** Decompress, parse and render the chunks one after another into a color array */
+		RENDER,
+		/** Apply the region shader and create the image */
+		SHADE,
+		/** Encode the image as PNG */
+		ENCODE,
+		/** Write the image and metadata to the disk and update the index */
+		WRITE;
+
+		/** A reasonable number of threads for this stage, based on the number of available processors */
+		public int getDefaultThreads() {
+			int processors = Runtime.getRuntime().availableProcessors();
+			switch (this) {
+			case RENDER:
+				return processors;
+			case ENCODE:
+				return Math.max(1, processors / 2);
+			default:
+				return 1;
+			}
+		}
+	}
+
+	/** A snapshot of the state of a stage */
+	public static class StageStatistics {
+		public final Stage	stage;
+		public final int	threads, queued, capacity;
+		public final long	processed;
+		/** The fraction of time the threads of this stage spent working, between 0 and 1 */
+		public final double	utilization;
+
+		StageStatistics(Stage stage, int threads, int queued, int capacity, long processed, double utilization) {
+			this.stage = stage;
+			this.threads = threads;
+			this.queued = queued;
+			this.capacity = capacity;
+			this.processed = processed;
+			this.utilization = utilization;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d threads, queue %d/%d, %d done, %.0f%% busy", stage, threads, queued, capacity, processed, utilization * 100);
+		}
+	}
+
+	/** A region on its way through the pipeline. Each stage consumes the result of the previous one, so that it can be freed early. */
+	private static class Job {
+		final Vector2ic			pos;
+		RawRegion				raw;
+		RenderedRegion			rendered;
+		Region					region;
+		byte[]					png;
+
+		Job(Vector2ic pos) {
+			this.pos = pos;
+		}
+	}
+
+	private class StageWorker {
+		final Stage					stage;
+		final BlockingQueue<Job>	queue;
+		final List<Thread>			threads	= new ArrayList<>();
+		final AtomicLong			busyNanos	= new AtomicLong();
+		final AtomicLong			processed	= new AtomicLong();
+
+		StageWorker(Stage stage, int threads) {
+			this.stage = stage;
+			/* Enough to keep all threads busy while the previous stage produces the next batch */
+			this.queue = new ArrayBlockingQueue<>(Math.max(2, 2 * threads));
+			for (int i = 0; i < threads; i++) {
+				Thread thread = new Thread(this::run, "render-" + stage.name().toLowerCase() + "-" + i);
+				thread.setDaemon(true);
+				this.threads.add(thread);
+			}
+		}
+
+		void run() {
+			try {
+				while (true) {
+					Job job = queue.take();
+					long start = System.nanoTime();
+					boolean forward = false;
+					try {
+						process(stage, job);
+						forward = stage.ordinal() + 1 < workers.size();
+					} catch (CancellationException e) {
+						/* Interrupted by close(), the next take() will notice it */
+					} catch (IOException | RuntimeException e) {
+						log.error("Could not render region " + job.pos + " (failed at stage " + stage + ")", e);
+						failed.incrementAndGet();
+					} catch (Error e) {
+						log.error("Could not render region " + job.pos + " (failed at stage " + stage + ")", e);
+						failed.incrementAndGet();
+						fail(e);
+					} finally {
+						busyNanos.addAndGet(System.nanoTime() - start);
+						processed.incrementAndGet();
+						/* Every job that does not get passed on must be accounted for, or awaitCompletion() would never return */
+						if (!forward)
+							finish();
+					}
+					if (forward)
+						workers.get(stage.ordinal() + 1).queue.put(job);
+				}
+			} catch (InterruptedException e) {
+				/* Shutting down */
+			}
+		}
+	}
+
+	private final WorldRegionFolder		world;
+	private final CachedRegionFolder	cached;
+	private final RegionRenderer		renderer;
+	private final List<StageWorker>		workers;
+	private final long					startTime	= System.nanoTime();
+	private final AtomicInteger			failed		= new AtomicInteger();
+	/* The number of submitted jobs that did not leave the pipeline yet */
+	private int							pending;
+	/* The first error thrown by any stage. It fails the whole pipeline. */
+	private Error						error;
+
+	/**
+	 * Create and start a new pipeline.
+	 *
+	 * @param world
+	 *            the world to render
+	 * @param cached
+	 *            where to store the rendered regions
+	 * @param threads
+	 *            the number of threads for each stage. Stages that are missing will use {@link Stage#getDefaultThreads()}.
+	 */
+	public RenderPipeline(WorldRegionFolder world, CachedRegionFolder cached, Map<Stage, Integer> threads) {
+		this.world = Objects.requireNonNull(world);
+		this.cached = Objects.requireNonNull(cached);
+		this.renderer = world.getRenderer();
+		List<StageWorker> workers = new ArrayList<>();
+		for (Stage stage : Stage.values())
+			workers.add(new StageWorker(stage, Math.max(1, threads.getOrDefault(stage, stage.getDefaultThreads()))));
+		this.workers = Collections.unmodifiableList(workers);
+		for (StageWorker worker : workers)
+			worker.threads.forEach(Thread::start);
+	}
+
+	private void process(Stage stage, Job job) throws IOException {
+		switch (stage) {
+		case READ:
+			log.info("Rendering region file " + job.pos.x() + " " + job.pos.y());
+			job.raw = world.read(job.pos);
+			if (job.raw == null)
+				throw new IOException("Region " + job.pos + " does not exist");
+			break;
+		case RENDER:
+			job.rendered = renderer.renderColumns(job.raw);
+			job.raw = null;
+			break;
+		case SHADE:
+			renderer.shade(job.rendered);
+			job.region = new Region(job.pos, RegionRenderer.toImage(job.rendered.map), job.rendered.metadata, job.rendered.statistics);
+			job.rendered = null;
+			break;
+		case ENCODE:
+			job.png = CachedRegionFolder.encode(job.region.getImage());
+			break;
+		case WRITE:
+			cached.write(job.pos, job.png, job.region.metadata, job.region.statistics);
+			job.png = null;
+			job.region = null;
+			break;
+		}
+	}
+
+	/**
+	 * Queue a region for rendering. If it is up to date in the cache, nothing will happen. This blocks while the first stage is at its
+	 * capacity.
+	 *
+	 * @throws Error
+	 *             if any stage threw an {@link Error} before
+	 */
+	public void submit(Vector2ic pos) throws InterruptedException {
+		checkError();
+		try {
+			if (cached.isUpToDate(pos))
+				return;
+		} catch (IOException e) {
+			log.warn("Could not check if region " + pos + " is up to date", e);
+		}
+		synchronized (this) {
+			pending++;
+		}
+		workers.get(0).queue.put(new Job(pos));
+	}
+
+	private synchronized void finish() {
+		pending--;
+		notifyAll();
+	}
+
+	private synchronized void fail(Error e) {
+		if (error == null)
+			error = e;
+		notifyAll();
+	}
+
+	/* Rethrow the error of a stage on the calling thread */
+	private synchronized void checkError() {
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Wait until all submitted regions went through the pipeline.
+	 *
+	 * @return the number of regions that failed to render
+	 * @throws Error
+	 *             if any stage threw an {@link Error}. This returns as soon as the error happens, without waiting for the remaining
+	 *             regions.
+	 */
+	public synchronized int awaitCompletion() throws InterruptedException {
+		while (pending > 0 && error == null)
+			wait();
+		checkError();
+		return failed.get();
+	}
+
+	/** Get the current state of all stages, in order. */
+	public List<StageStatistics> getStatistics() {
+		long elapsed = Math.max(1, System.nanoTime() - startTime);
+		return workers.stream()
+				.map(w -> new StageStatistics(w.stage, w.threads.size(), w.queue.size(), w.queue.size() + w.queue.remainingCapacity(),
+						w.processed.get(), Math.min(1, (double) w.busyNanos.get() / elapsed / w.threads.size())))
+				.collect(Collectors.toList());
+	}
+
+	@Override
+	public String toString() {
+		return getStatistics().stream().map(StageStatistics::toString).collect(Collectors.joining("; "));
+	}
+
+	/** Stop all threads. Regions that are still in the pipeline will be dropped. */
+	@Override
+	public void close() {
+		for (StageWorker worker : workers)
+			worker.threads.forEach(Thread::interrupt);
+	}
+}
@@ -0,0 +1,77 @@
+package de.piegames.blockmap.world;
+
+import java.util.Collection;
+import java.util.Random;
+
+import org.joml.Vector2ic;
+
+/**
+ * Computes which chunks are slime chunks, based on the world seed. Minecraft seeds a new {@link Random} for every chunk and checks if
+ * {@code nextInt(10)} is zero. Doing this for whole regions at once, the per-column parts of the seed are shared and the random number
+ * generator is inlined, so that no objects need to be allocated.
+ */
+public class SlimeChunks {
+
+	private static final long	MULTIPLIER	= 0x5DEECE66DL;
+	private static final long	ADDEND		= 0xBL;
+	private static final long	MASK		= (1L << 48) - 1;
+
+	private SlimeChunks() {
+	}
+
+	/** Whether a single chunk is a slime chunk. This is how Minecraft calculates it. */
+	public static boolean isSlimeChunk(long seed, int chunkX, int chunkZ) {
+		return new Random(seed
+				+ (long) (chunkX * chunkX * 0x4c1906)
+				+ (long) (chunkX * 0x5ac0db)
+				+ (long) (chunkZ * chunkZ) * 0x4307a7L
+				+ (long) (chunkZ * 0x5f24f)
+				^ 0x3ad8025fL).nextInt(10) == 0;
+	}
+
+	/**
+	 * Calculate the slime chunks of a whole region.
+	 *
+	 * @return the bits of the region in the format of {@link ChunkBitmap#getRegion(int, int)}
+	 */
+	public static long[] computeRegion(long seed, int regionX, int regionZ) {
+		long[] bits = new long[ChunkBitmap.REGION_LONGS];
+		long[] columns = new long[32];
+		for (int x = 0; x < 32; x++) {
+			int chunkX = regionX << 5 | x;
+			columns[x] = seed + (long) (chunkX * chunkX * 0x4c1906) + (long) (chunkX * 0x5ac0db);
+		}
+		for (int z = 0; z < 32; z++) {
+			int chunkZ = regionZ << 5 | z;
+			long row = (long) (chunkZ * chunkZ) * 0x4307a7L + (long) (chunkZ * 0x5f24f);
+			for (int x = 0; x < 32; x++) {
+				if (nextIntIsZero((columns[x] + row) ^ 0x3ad8025fL)) {
+					int index = x | z << 5;
+					bits[index >> 6] |= 1L << index;
+				}
+			}
+		}
+		return bits;
+	}
+
+	/** Calculate the slime chunks of all the given regions */
+	public static ChunkBitmap compute(long seed, Collection<? extends Vector2ic> regions) {
+		ChunkBitmap bitmap = new ChunkBitmap();
+		for (Vector2ic region : regions)
+			bitmap.setRegion(region.x(), region.y(), computeRegion(seed, region.x(), region.y()));
+		return bitmap;
+	}
+
+	/** Equivalent to {@code new Random(seed).nextInt(10) == 0} */
+	private static boolean nextIntIsZero(long seed) {
+		long state = (seed ^ MULTIPLIER) & MASK;
+		while (true) {
+			state = (state * MULTIPLIER + ADDEND) & MASK;
+			int bits = (int) (state >>> 17);
+			int value = bits % 10;
+			/* Rejection sampling to avoid a bias for the lower numbers */
+			if (bits - value + 9 >= 0)
+				return value == 0;
+		}
+	}
+}
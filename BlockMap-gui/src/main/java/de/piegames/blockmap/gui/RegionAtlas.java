@@ -0,0 +1,236 @@
+package de.piegames.blockmap.gui;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.joml.AABBd;
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Combines the coarsest MIP map levels of {@value #SIZE}x{@value #SIZE} neighboring regions into one image each, so that a zoomed out
+ * frame needs one draw call per atlas instead of one per region. Atlases are aligned to multiples of {@value #SIZE} regions and created
+ * up front for all regions of the world. Regions that are not rendered yet are filled with the background, with their preview on top,
+ * so that they don't need to be drawn separately.
+ * <p>
+ * The atlases keep their own copy of the pixels, so they stay complete while the {@link TextureCache} evicts the regions' levels. Each one
+ * takes {@link #ATLAS_MEMORY 1.25 MiB}, which is as much as the two coarsest levels of its regions together. This counts towards the
+ * budget of the texture cache, see {@link #getMemory()}.
+ */
+public class RegionAtlas {
+
+	/** The number of regions along each side of an atlas */
+	public static final int						SIZE		= 16;
+	/** The first MIP map level that is drawn from the atlases */
+	public static final int						FIRST_LEVEL	= 4;
+	/** The number of levels in each atlas, up to the coarsest one */
+	private static final int					LEVELS		= 2;
+	/** The number of bytes the pixels of one atlas take */
+	public static final long					ATLAS_MEMORY;
+
+	static {
+		long memory = 0;
+		for (int i = 0; i < LEVELS; i++) {
+			long size = (512 >>> (FIRST_LEVEL + i)) * SIZE;
+			memory += size * size * Integer.BYTES;
+		}
+		ATLAS_MEMORY = memory;
+	}
+
+	private final Map<Vector2ic, Atlas>			atlases		= new ConcurrentHashMap<>();
+	/* Regions that have been rendered, but not copied into their atlas yet */
+	private final Queue<Update>					pending		= new ConcurrentLinkedQueue<>();
+	/* Premultiplied ARGB of regions that are not rendered yet */
+	private final int							background;
+
+	/**
+	 * @param regions
+	 *            all regions of the world. Updates of other regions will be ignored.
+	 * @param background
+	 *            the color of the regions until they are rendered
+	 */
+	public RegionAtlas(Collection<Vector2ic> regions, Color background) {
+		double alpha = background.getOpacity();
+		this.background = (int) Math.round(alpha * 255) << 24
+				| (int) Math.round(alpha * background.getRed() * 255) << 16
+				| (int) Math.round(alpha * background.getGreen() * 255) << 8
+				| (int) Math.round(alpha * background.getBlue() * 255);
+		Map<Vector2ic, List<Vector2ic>> cells = new HashMap<>();
+		for (Vector2ic region : regions)
+			cells.computeIfAbsent(atlasPosition(region), k -> new ArrayList<>()).add(region);
+		cells.forEach((pos, cell) -> atlases.put(pos, new Atlas(pos, cell, this.background)));
+	}
+
+	/**
+	 * Queue the pixels of a rendered region to be copied into its atlas. JavaFX only allows modifying the buffer of an image on the FX
+	 * thread, so this will happen on the next {@link #applyUpdates()}. This may be called from any thread.
+	 *
+	 * @param levels
+	 *            the premultiplied MIP map levels of the region, as returned by {@link RenderedRegion#setImage(java.awt.image.BufferedImage)}.
+	 *            The levels from {@link #FIRST_LEVEL} on must not change afterwards, only those are kept until then. If {@code null}, the
+	 *            region will be cleared.
+	 */
+	public void update(Vector2ic region, int[][] levels) {
+		pending.add(new Update(region, coarseLevels(levels), null));
+	}
+
+	/**
+	 * Like {@link #update(Vector2ic, int[][])}, but with the levels from {@link RenderedRegion#setPreview(java.awt.image.BufferedImage)}.
+	 * The preview won't be copied if the region has been rendered in the meantime, so it can't overwrite the actual image.
+	 */
+	public void updatePreview(RenderedRegion region, int[][] levels) {
+		pending.add(new Update(region.position, coarseLevels(levels), region));
+	}
+
+	/* Don't keep the finer levels of the regions alive while the updates are pending */
+	private static int[][] coarseLevels(int[][] levels) {
+		return levels == null ? null : Arrays.copyOfRange(levels, FIRST_LEVEL, FIRST_LEVEL + LEVELS);
+	}
+
+	/** The number of atlases that currently exist */
+	public int size() {
+		return atlases.size();
+	}
+
+	/** The number of bytes all atlases take together */
+	public long getMemory() {
+		return atlases.size() * ATLAS_MEMORY;
+	}
+
+	/**
+	 * Copy the pending updates into the atlases. This must be called from the FX thread, on every frame, even if no atlas is drawn, so
+	 * that the updates don't pile up.
+	 */
+	public void applyUpdates() {
+		for (Update update; (update = pending.poll()) != null;)
+			apply(update);
+	}
+
+	/**
+	 * Draw all atlases that intersect the frustum. This must be called from the FX thread, after {@link #applyUpdates()}.
+	 *
+	 * @param level
+	 *            the MIP map level to draw, at least {@link #FIRST_LEVEL}
+	 */
+	public void draw(GraphicsContext gc, AABBd frustum, int level) {
+		int i = Math.min(level - FIRST_LEVEL, LEVELS - 1);
+		double size = SIZE * 512;
+		long minX = (long) Math.floor(frustum.minX / size), maxX = (long) Math.floor(frustum.maxX / size);
+		long minZ = (long) Math.floor(frustum.minY / size), maxZ = (long) Math.floor(frustum.maxY / size);
+		if ((maxX - minX + 1) * (maxZ - minZ + 1) > atlases.size()) {
+			/* Zoomed out beyond the size of the world, so there are fewer atlases than cells in the frustum */
+			for (Atlas atlas : atlases.values())
+				if (atlas.position.x() >= minX && atlas.position.x() <= maxX && atlas.position.y() >= minZ && atlas.position.y() <= maxZ)
+					atlas.draw(gc, i);
+		} else {
+			Vector2i key = new Vector2i();
+			for (long x = minX; x <= maxX; x++)
+				for (long z = minZ; z <= maxZ; z++) {
+					Atlas atlas = atlases.get(key.set((int) x, (int) z));
+					if (atlas != null)
+						atlas.draw(gc, i);
+				}
+		}
+	}
+
+	private void apply(Update update) {
+		if (update.preview != null && update.preview.isRendered)
+			return;
+		Atlas atlas = atlases.get(atlasPosition(update.region));
+		if (atlas == null)
+			return;
+		int offsetX = Math.floorMod(update.region.x(), SIZE), offsetZ = Math.floorMod(update.region.y(), SIZE);
+		for (int i = 0; i < LEVELS; i++) {
+			int[] src = update.levels == null ? null : update.levels[i];
+			int regionSize = 512 >>> (FIRST_LEVEL + i), atlasSize = regionSize * SIZE;
+			int[] dst = atlas.pixels[i];
+			atlas.buffers.get(i).updateBuffer(buffer -> {
+				for (int row = 0; row < regionSize; row++) {
+					int start = (offsetZ * regionSize + row) * atlasSize + offsetX * regionSize;
+					if (src == null)
+						Arrays.fill(dst, start, start + regionSize, 0);
+					else if (update.preview != null)
+						/* Previews stay on top of the background, rendered regions replace it */
+						for (int j = 0; j < regionSize; j++)
+							dst[start + j] = over(src[row * regionSize + j], background);
+					else
+						System.arraycopy(src, row * regionSize, dst, start, regionSize);
+				}
+				return new Rectangle2D(offsetX * regionSize, offsetZ * regionSize, regionSize, regionSize);
+			});
+		}
+	}
+
+	private static Vector2ic atlasPosition(Vector2ic region) {
+		return new Vector2i(Math.floorDiv(region.x(), SIZE), Math.floorDiv(region.y(), SIZE));
+	}
+
+	/* Blend two premultiplied ARGB colors */
+	private static int over(int src, int dst) {
+		int inverse = 255 - (src >>> 24);
+		int color = 0;
+		for (int shift = 0; shift < 32; shift += 8)
+			color |= Math.min(255, (src >>> shift & 0xFF) + ((dst >>> shift & 0xFF) * inverse + 127) / 255) << shift;
+		return color;
+	}
+
+	private static class Atlas {
+		/* In atlas coordinates, the first region is at position * SIZE */
+		final Vector2ic						position;
+		final int[][]						pixels	= new int[LEVELS][];
+		final List<PixelBuffer<IntBuffer>>	buffers	= new ArrayList<>(LEVELS);
+		final WritableImage[]				images	= new WritableImage[LEVELS];
+
+		Atlas(Vector2ic position, Collection<Vector2ic> regions, int background) {
+			this.position = position;
+			for (int i = 0; i < LEVELS; i++) {
+				int regionSize = 512 >>> (FIRST_LEVEL + i), size = regionSize * SIZE;
+				pixels[i] = new int[size * size];
+				for (Vector2ic region : regions) {
+					int offsetX = Math.floorMod(region.x(), SIZE), offsetZ = Math.floorMod(region.y(), SIZE);
+					for (int row = 0; row < regionSize; row++) {
+						int start = (offsetZ * regionSize + row) * size + offsetX * regionSize;
+						Arrays.fill(pixels[i], start, start + regionSize, background);
+					}
+				}
+				PixelBuffer<IntBuffer> buffer = new PixelBuffer<>(size, size, IntBuffer.wrap(pixels[i]), PixelFormat.getIntArgbPreInstance());
+				buffers.add(buffer);
+				images[i] = new WritableImage(buffer);
+			}
+		}
+
+		void draw(GraphicsContext gc, int level) {
+			double size = SIZE * 512;
+			gc.drawImage(images[level], position.x() * size, position.y() * size, size, size);
+		}
+	}
+
+	private static class Update {
+		final Vector2ic			region;
+		/* Only the levels from FIRST_LEVEL on */
+		final int[][]			levels;
+		/* Set if this is only a preview of that region */
+		final RenderedRegion	preview;
+
+		Update(Vector2ic region, int[][] levels, RenderedRegion preview) {
+			this.region = region;
+			this.levels = levels;
+			this.preview = preview;
+		}
+	}
+}
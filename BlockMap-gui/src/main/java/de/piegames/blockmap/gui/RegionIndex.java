@@ -0,0 +1,89 @@
+package de.piegames.blockmap.gui;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.joml.AABBd;
+
+/**
+ * A static quadtree over a set of {@link RenderedRegion}s, built once when a world is loaded. It finds all regions within a frustum while
+ * only looking at the nodes that intersect it, so drawing a frame costs as much as there are visible regions and not as much as there are
+ * regions in the world.
+ */
+public class RegionIndex {
+
+	/** Nodes with at most this many regions won't be split any further */
+	private static final int	LEAF_SIZE	= 16;
+
+	private final Node			root;
+
+	public RegionIndex(Collection<RenderedRegion> regions) {
+		root = regions.isEmpty() ? null : new Node(new ArrayList<>(regions));
+	}
+
+	/**
+	 * Add all regions that intersect the frustum to the list. This does not allocate anything, except for growing the list.
+	 *
+	 * @param frustum
+	 *            the area to search, in world coordinates
+	 */
+	public void query(AABBd frustum, List<RenderedRegion> result) {
+		if (root != null)
+			root.query(frustum, result);
+	}
+
+	private static class Node {
+		/* The bounding box of all regions in this node, in region coordinates (inclusive) */
+		final int				minX, minZ, maxX, maxZ;
+		/* Only one of them is present, depending on if this is a leaf or not */
+		final Node[]			children;
+		final RenderedRegion[]	regions;
+
+		Node(List<RenderedRegion> regions) {
+			int minX = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+			for (RenderedRegion region : regions) {
+				minX = Math.min(minX, region.position.x());
+				minZ = Math.min(minZ, region.position.y());
+				maxX = Math.max(maxX, region.position.x());
+				maxZ = Math.max(maxZ, region.position.y());
+			}
+			this.minX = minX;
+			this.minZ = minZ;
+			this.maxX = maxX;
+			this.maxZ = maxZ;
+
+			if (regions.size() <= LEAF_SIZE || (minX == maxX && minZ == maxZ)) {
+				this.regions = regions.toArray(new RenderedRegion[regions.size()]);
+				this.children = null;
+			} else {
+				/* Split at the center of the bounding box */
+				int centerX = (int) Math.floorDiv((long) minX + maxX, 2), centerZ = (int) Math.floorDiv((long) minZ + maxZ, 2);
+				List<List<RenderedRegion>> quadrants = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+				for (RenderedRegion region : regions)
+					quadrants.get((region.position.x() > centerX ? 1 : 0) | (region.position.y() > centerZ ? 2 : 0)).add(region);
+				this.children = quadrants.stream().filter(q -> !q.isEmpty()).map(Node::new).toArray(Node[]::new);
+				this.regions = null;
+			}
+		}
+
+		void query(AABBd frustum, List<RenderedRegion> result) {
+			if (!intersects(frustum, minX, minZ, maxX, maxZ))
+				return;
+			if (regions != null) {
+				for (RenderedRegion region : regions)
+					if (intersects(frustum, region.position.x(), region.position.y(), region.position.x(), region.position.y()))
+						result.add(region);
+			} else {
+				for (Node child : children)
+					child.query(frustum, result);
+			}
+		}
+
+		/** Whether the area covered by the regions from min to max (inclusive) intersects the frustum */
+		private static boolean intersects(AABBd frustum, int minX, int minZ, int maxX, int maxZ) {
+			return (maxX + 1) * 512.0 > frustum.minX && minX * 512.0 < frustum.maxX
+					&& (maxZ + 1) * 512.0 > frustum.minY && minZ * 512.0 < frustum.maxY;
+		}
+	}
+}
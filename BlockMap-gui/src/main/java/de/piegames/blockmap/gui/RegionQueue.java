@@ -0,0 +1,197 @@
+package de.piegames.blockmap.gui;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.joml.AABBd;
+import org.joml.Vector2dc;
+import org.joml.Vector2ic;
+
+/**
+ * The regions that still need to be rendered, ordered by their distance to a point that may change at any time (usually the mouse
+ * cursor). They are stored in a quadtree that knows how many regions are left in each node, so that finding the closest one is a
+ * best-first search that only descends into non-empty nodes. Nothing needs to be sorted again when the point moves.
+ * <p>
+ * All positions must lie within the bounds of the regions the queue was created with. This class is thread safe.
+ */
+public class RegionQueue {
+
+	/** Nodes of this size (in regions) or smaller store their positions in a list instead of having children */
+	private static final int	LEAF_SIZE	= 8;
+
+	private final Node			root;
+	private int					size;
+
+	/** Create a queue containing all the given positions. Only positions within their bounding box can be added later. */
+	public RegionQueue(Collection<? extends Vector2ic> positions) {
+		int minX = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+		for (Vector2ic pos : positions) {
+			minX = Math.min(minX, pos.x());
+			minZ = Math.min(minZ, pos.y());
+			maxX = Math.max(maxX, pos.x());
+			maxZ = Math.max(maxZ, pos.y());
+		}
+		int size = LEAF_SIZE;
+		while (size <= Math.max(maxX - minX, maxZ - minZ))
+			size <<= 1;
+		root = positions.isEmpty() ? null : new Node(minX, minZ, size);
+		for (Vector2ic pos : positions)
+			add(pos);
+	}
+
+	/** Add a position. Adding a position that is already contained has no effect. */
+	public synchronized void add(Vector2ic pos) {
+		if (root == null || !root.contains(pos.x(), pos.y()))
+			throw new IllegalArgumentException("Position " + pos + " is outside of the queue's bounds");
+		if (root.add(pos))
+			size++;
+	}
+
+	public synchronized boolean isEmpty() {
+		return size == 0;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Remove the region closest to the given point. Regions that intersect the frustum come before all other ones.
+	 *
+	 * @param point
+	 *            the point in region coordinates. A region's distance is measured from its center.
+	 * @param frustum
+	 *            the visible area in region coordinates, or {@code null} to not prioritize any regions
+	 * @return the removed position or {@code null} if the queue is empty
+	 */
+	public synchronized Vector2ic poll(Vector2dc point, AABBd frustum) {
+		if (size == 0)
+			return null;
+		Vector2ic ret = null;
+		if (frustum != null)
+			ret = findClosest(point.x(), point.y(), frustum);
+		if (ret == null)
+			ret = findClosest(point.x(), point.y(), null);
+		root.remove(ret);
+		size--;
+		return ret;
+	}
+
+	private Vector2ic findClosest(double x, double z, AABBd bounds) {
+		/*
+		 * Best-first search. Nodes are keyed by the distance to the closest region they could contain, so the first position to come out is
+		 * the closest one.
+		 */
+		PriorityQueue<Entry> queue = new PriorityQueue<>();
+		queue.add(new Entry(root.distanceSquared(x, z), root, null));
+		while (!queue.isEmpty()) {
+			Entry entry = queue.poll();
+			if (entry.pos != null)
+				return entry.pos;
+			Node node = entry.node;
+			if (node.positions != null) {
+				for (Vector2ic pos : node.positions)
+					if (bounds == null || intersects(bounds, pos.x(), pos.y(), 1))
+						queue.add(new Entry(distanceSquared(x, z, pos.x() + 0.5, pos.y() + 0.5), null, pos));
+			} else {
+				for (Node child : node.children)
+					if (child != null && child.count > 0 && (bounds == null || intersects(bounds, child.x, child.z, child.size)))
+						queue.add(new Entry(child.distanceSquared(x, z), child, null));
+			}
+		}
+		return null;
+	}
+
+	private static boolean intersects(AABBd bounds, int x, int z, int size) {
+		return x + size > bounds.minX && x < bounds.maxX && z + size > bounds.minY && z < bounds.maxY;
+	}
+
+	private static double distanceSquared(double x1, double z1, double x2, double z2) {
+		return (x1 - x2) * (x1 - x2) + (z1 - z2) * (z1 - z2);
+	}
+
+	private static class Node {
+		final int				x, z, size;
+		/* The number of positions in this node and all its children */
+		int						count;
+		/* Only one of them is present, depending on if this is a leaf or not */
+		final Node[]			children;
+		final List<Vector2ic>	positions;
+
+		Node(int x, int z, int size) {
+			this.x = x;
+			this.z = z;
+			this.size = size;
+			if (size <= LEAF_SIZE) {
+				children = null;
+				positions = new ArrayList<>();
+			} else {
+				children = new Node[4];
+				positions = null;
+			}
+		}
+
+		boolean contains(int x, int z) {
+			return x >= this.x && x < this.x + size && z >= this.z && z < this.z + size;
+		}
+
+		/** Returns whether the position was added */
+		boolean add(Vector2ic pos) {
+			boolean added;
+			if (positions != null) {
+				added = !positions.contains(pos);
+				if (added)
+					positions.add(pos);
+			} else {
+				int index = childIndex(pos);
+				if (children[index] == null) {
+					int half = size >> 1;
+					children[index] = new Node(x + (index & 1) * half, z + (index >> 1) * half, half);
+				}
+				added = children[index].add(pos);
+			}
+			if (added)
+				count++;
+			return added;
+		}
+
+		void remove(Vector2ic pos) {
+			if (positions != null)
+				positions.remove(pos);
+			else
+				children[childIndex(pos)].remove(pos);
+			count--;
+		}
+
+		private int childIndex(Vector2ic pos) {
+			int half = size >> 1;
+			return (pos.x() >= x + half ? 1 : 0) | (pos.y() >= z + half ? 2 : 0);
+		}
+
+		/** The squared distance between the point and the closest region center within this node */
+		double distanceSquared(double px, double pz) {
+			double dx = Math.max(0, Math.max(x + 0.5 - px, px - (x + size - 0.5)));
+			double dz = Math.max(0, Math.max(z + 0.5 - pz, pz - (z + size - 0.5)));
+			return dx * dx + dz * dz;
+		}
+	}
+
+	private static class Entry implements Comparable<Entry> {
+		final double	distance;
+		final Node		node;
+		final Vector2ic	pos;
+
+		Entry(double distance, Node node, Vector2ic pos) {
+			this.distance = distance;
+			this.node = node;
+			this.pos = pos;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			return Double.compare(distance, o.distance);
+		}
+	}
+}
@@ -1,20 +1,29 @@
 package de.piegames.blockmap.gui;
 
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.Collectors;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.joml.AABBd;
+import org.joml.Vector2d;
 import org.joml.Vector2dc;
 import org.joml.Vector2ic;
-import org.joml.Vector3d;
 
+import de.piegames.blockmap.renderer.CancellationToken;
 import de.piegames.blockmap.world.ChunkMetadata;
 import de.piegames.blockmap.world.Region;
 import de.piegames.blockmap.world.RegionFolder;
@@ -27,104 +36,257 @@ import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.ReadOnlySetProperty;
 import javafx.beans.property.ReadOnlySetWrapper;
 import javafx.collections.FXCollections;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 
 public class RenderedMap implements Runnable {
 
+	private static Log														log				= LogFactory.getLog(RenderedMap.class);
+	private static final Color												BACKGROUND		= new Color(0.3f, 0.3f, 0.9f, 1.0f);
+	private static final Color												FOREGROUND		= new Color(0.9f, 0.9f, 0.15f, 1.0f);
+	/** Minimum time between two {@link TextureCache#trim(java.util.Collection, AABBd)} calls in milliseconds */
+	private static final long												TRIM_INTERVAL	= 500;
+
 	private RegionFolder													regionFolder;
-	private final Set<Vector2ic>											notRendered		= ConcurrentHashMap.newKeySet();
+	/** Regions that don't have a preview yet. The workers go through all of them before rendering any region. */
+	private final Queue<Vector2ic>											notPreviewed;
+	private final RegionQueue												notRendered;
 	private final Map<Vector2ic, RenderedRegion>							regions;
+	private volatile RegionIndex											index;
+	/** The coarse levels of all rendered regions, grouped together to draw zoomed out views with few draw calls */
+	private final RegionAtlas												atlas;
+	/* Reused every frame to collect the visible regions. Only accessed from the FX thread. */
+	private final List<RenderedRegion>										visible			= new ArrayList<>();
+	/* The last time the texture cache has been trimmed */
+	private long															lastTrim;
 	private int																regionsCount, regionsRendered;
 	protected ReadOnlyFloatWrapper											progress		= new ReadOnlyFloatWrapper();
 	protected ReadOnlyMapWrapper<Vector2ic, Map<Vector2ic, ChunkMetadata>>	chunkMetadata	= new ReadOnlyMapWrapper<>(FXCollections.observableHashMap());
 	protected ReadOnlySetWrapper<Vector2ic>									rendering		= new ReadOnlySetWrapper<>(FXCollections.observableSet());
 	/** Where the mouse currently points to, in world coordinates */
 	protected ReadOnlyObjectProperty<Vector2dc>								mouseWorldProperty;
-	private final AtomicBoolean cancelRendering = new AtomicBoolean(false);
+	/** The visible area in world coordinates. Regions within it are rendered first. */
+	protected ReadOnlyObjectProperty<AABBd>									frustumProperty;
+	private final CancellationToken cancelRendering = new CancellationToken();
+	/** Runs the workers and decides how many of them there may be */
+	private final WorkerPool												pool;
+	/** The number of workers currently pulling regions from {@link #notRendered} */
+	private final AtomicInteger												activeWorkers	= new AtomicInteger();
+	private final TextureCache												textureCache;
+	/** Regions whose evicted images are currently being loaded again */
+	private final Set<Vector2ic>											reloading		= ConcurrentHashMap.newKeySet();
+
+	public RenderedMap(RegionFolder regionFolder, WorkerPool pool, DisplayViewport viewport) {
+		this(regionFolder, pool, viewport, new TextureCache(TextureCache.defaultBudget()));
+	}
 
-	public RenderedMap(RegionFolder regionFolder, ExecutorService executor, ReadOnlyObjectProperty<Vector2dc> mouseWorldProperty) {
+	/**
+	 * @param pool
+	 *            the workers will be submitted to this pool. Each one renders regions until there are none left, or until the pool allows
+	 *            fewer workers than there are. Call {@link #startWorkers()} once it allows more.
+	 */
+	public RenderedMap(RegionFolder regionFolder, WorkerPool pool, DisplayViewport viewport, TextureCache textureCache) {
 		this.regionFolder = Objects.requireNonNull(regionFolder);
-		this.mouseWorldProperty = Objects.requireNonNull(mouseWorldProperty);
+		this.pool = Objects.requireNonNull(pool);
+		this.mouseWorldProperty = viewport.mouseWorldProperty;
+		this.frustumProperty = viewport.frustumProperty;
+		this.textureCache = Objects.requireNonNull(textureCache);
 		Set<Vector2ic> regions = regionFolder.listRegions();
 		if (regions.isEmpty())
 			throw new IllegalArgumentException("World can not be empty");
-		this.notRendered.addAll(regions);
-		this.regions = this.notRendered.stream().collect(Collectors.toMap(v -> v, RenderedRegion::new));
+		this.notPreviewed = new ConcurrentLinkedQueue<>(regions);
+		this.notRendered = new RegionQueue(regions);
+		this.regions = regions.stream().collect(Collectors.toMap(v -> v, RenderedRegion::new, (a, b) -> a, ConcurrentHashMap::new));
+		this.index = new RegionIndex(this.regions.values());
+		this.atlas = new RegionAtlas(regions, BACKGROUND);
 
 		regionsRendered = 0;
 		regionsCount = regions.size();
-		/* Create one task per region file. Don't specify which one yet, this will be determined later on the fly */
-		for (int i = 0; i < regionsCount; i++)
-			executor.submit(this);
+		startWorkers();
 	}
 
+	/**
+	 * Draw all regions within the frustum. Only the visible regions are visited, so this does not depend on the size of the world. From
+	 * {@link RegionAtlas#FIRST_LEVEL} on, the regions are drawn from their atlases instead, which only takes a few draw calls even if the
+	 * whole world is visible.
+	 */
 	public void draw(GraphicsContext gc, int level, AABBd frustum, double scale) {
 		/* Fore the background */
-		gc.setFill(new Color(0.3f, 0.3f, 0.9f, 1.0f));
+		gc.setFill(BACKGROUND);
 
 		/* Draw images */
-		regions.values()
-				.stream()
-				.filter(r -> r.isVisible(frustum))
-				.forEach(r -> r.draw(gc, frustum, scale, level));
+		atlas.applyUpdates();
+		visible.clear();
+		if (level >= RegionAtlas.FIRST_LEVEL) {
+			/* The atlases already contain the background of the regions that aren't rendered yet, and don't get evicted */
+			atlas.draw(gc, frustum, level);
+		} else {
+			index.query(frustum, visible);
+			for (RenderedRegion r : visible) {
+				r.draw(gc, frustum, scale, level);
+				if (r.isEvicted(level))
+					reload(r);
+			}
+		}
+		visible.clear();
+
+		/* Trimming needs to look at all regions, so don't do it every frame */
+		long now = System.currentTimeMillis();
+		if (now - lastTrim > TRIM_INTERVAL) {
+			textureCache.trim(regions.values(), frustum, atlas.getMemory(), !regionFolder.needsCaching());
+			lastTrim = now;
+		}
 
 		/* Draw currently rendering */
-		gc.setFill(new Color(0.9f, 0.9f, 0.15f, 1.0f));
-		rendering.stream()
-				.map(regions::get)
-				.filter(r -> r.isVisible(frustum))
-				.forEach(r -> r.drawForeground(gc, frustum, scale));
+		gc.setFill(FOREGROUND);
+		for (Vector2ic pos : rendering) {
+			RenderedRegion r = regions.get(pos);
+			if (r != null && r.isVisible(frustum))
+				r.drawForeground(gc, frustum, scale);
+		}
 	}
 	
-	/* Cancel existing rendering tasks and already free up some memory */
+	/** Load the images of a region again after some of them have been evicted from the {@link TextureCache} */
+	protected void reload(RenderedRegion region) {
+		if (cancelRendering.isCancelled() || !reloading.add(region.position))
+			return;
+		notRendered.add(region.position);
+		startWorkers();
+	}
+
+	/**
+	 * Cancel rendering and already free up some memory. The regions the workers are working on stop within a chunk (see
+	 * {@link CancellationToken}), so the threads are free for the next world right away. The threads don't get interrupted, as this would
+	 * break the IO of the region folder, which may be used again for the next world.
+	 */
 	public void cancel() {
-		cancelRendering.set(true);
+		cancelRendering.cancel();
+		notPreviewed.clear();
 		regions.clear();
+		index = new RegionIndex(Collections.emptyList());
 	}
 
-	/* Render the next region file on a worker thread */
+	/** Submit new workers until there are as many as the pool allows */
+	void startWorkers() {
+		if (cancelRendering.isCancelled())
+			return;
+		while (tryAddWorker())
+			pool.submit(this);
+	}
+
+	private boolean tryAddWorker() {
+		while (true) {
+			int active = activeWorkers.get();
+			if (active >= pool.getWorkers())
+				return false;
+			if (activeWorkers.compareAndSet(active, active + 1))
+				return true;
+		}
+	}
+
+	/** Stop the calling worker if the pool allows fewer workers than there are */
+	private boolean tryRemoveWorker() {
+		while (true) {
+			int active = activeWorkers.get();
+			if (active <= pool.getWorkers())
+				return false;
+			if (activeWorkers.compareAndSet(active, active - 1))
+				return true;
+		}
+	}
+
+	/* A worker: create the previews of all regions, then render them one after another until there are none left */
 	@Override
 	public void run() {
-		if (cancelRendering.get())
+		/* The thread also gets interrupted when the executor shuts down */
+		while (!cancelRendering.isCancelled() && !Thread.currentThread().isInterrupted()) {
+			if (tryRemoveWorker())
+				return;
+			Vector2ic previewPos = notPreviewed.poll();
+			if (previewPos != null) {
+				pool.beginWork();
+				try {
+					preview(previewPos);
+				} finally {
+					pool.endWork();
+				}
+				continue;
+			}
+			RenderedRegion region = nextRegion();
+			if (region == null) {
+				activeWorkers.decrementAndGet();
+				/* A region may have been added after we looked, but before we stopped being active */
+				if (cancelRendering.isCancelled() || notRendered.isEmpty() || !tryAddWorker())
+					return;
+				continue;
+			}
+			pool.beginWork();
+			try {
+				render(region);
+			} finally {
+				pool.endWork();
+			}
+		}
+		activeWorkers.decrementAndGet();
+	}
+
+	/* Show a preview of a region until it gets rendered. Failing to create one is not a problem. */
+	private void preview(Vector2ic position) {
+		RenderedRegion region = regions.get(position);
+		if (region == null || region.isRendered)
 			return;
-		RenderedRegion region = nextRegion();
+		try {
+			Optional<BufferedImage> preview = regionFolder.preview(position);
+			if (preview.isEmpty())
+				return;
+			int[][] levels = region.setPreview(preview.get());
+			if (levels != null)
+				atlas.updatePreview(region, levels);
+		} catch (IOException | RuntimeException e) {
+			if (!cancelRendering.isCancelled())
+				log.warn("Could not create a preview of region " + position, e);
+		}
+	}
+
+	/* Render a region file on a worker thread */
+	private void render(RenderedRegion region) {
 		Platform.runLater(() -> rendering.getValue().add(region.position));
 		try {
 			Vector2ic position = region.position;
-			Region renderedRegion = regionFolder.render(position);
-			WritableImage texture = SwingFXUtils.toFXImage(renderedRegion.getImage(), null);
-			region.setImage(texture);
+			Region renderedRegion = regionFolder.render(position, cancelRendering);
+			boolean reload = region.isRendered;
+			int[][] levels = region.setImage(renderedRegion.getImage());
+			/* Reloaded regions are already in their atlas. Empty ones may still have their preview in there. */
+			if (!reload)
+				atlas.update(position, levels);
 
 			Platform.runLater(() -> chunkMetadata.put(position, Collections.unmodifiableMap(renderedRegion.getChunkMetadata())));
-			Platform.runLater(() -> progress.set((float) regionsRendered++ / regionsCount));
+			if (!reload)
+				Platform.runLater(() -> progress.set((float) regionsRendered++ / regionsCount));
+		} catch (CancellationException e) {
+			/* Cancelled, the region stays as it was */
 		} catch (Throwable e) {
-			e.printStackTrace();
+			/* Interrupted IO during shutdown fails with all kinds of exceptions */
+			if (!cancelRendering.isCancelled())
+				e.printStackTrace();
 		} finally {
+			reloading.remove(region.position);
 			Platform.runLater(() -> rendering.getValue().remove(region.position));
 		}
 	}
 
-	/** Returns the next Region to render */
-	protected synchronized RenderedRegion nextRegion() {
-		try {
-			// In region coordinates
-			Vector3d cursorPos = new Vector3d(mouseWorldProperty.get(), 0).div(512).sub(.5, .5, 0);
-
-			Comparator<Vector2ic> comp = (a, b) -> Double.compare(new Vector3d(a.x(), a.y(), 0).sub(cursorPos).length(),
-					new Vector3d(b.x(), b.y(), 0).sub(cursorPos).length());
-			Vector2ic min = null;
-			for (Vector2ic r : notRendered)
-				if (min == null || comp.compare(min, r) > 0)
-					min = r;
-			notRendered.remove(min);
-			return regions.get(min);
-		} catch (Throwable e) {
-			e.printStackTrace();
-			throw new Error(e);
-		}
+	/**
+	 * Returns the next Region to render: the one closest to the mouse cursor, preferring the visible ones. Returns {@code null} if there
+	 * is none left or rendering has been cancelled.
+	 */
+	protected RenderedRegion nextRegion() {
+		/* In region coordinates */
+		Vector2dc cursor = new Vector2d(mouseWorldProperty.get()).div(512);
+		AABBd frustum = frustumProperty.get();
+		if (frustum != null)
+			frustum = new AABBd(frustum.minX / 512, frustum.minY / 512, 0, frustum.maxX / 512, frustum.maxY / 512, 0);
+		Vector2ic next = notRendered.poll(cursor, frustum);
+		return next == null ? null : regions.get(next);
 	}
 
 	public ReadOnlyFloatProperty getProgress() {
@@ -138,4 +300,4 @@ public class RenderedMap implements Runnable {
 	public ReadOnlySetProperty<Vector2ic> getCurrentlyRendering() {
 		return rendering.getReadOnlyProperty();
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
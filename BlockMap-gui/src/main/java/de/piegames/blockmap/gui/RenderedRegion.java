@@ -1,90 +1,239 @@
 package de.piegames.blockmap.gui;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.nio.IntBuffer;
+
 import org.joml.AABBd;
 import org.joml.Vector2i;
 import org.joml.Vector2ic;
 
 import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.PixelWriter;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 
 public class RenderedRegion {
 
-	/* Set to null if the region has no pixels (all transparent) */
+	/*
+	 * Set to null if the region has no pixels (all transparent). Individual levels are null if they have been evicted by the TextureCache.
+	 * Guarded by this.
+	 */
 	protected WritableImage[]	images;
 	public final Vector2ic		position;
-	protected boolean			isRendered	= false;
+	protected volatile boolean	isRendered	= false;
+	/** The last time this region was drawn or got its image, in milliseconds. Used to evict the least recently used regions first. */
+	protected volatile long		lastUsed;
 
 	public RenderedRegion(Vector2ic position) {
 		this.position = new Vector2i(position);
 		this.images = new WritableImage[6];
 	}
 
-	/** Set this region's image and also calculate down-scaled versions */
-	public void setImage(WritableImage image) {
-		check: { /* Check if the image is empty to save RAM */
-			var reader = image.getPixelReader();
-			for (int y = 0; y < 512; y++)
-				for (int x = 0; x < 512; x++) {
-					int argb = reader.getArgb(x, y);
-					if (argb != 0)
-						break check;
-				}
+	/**
+	 * Set this region's image and also calculate down-scaled versions. This does all the pixel work and is intended to be called from a
+	 * worker thread, the FX thread only needs to draw the resulting images.
+	 * <p>
+	 * If the image is backed by an ARGB int array (as rendered and loaded regions are), that array is premultiplied in place and then used
+	 * as texture without copying it. The image must not be used afterwards.
+	 *
+	 * @return the premultiplied pixels of all MIP map levels, or {@code null} if the image is fully transparent
+	 */
+	public int[][] setImage(BufferedImage image) {
+		int[] pixels = getPixels(image, 512);
+		/* Check if the image is empty to save RAM */
+		if (!premultiply(pixels)) {
 			/* The image is transparent */
-			this.images = null;
-			this.isRendered = true;
-			return;
+			synchronized (this) {
+				this.images = null;
+				this.isRendered = true;
+			}
+			this.lastUsed = System.currentTimeMillis();
+			return null;
 		}
 
 		/* We do 5 MIP map levels, giving 1:32 zoom at most. This corresponds to 1 pixel per chunk. */
-		this.images[0] = image;
-		for (int i = 1; i <= 5; i++) {
-			var size = 512 >>> i;
-			var nextImage = new WritableImage(size, size);
-
-			PixelWriter writer = nextImage.getPixelWriter();
-			PixelReader reader = image.getPixelReader();
-			for (int y = 0; y < size; y++)
-				for (int x = 0; x < size; x++) {
-					int c1 = reader.getArgb(x << 1, y << 1),
-							c2 = reader.getArgb((x << 1) + 1, y << 1),
-							c3 = reader.getArgb(x << 1, (y << 1) + 1),
-							c4 = reader.getArgb((x << 1) + 1, (y << 1) + 1);
-					// TODO pre-multiply alpha to avoid dark edges
-					long argb = 0;// use long against overflow
-					long a1 = c1 >>> 24, a2 = c2 >>> 24, a3 = c3 >>> 24, a4 = c4 >>> 24;
-					// alpha
-					argb |= ((a1 + a2 + a3 + a4) << 22) & 0xFF000000;
-					// red
-					argb |= ((((c1 & 0x00FF0000) * a1 + (c2 & 0x00FF0000) * a2 + (c3 & 0x00FF0000) * a3 + (c4 & 0x00FF0000) * a4) / 255) >> 2) & 0x00FF0000;
-					// green
-					argb |= ((((c1 & 0x0000FF00) * a1 + (c2 & 0x0000FF00) * a2 + (c3 & 0x0000FF00) * a3 + (c4 & 0x0000FF00) * a4) / 255) >> 2) & 0x0000FF00;
-					// blue
-					argb |= ((((c1 & 0x000000FF) * a1 + (c2 & 0x000000FF) * a2 + (c3 & 0x000000FF) * a3 + (c4 & 0x000000FF) * a4) / 255) >> 2) & 0x000000FF;
-
-					writer.setArgb(x, y, (int) argb);
+		int[][] levels = createMipmaps(pixels, 512, 5);
+		WritableImage[] images = new WritableImage[levels.length];
+		for (int i = 0; i < levels.length; i++) {
+			int size = 512 >>> i;
+			images[i] = new WritableImage(new PixelBuffer<>(size, size, IntBuffer.wrap(levels[i]), PixelFormat.getIntArgbPreInstance()));
+		}
+		synchronized (this) {
+			this.images = images;
+			this.isRendered = true;
+		}
+		this.lastUsed = System.currentTimeMillis();
+		return levels;
+	}
+
+	/**
+	 * Show a low resolution preview of the region until it is rendered. The preview only covers the two coarsest levels and is ignored if
+	 * the region has already been rendered. Like {@link #setImage(BufferedImage)}, this is intended to be called from a worker thread.
+	 *
+	 * @param image
+	 *            a 32x32 image with one pixel per chunk, see {@link de.piegames.blockmap.world.RegionFolder#preview(Vector2ic)}
+	 * @return the premultiplied pixels of all MIP map levels, where only the last two are present, or {@code null} if the preview has not
+	 *         been used
+	 */
+	public int[][] setPreview(BufferedImage image) {
+		int[] pixels = getPixels(image, 32);
+		if (!premultiply(pixels))
+			return null;
+		int[][] previewLevels = createMipmaps(pixels, 32, 1);
+		int[][] levels = new int[6][];
+		levels[4] = previewLevels[0];
+		levels[5] = previewLevels[1];
+		synchronized (this) {
+			if (isRendered || images == null)
+				return null;
+			for (int i = 4; i < levels.length; i++) {
+				int size = 512 >>> i;
+				images[i] = new WritableImage(new PixelBuffer<>(size, size, IntBuffer.wrap(levels[i]), PixelFormat.getIntArgbPreInstance()));
+			}
+		}
+		return levels;
+	}
+
+	/** The number of bytes used by the levels that are currently in memory */
+	public synchronized long getMemory() {
+		long memory = 0;
+		if (images != null)
+			for (int i = 0; i < images.length; i++)
+				if (images[i] != null)
+					memory += 4L * (512 >>> i) * (512 >>> i);
+		return memory;
+	}
+
+	/**
+	 * Remove all levels finer than the given one from memory. They will have to be loaded again before they can be drawn.
+	 * 
+	 * @return the number of bytes freed
+	 */
+	public synchronized long evict(int keepFromLevel) {
+		long freed = 0;
+		if (images != null)
+			for (int i = 0; i < Math.min(keepFromLevel, images.length); i++)
+				if (images[i] != null) {
+					images[i] = null;
+					freed += 4L * (512 >>> i) * (512 >>> i);
 				}
+		return freed;
+	}
 
-			image = nextImage;
-			this.images[i] = image;
+	/** Whether this region has been rendered, but the given level is not in memory anymore */
+	public synchronized boolean isEvicted(int level) {
+		return isRendered && images != null && images[level] == null;
+	}
+
+	/** The distance between this region and the frustum in blocks, or zero if it intersects it */
+	public double distance(AABBd frustum) {
+		double minX = position.x() * 512, minY = position.y() * 512;
+		double dx = Math.max(0, Math.max(frustum.minX - (minX + 512), minX - frustum.maxX));
+		double dy = Math.max(0, Math.max(frustum.minY - (minY + 512), minY - frustum.maxY));
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/** Get the pixels of a square image in ARGB format, row by row. This will return the backing array of the image if possible. */
+	private static int[] getPixels(BufferedImage image, int size) {
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB
+				&& image.getRaster().getDataBuffer() instanceof DataBufferInt
+				&& image.getSampleModel() instanceof SinglePixelPackedSampleModel
+				&& ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride() == size
+				&& image.getRaster().getSampleModelTranslateX() == 0 && image.getRaster().getSampleModelTranslateY() == 0) {
+			DataBufferInt buffer = (DataBufferInt) image.getRaster().getDataBuffer();
+			if (buffer.getNumBanks() == 1 && buffer.getOffset() == 0 && buffer.getSize() == size * size)
+				return buffer.getData();
+		}
+		return image.getRGB(0, 0, size, size, null, 0, size);
+	}
+
+	/**
+	 * Convert ARGB pixels to premultiplied ARGB in place.
+	 *
+	 * @return {@code false} if all pixels are fully transparent
+	 */
+	public static boolean premultiply(int[] argb) {
+		boolean visible = false;
+		for (int i = 0; i < argb.length; i++) {
+			int c = argb[i];
+			int a = c >>> 24;
+			if (a == 0xFF) {
+				visible = true;
+			} else if (a == 0) {
+				argb[i] = 0;
+			} else {
+				visible = true;
+				int r = ((c >> 16 & 0xFF) * a + 127) / 255,
+						g = ((c >> 8 & 0xFF) * a + 127) / 255,
+						b = ((c & 0xFF) * a + 127) / 255;
+				argb[i] = a << 24 | r << 16 | g << 8 | b;
+			}
 		}
-		this.isRendered = true;
+		return visible;
+	}
+
+	/**
+	 * Calculate the MIP map levels of a square image by averaging each 2x2 block of pixels. The pixels must be premultiplied, otherwise
+	 * transparent pixels would darken the edges of their neighbors.
+	 *
+	 * @param pixels
+	 *            the premultiplied ARGB pixels of the image, row by row
+	 * @param size
+	 *            the width and height of the image, must be divisible by {@code 2^levels}
+	 * @param levels
+	 *            the number of down-scaled versions to create
+	 * @return {@code levels + 1} images, starting with the original one. Each has half the width and height of the previous one.
+	 */
+	public static int[][] createMipmaps(int[] pixels, int size, int levels) {
+		int[][] ret = new int[levels + 1][];
+		ret[0] = pixels;
+		for (int i = 1; i <= levels; i++) {
+			int[] src = ret[i - 1];
+			int srcSize = size >>> (i - 1), dstSize = size >>> i;
+			int[] dst = new int[dstSize * dstSize];
+			for (int y = 0; y < dstSize; y++) {
+				int row1 = (y << 1) * srcSize, row2 = row1 + srcSize;
+				for (int x = 0; x < dstSize; x++) {
+					int c1 = src[row1 + (x << 1)], c2 = src[row1 + (x << 1) + 1], c3 = src[row2 + (x << 1)], c4 = src[row2 + (x << 1) + 1];
+					/* Average two channels at once, each has 8 bits of headroom for the sum */
+					int rb = (c1 & 0x00FF00FF) + (c2 & 0x00FF00FF) + (c3 & 0x00FF00FF) + (c4 & 0x00FF00FF) + 0x00020002;
+					int ag = (c1 >>> 8 & 0x00FF00FF) + (c2 >>> 8 & 0x00FF00FF) + (c3 >>> 8 & 0x00FF00FF) + (c4 >>> 8 & 0x00FF00FF) + 0x00020002;
+					dst[y * dstSize + x] = (ag << 6 & 0xFF00FF00) | (rb >>> 2 & 0x00FF00FF);
+				}
+			}
+			ret[i] = dst;
+		}
+		return ret;
 	}
 
 	public boolean isVisible(AABBd frustum) {
 		int size = 512;
-		return frustum.intersectsAABB(new AABBd(position.x() * size, position.y() * size, 0, (position.x() + 1) * size, (position.y() + 1) * size, 0));
+		return (position.x() + 1) * size > frustum.minX && position.x() * size < frustum.maxX
+				&& (position.y() + 1) * size > frustum.minY && position.y() * size < frustum.maxY;
 	}
 
+	/**
+	 * Draw the region at the given MIP map level. If that level has been evicted, the next coarser one that is still in memory will be used
+	 * instead. Regions that are not rendered yet get their background, with the preview on top if there is one.
+	 */
 	public void draw(GraphicsContext gc, AABBd frustum, double scale, int level) {
-		if (this.isRendered) {
-			int size = 512;
-			if (images != null)
-				gc.drawImage(images[level], position.x() * size, position.y() * size, size, size);
-		} else {
-			drawBackground(gc, scale);
+		lastUsed = System.currentTimeMillis();
+		int size = 512;
+		boolean rendered;
+		WritableImage image = null;
+		synchronized (this) {
+			rendered = isRendered;
+			if (images == null)
+				return;
+			for (int i = level; i < images.length && image == null; i++)
+				image = images[i];
 		}
+		if (!rendered || image == null)
+			drawBackground(gc, scale);
+		if (image != null)
+			gc.drawImage(image, position.x() * size, position.y() * size, size, size);
 	}
 
 	/** This method assumes the appropriate fill is already set */
@@ -108,4 +257,4 @@ public class RenderedRegion {
 		gc.fillRect(x, y, m, h);
 		gc.fillRect(x + w - m, y, m, h);
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,109 @@
+package de.piegames.blockmap.gui;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import org.joml.AABBd;
+
+import javafx.beans.property.LongProperty;
+import javafx.beans.property.SimpleLongProperty;
+
+/**
+ * Decides which MIP map levels of the rendered regions stay in memory. Every region has six levels, the full resolution one taking 1 MiB
+ * and each further one a quarter of the previous. Keeping all of them for every region does not scale to large worlds, so:
+ * <ul>
+ * <li>Only regions near the viewport keep the levels finer than {@link #FAR_LEVEL}.</li>
+ * <li>If the regions still take more than the {@link #budget}, the ones that are not visible are reduced to the levels starting at
+ * {@link #COARSE_LEVEL}, and then evicted completely if that is not enough either. The regions that haven't been drawn for the longest
+ * time and are the farthest away from the viewport go first.</li>
+ * </ul>
+ * Evicted levels are loaded again by the {@link RenderedMap} once they are needed. Textures that can't be evicted, like the
+ * {@link RegionAtlas atlases}, still count towards the budget.
+ * <p>
+ * Loading a level again means rendering the whole region if the world isn't cached. In that case, regions are only trimmed to stay within
+ * the budget, and always keep the levels starting at {@link #COARSE_LEVEL} so that they can still be drawn at a lower resolution.
+ */
+public class TextureCache {
+
+	/** Regions that are not near the viewport only keep the levels starting at this one */
+	public static final int		FAR_LEVEL		= 2;
+	/** Regions are reduced to the levels starting at this one before they are evicted completely */
+	public static final int		COARSE_LEVEL	= 4;
+	/** Number of MIP map levels of a region */
+	private static final int	LEVELS			= 6;
+
+	/** The maximum number of bytes the textures of all regions may take */
+	public final LongProperty	budget;
+
+	public TextureCache(long budget) {
+		this.budget = new SimpleLongProperty(budget);
+	}
+
+	/**
+	 * The budget in MiB from the {@code blockmap.textureBudget} system property, or a quarter of the maximum heap size if it is not set.
+	 */
+	public static long defaultBudget() {
+		Long mib = Long.getLong("blockmap.textureBudget");
+		return mib != null ? mib << 20 : Runtime.getRuntime().maxMemory() / 4;
+	}
+
+	/**
+	 * Evict the levels that are not needed anymore. This must be called from the same thread the regions are drawn from.
+	 *
+	 * @return the number of bytes the regions take afterwards
+	 */
+	public long trim(Collection<RenderedRegion> regions, AABBd frustum) {
+		return trim(regions, frustum, 0, true);
+	}
+
+	/**
+	 * Like {@link #trim(Collection, AABBd)}, but with some memory already in use by textures that can't be evicted.
+	 *
+	 * @param fixed
+	 *            the number of bytes taken by other textures, which is subtracted from the budget of the regions
+	 * @param cheapReload
+	 *            whether evicted levels can be loaded again without rendering the region. This is the case for saved worlds and
+	 *            caches, which reuse the images they wrote (see {@link de.piegames.blockmap.world.RegionFolder#needsCaching()})
+	 * @return the number of bytes the regions and the other textures take afterwards
+	 */
+	public long trim(Collection<RenderedRegion> regions, AABBd frustum, long fixed, boolean cheapReload) {
+		long now = System.currentTimeMillis();
+		/* Regions within half a screen size of the viewport are near */
+		double near = Math.max(frustum.maxX - frustum.minX, frustum.maxY - frustum.minY) / 2;
+		long used = fixed;
+		List<Candidate> candidates = new ArrayList<>();
+		for (RenderedRegion region : regions) {
+			double distance = region.distance(frustum);
+			if (cheapReload && distance > near)
+				region.evict(FAR_LEVEL);
+			long memory = region.getMemory();
+			used += memory;
+			if (distance > 0 && memory > 0)
+				candidates.add(new Candidate(region, (now - region.lastUsed + 1) * (1 + distance / 512)));
+		}
+		if (used <= budget.get())
+			return used;
+
+		candidates.sort(Comparator.comparingDouble((Candidate c) -> c.score).reversed());
+		for (int level : cheapReload ? new int[] { COARSE_LEVEL, LEVELS } : new int[] { COARSE_LEVEL })
+			for (Candidate candidate : candidates) {
+				if (used <= budget.get())
+					return used;
+				used -= candidate.region.evict(level);
+			}
+		return used;
+	}
+
+	private static class Candidate {
+		final RenderedRegion	region;
+		/* The higher, the earlier it gets evicted */
+		final double			score;
+
+		Candidate(RenderedRegion region, double score) {
+			this.region = region;
+			this.score = score;
+		}
+	}
+}
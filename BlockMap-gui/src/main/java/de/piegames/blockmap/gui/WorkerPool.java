@@ -0,0 +1,185 @@
+package de.piegames.blockmap.gui;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.property.SimpleIntegerProperty;
+
+/**
+ * The threads that render the regions in the background, and how many of them may be used. The user sets a maximum in
+ * {@link #maxWorkers}, but the actual number of {@link #workersProperty() workers} is reduced while the FX thread can't keep up: if the
+ * pulses take longer than {@link #SLOW_PULSE} on average, one worker less is allowed each {@link #ADJUST_INTERVAL}. Once the pulses are
+ * fast again, the number goes back up to the maximum.
+ * <p>
+ * The {@link RenderedMap} asks for the current number with {@link #getWorkers()} and reports its work through {@link #beginWork()} and
+ * {@link #endWork()}, which is used to calculate the {@link #utilizationProperty() utilization}.
+ */
+public class WorkerPool {
+
+	/** Pulses slower than this on average (in nanoseconds, about 40 fps) make the pool back off */
+	public static final long				SLOW_PULSE		= 25_000_000;
+	/** Pulses faster than this on average (in nanoseconds) allow more workers again */
+	public static final long				FAST_PULSE		= 18_000_000;
+	/** How often the number of workers is adjusted, in nanoseconds */
+	public static final long				ADJUST_INTERVAL	= 1_000_000_000;
+
+	/** The maximum number of regions to render in parallel, as set by the user */
+	public final IntegerProperty			maxWorkers;
+	protected final ReadOnlyIntegerWrapper	workers			= new ReadOnlyIntegerWrapper();
+	protected final ReadOnlyIntegerWrapper	busy			= new ReadOnlyIntegerWrapper();
+	protected final ReadOnlyDoubleWrapper	utilization		= new ReadOnlyDoubleWrapper();
+	/* Copy of workers and the number of workers currently rendering, for the worker threads */
+	private volatile int					allowed;
+	private final AtomicInteger				working			= new AtomicInteger();
+
+	private final ThreadPoolExecutor		executor;
+	private final AnimationTimer			monitor;
+	/* Only accessed from the FX thread */
+	private boolean							monitoring;
+
+	public WorkerPool(int maxWorkers) {
+		this.maxWorkers = new SimpleIntegerProperty(Math.max(1, maxWorkers));
+		executor = new ThreadPoolExecutor(this.maxWorkers.get(), this.maxWorkers.get(), 20, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+		executor.allowCoreThreadTimeOut(true);
+		setWorkers(this.maxWorkers.get());
+
+		this.maxWorkers.addListener((observable, oldValue, newValue) -> {
+			int max = Math.max(1, newValue.intValue());
+			/* The core size must never be bigger than the maximum size */
+			if (max > executor.getMaximumPoolSize()) {
+				executor.setMaximumPoolSize(max);
+				executor.setCorePoolSize(max);
+			} else {
+				executor.setCorePoolSize(max);
+				executor.setMaximumPoolSize(max);
+			}
+			/* The user explicitly asked for this many, so give them all of them right away */
+			setWorkers(max);
+		});
+
+		monitor = new AnimationTimer() {
+			/* Start of the current measurement window, zero if the next pulse starts a new one */
+			long	windowStart;
+			int		pulses;
+			double	busySum;
+
+			@Override
+			public void handle(long now) {
+				if (windowStart == 0) {
+					windowStart = now;
+					return;
+				}
+				pulses++;
+				busySum += working.get();
+				if (now - windowStart < ADJUST_INTERVAL)
+					return;
+
+				long averagePulse = (now - windowStart) / pulses;
+				double averageBusy = busySum / pulses;
+				adjust(averagePulse, averageBusy);
+				windowStart = now;
+				pulses = 0;
+				busySum = 0;
+				if (working.get() == 0) {
+					/* Nothing to do, so don't keep the pulses running */
+					stop();
+					monitoring = false;
+					windowStart = 0;
+					busy.set(0);
+					utilization.set(0);
+				}
+			}
+		};
+	}
+
+	/** The number of available processors minus one for the FX thread, or the {@code blockmap.workers} system property if it is set. */
+	public static int defaultWorkers() {
+		return Integer.getInteger("blockmap.workers", Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	/** The number of workers that may currently render in parallel. This may be called from any thread. */
+	public int getWorkers() {
+		return allowed;
+	}
+
+	/** Submit a worker. It should stop once there are more workers than {@link #getWorkers()}. */
+	public void submit(Runnable worker) {
+		executor.execute(worker);
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/** Must be called by a worker before it starts working on a region. */
+	public void beginWork() {
+		if (working.getAndIncrement() == 0)
+			Platform.runLater(this::startMonitoring);
+	}
+
+	/** Must be called by a worker after it finished working on a region, even if it failed. */
+	public void endWork() {
+		working.decrementAndGet();
+	}
+
+	/**
+	 * Stop all threads once their current work is done. The workers should have been cancelled before, so this won't take long. Only if
+	 * they don't finish in time, they get interrupted.
+	 */
+	public void shutDown() throws InterruptedException {
+		Platform.runLater(monitor::stop);
+		executor.shutdown();
+		if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+			executor.shutdownNow();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+	}
+
+	private void startMonitoring() {
+		if (!monitoring) {
+			monitoring = true;
+			monitor.start();
+		}
+	}
+
+	/* Called once per ADJUST_INTERVAL on the FX thread while the workers are busy */
+	private void adjust(long averagePulse, double averageBusy) {
+		int current = workers.get();
+		if (averagePulse > SLOW_PULSE && current > 1)
+			setWorkers(current - 1);
+		else if (averagePulse < FAST_PULSE && current < maxWorkers.get())
+			setWorkers(current + 1);
+		busy.set((int) Math.round(averageBusy));
+		utilization.set(averageBusy / workers.get());
+	}
+
+	private void setWorkers(int workers) {
+		allowed = workers;
+		this.workers.set(workers);
+	}
+
+	/** The number of workers that may currently render in parallel. At most {@link #maxWorkers}, less while the FX thread is too slow. */
+	public ReadOnlyIntegerProperty workersProperty() {
+		return workers.getReadOnlyProperty();
+	}
+
+	/** The average number of workers that have been rendering during the last {@link #ADJUST_INTERVAL} */
+	public ReadOnlyIntegerProperty busyProperty() {
+		return busy.getReadOnlyProperty();
+	}
+
+	/** The average fraction of the allowed workers that have been rendering during the last {@link #ADJUST_INTERVAL} */
+	public ReadOnlyDoubleProperty utilizationProperty() {
+		return utilization.getReadOnlyProperty();
+	}
+}
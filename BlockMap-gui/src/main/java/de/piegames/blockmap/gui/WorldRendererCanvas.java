@@ -1,9 +1,7 @@
 package de.piegames.blockmap.gui;
 
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
 
 import org.joml.Vector2dc;
 import org.joml.Vector2ic;
@@ -26,32 +24,29 @@ import javafx.scene.paint.Color;
 
 public class WorldRendererCanvas extends ResizableCanvas {
 
-	public static final int													THREAD_COUNT	= 4;
-
 	protected RenderedMap													map;
-	protected ThreadPoolExecutor											executor;
+	/** Renders the regions in the background. Shared between all loaded worlds. */
+	public final WorkerPool													workerPool		= new WorkerPool(WorkerPool.defaultWorkers());
+	protected ExecutorService												executor		= workerPool.getExecutor();
 	protected GraphicsContext												gc				= getGraphicsContext2D();
 	public final DisplayViewport											viewport		= new DisplayViewport();
 	public final ObjectProperty<RegionFolder>								regionFolder	= new SimpleObjectProperty<>();
 	protected ReadOnlyObjectWrapper<String>									status			= new ReadOnlyObjectWrapper<String>();
 	protected ReadOnlyMapWrapper<Vector2ic, Map<Vector2ic, ChunkMetadata>>	chunkMetadata	= new ReadOnlyMapWrapper<>(FXCollections.observableHashMap());
 	protected ReadOnlyFloatWrapper											progress		= new ReadOnlyFloatWrapper();
+	/** Limits the memory used by the images of the rendered regions. Shared between all loaded worlds. */
+	public final TextureCache												textureCache	= new TextureCache(TextureCache.defaultBudget());
 
 	public WorldRendererCanvas() {
-		{// Executor
-			executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(THREAD_COUNT);
-			executor.setKeepAliveTime(20, TimeUnit.SECONDS);
-			executor.allowCoreThreadTimeOut(true);
-		}
-
 		progress.addListener(e -> repaint());
+		workerPool.workersProperty().addListener((observable, oldValue, newValue) -> {
+			if (map != null && newValue.intValue() > oldValue.intValue())
+				map.startWorkers();
+		});
 
 		this.regionFolder.addListener((obs, prev, val) -> {
 			if (map != null) {
-				/* Cancel existing tasks */
-				for (Runnable task : executor.getQueue())
-					executor.remove(task);
-				/* Free up the old map */
+				/* Stop the workers of the old map and free it up */
 				map.cancel();
 			}
 			if (val == null || val.listRegions().isEmpty()) {
@@ -61,7 +56,7 @@ public class WorldRendererCanvas extends ResizableCanvas {
 				chunkMetadata.clear();
 			} else {
 				executor.execute(() -> Platform.runLater(() -> status.set("Rendering")));
-				map = new RenderedMap(val, executor, viewport.mouseWorldProperty);
+				map = new RenderedMap(val, workerPool, viewport, textureCache);
 				map.getCurrentlyRendering().addListener((InvalidationListener) e -> repaint());
 				progress.bind(map.getProgress());
 				chunkMetadata.bind(map.getChunkMetadata());
@@ -80,9 +75,10 @@ public class WorldRendererCanvas extends ResizableCanvas {
 
 	public void shutDown() {
 		status.set("Stopping");
-		executor.shutdownNow();
+		if (map != null)
+			map.cancel();
 		try {
-			executor.awaitTermination(1, TimeUnit.MINUTES);
+			workerPool.shutDown();
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
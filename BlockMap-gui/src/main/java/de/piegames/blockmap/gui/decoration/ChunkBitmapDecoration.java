@@ -0,0 +1,86 @@
+package de.piegames.blockmap.gui.decoration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.joml.AABBd;
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+
+import de.piegames.blockmap.gui.DisplayViewport;
+import de.piegames.blockmap.gui.ResizableCanvas;
+import de.piegames.blockmap.world.ChunkBitmap;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Highlights all chunks of a {@link ChunkBitmap}. Each region is converted to a 32x32 image with one pixel per chunk the first time it
+ * becomes visible, so drawing costs one image per visible region, no matter how many chunks are highlighted. Like the
+ * {@link de.piegames.blockmap.gui.TextureCache}, only the images of regions near the viewport are kept.
+ */
+public class ChunkBitmapDecoration extends ResizableCanvas {
+
+	protected final DisplayViewport				viewport;
+	protected final int							argb;
+	public final ObjectProperty<ChunkBitmap>	bitmap	= new SimpleObjectProperty<>();
+	protected final Map<Vector2ic, Image>		images	= new HashMap<>();
+
+	public ChunkBitmapDecoration(DisplayViewport viewport, Color color) {
+		this.viewport = Objects.requireNonNull(viewport);
+		this.argb = (int) Math.round(color.getOpacity() * 255) << 24
+				| (int) Math.round(color.getRed() * 255) << 16
+				| (int) Math.round(color.getGreen() * 255) << 8
+				| (int) Math.round(color.getBlue() * 255);
+		viewport.frustumProperty.addListener(e -> repaint());
+		visibleProperty().addListener(e -> repaint());
+		bitmap.addListener(e -> {
+			images.clear();
+			repaint();
+		});
+	}
+
+	@Override
+	protected void render() {
+		gc.clearRect(0, 0, getWidth(), getHeight());
+		ChunkBitmap bitmap = this.bitmap.get();
+		if (!isVisible() || bitmap == null) {
+			images.clear();
+			return;
+		}
+
+		double scale = viewport.scaleProperty.get();
+		gc.save();
+		gc.scale(scale, scale);
+		gc.translate(viewport.getTranslation().x(), viewport.getTranslation().y());
+		gc.setImageSmoothing(false);
+
+		AABBd frustum = viewport.frustumProperty.get();
+		int minX = (int) Math.floor(frustum.minX) >> 9, maxX = (int) Math.floor(frustum.maxX) >> 9;
+		int minZ = (int) Math.floor(frustum.minY) >> 9, maxZ = (int) Math.floor(frustum.maxY) >> 9;
+		for (int x = minX; x <= maxX; x++)
+			for (int z = minZ; z <= maxZ; z++) {
+				long[] bits = bitmap.getRegion(x, z).orElse(null);
+				if (bits != null)
+					gc.drawImage(images.computeIfAbsent(new Vector2i(x, z), k -> toImage(bits)), x << 9, z << 9, 512, 512);
+			}
+		gc.restore();
+
+		/* Drop the images of regions that are more than half a screen size away from the viewport */
+		int near = (Math.max(maxX - minX, maxZ - minZ) + 1) / 2;
+		images.keySet().removeIf(pos -> pos.x() < minX - near || pos.x() > maxX + near || pos.y() < minZ - near || pos.y() > maxZ + near);
+	}
+
+	private Image toImage(long[] bits) {
+		WritableImage image = new WritableImage(32, 32);
+		PixelWriter writer = image.getPixelWriter();
+		for (int i = 0; i < 1024; i++)
+			if ((bits[i >> 6] & 1L << i) != 0)
+				writer.setArgb(i & 31, i >> 5, argb);
+		return image;
+	}
+}
@@ -95,6 +95,8 @@ public class Pin {
 		public static final PinType CHUNK_UNFINISHED = new PinType("Unfinished chunk", CHUNK_PIN, false, false, "textures/overlays/pin_chunk_unfinished.png");
 		public static final PinType CHUNK_FAILED = new PinType("Corrupt chunk", CHUNK_PIN, true, false, "textures/overlays/pin_chunk_corrupted.png");
 		public static final PinType CHUNK_OLD = new PinType("Old chunk", CHUNK_PIN, true, false, "textures/overlays/pin_chunk_outdated.png");
+		public static final PinType CHUNK_SLIME = new PinType("Slime chunk", CHUNK_PIN, false, false, "textures/overlays/pin_chunks.png");
+		public static final PinType CHUNK_FORCED = new PinType("Force-loaded chunk", CHUNK_PIN, false, false, "textures/overlays/pin_chunks.png");
 
 		public static final PinType PLAYER = new PinType("Player", ANY_PIN, true, false, "textures/pins/player.png");
 		public static final PinType PLAYER_POSITION = new PinType("Player position", PLAYER, true, false, "textures/pins/player.png");
@@ -642,27 +644,30 @@ public class Pin {
 				mapPane.setLeft(new Label("Scale:"));
 				mapPane.setRight(new Label("1:" + (1 << map.getScale())));
 
-				if (map.getColors().isPresent()) {
-					byte[] data = map.getColors().get();
-					WritableImage image = new WritableImage(128, 128);
-					for (int x = 0; x < 128; x++)
-						for (int y = 0; y < 128; y++) {
-							var colorId = 0xFF & data[y << 7 | x];
-							if (colorId > COLOR_IDS.length) {
-								image.getPixelWriter().setColor(x, y, Color.rgb(255, 255, 0));
-								log.warn("Map colors are out of bounds, this is likely a bug.");
-							} else {
-								image.getPixelWriter().setColor(x, y, COLOR_IDS[colorId]);
-							}
-						}
-					mapPane.setBottom(new ImageView(image));
-				}
+				/* The colors of saved worlds are stored in separate files, only fetch them once the map is actually looked at */
+				map.loadColors().thenAccept(colors -> colors.map(MapPin::renderColors)
+						.ifPresent(image -> Platform.runLater(() -> mapPane.setBottom(new ImageView(image)))));
 				content.add(mapPane, 0, rowCount++, 2, 1);
 			}
 			info.setContentNode(content);
 			return info;
 		}
 
+		private static WritableImage renderColors(byte[] data) {
+			WritableImage image = new WritableImage(128, 128);
+			for (int x = 0; x < 128; x++)
+				for (int y = 0; y < 128; y++) {
+					var colorId = 0xFF & data[y << 7 | x];
+					if (colorId > COLOR_IDS.length) {
+						image.getPixelWriter().setColor(x, y, Color.rgb(255, 255, 0));
+						log.warn("Map colors are out of bounds, this is likely a bug.");
+					} else {
+						image.getPixelWriter().setColor(x, y, COLOR_IDS[colorId]);
+					}
+				}
+			return image;
+		}
+
 		@Override
 		protected Node initBottomGui() {
 			StackPane stack = new StackPane();
@@ -10,6 +10,7 @@ import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.ResourceBundle;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -28,6 +29,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import de.piegames.blockmap.gui.MapPane;
 import de.piegames.blockmap.gui.WorldRendererCanvas;
+import de.piegames.blockmap.gui.decoration.ChunkBitmapDecoration;
 import de.piegames.blockmap.gui.decoration.DragScrollDecoration;
 import de.piegames.blockmap.gui.decoration.GridDecoration;
 import de.piegames.blockmap.gui.decoration.Pin;
@@ -58,11 +60,15 @@ import javafx.scene.control.CheckBox;
 import javafx.scene.control.CheckBoxTreeItem;
 import javafx.scene.control.Label;
 import javafx.scene.control.SelectionMode;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.SpinnerValueFactory;
 import javafx.scene.control.TitledPane;
+import javafx.scene.control.Tooltip;
 import javafx.scene.control.TreeItem;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseButton;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.paint.Color;
 import javafx.util.Duration;
 import javafx.util.Pair;
 
@@ -106,6 +112,8 @@ public class GuiController implements Initializable {
 	@FXML
 	private CheckBox scaleBox;
 	@FXML
+	private Spinner<Integer> workersSpinner;
+	@FXML
 	public CheckBox pinBox;
 	@FXML
 	public CheckTreeView<PinType> pinView;
@@ -113,6 +121,7 @@ public class GuiController implements Initializable {
 
 	protected MapPane pane;
 	public PinDecoration pins;
+	protected ChunkBitmapDecoration slimeChunks, loadedChunks;
 
 	protected ScheduledExecutorService backgroundThread = Executors
 			.newSingleThreadScheduledExecutor(
@@ -130,6 +139,17 @@ public class GuiController implements Initializable {
 		renderer = new WorldRendererCanvas();
 		root.setCenter(pane = new MapPane(renderer));
 		pane.decorationLayers.add(new DragScrollDecoration(renderer.viewport, MouseButton.PRIMARY, 0.01d));
+		pins = new PinDecoration(renderer.viewport);
+		{
+			slimeChunks = new ChunkBitmapDecoration(renderer.viewport, new Color(0.3, 0.8, 0.2, 0.35));
+			pane.decorationLayers.add(slimeChunks);
+			slimeChunks.visibleProperty().bind(Bindings.createBooleanBinding(() -> pins.visiblePins.contains(PinType.CHUNK_SLIME), pins.visiblePins));
+		}
+		{
+			loadedChunks = new ChunkBitmapDecoration(renderer.viewport, new Color(0.9, 0.5, 0.1, 0.35));
+			pane.decorationLayers.add(loadedChunks);
+			loadedChunks.visibleProperty().bind(Bindings.createBooleanBinding(() -> pins.visiblePins.contains(PinType.CHUNK_FORCED), pins.visiblePins));
+		}
 		{
 			GridDecoration grid = new GridDecoration(renderer.viewport);
 			pane.decorationLayers.add(grid);
@@ -140,7 +160,12 @@ public class GuiController implements Initializable {
 			pane.settingsLayers.add(scale);
 			scale.visibleProperty().bind(scaleBox.selectedProperty());
 		}
-		pins = new PinDecoration(renderer.viewport);
+		{ /* Render threads */
+			int workers = renderer.workerPool.maxWorkers.get();
+			workersSpinner.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(1,
+					Math.max(workers, 2 * Runtime.getRuntime().availableProcessors()), workers));
+			renderer.workerPool.maxWorkers.bind(workersSpinner.valueProperty());
+		}
 		pane.pinLayers.add(pins);
 
 		{ /* Status bar initialization */
@@ -183,6 +208,15 @@ public class GuiController implements Initializable {
 			}, renderer.viewport.scaleProperty));
 			statusBar.getRightItems().add(zoomLabel);
 
+			Label workersLabel = new Label();
+			workersLabel.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
+			workersLabel.textProperty().bind(Bindings.createStringBinding(
+					() -> "Workers " + renderer.workerPool.busyProperty().get() + "/" + renderer.workerPool.workersProperty().get()
+							+ " (" + Math.round(renderer.workerPool.utilizationProperty().get() * 100) + "%)",
+					renderer.workerPool.busyProperty(), renderer.workerPool.workersProperty(), renderer.workerPool.utilizationProperty()));
+			workersLabel.setTooltip(new Tooltip("Busy render threads out of the allowed ones. Fewer are allowed while the GUI is slow."));
+			statusBar.getRightItems().add(workersLabel);
+
 			Label mouseLabel = new Label();
 			mouseLabel.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
 			mouseLabel.textProperty().bind(Bindings.createStringBinding(
@@ -231,11 +265,22 @@ public class GuiController implements Initializable {
 		renderer.regionFolder.bind(regionFolderCached);
 		renderer.regionFolder.addListener((observable, previous, val) -> {
 			/* Reload pins */
-			if (val != null)
+			if (val != null) {
 				this.pins.loadWorld(val.listRegions(), val.getPins().map(pins -> Pin.convertStatic(pins, backgroundThread, renderer.viewport)).orElse(
 						Collections.emptySet()));
-			else
+				setChunkBitmaps(val.getPins());
+				/* Some region folders load their pins in the background, show them once they are there */
+				if (val.getPins().isEmpty())
+					val.getPinsAsync().thenAcceptAsync(pins -> {
+						if (pins.isPresent() && renderer.regionFolder.get() == val) {
+							this.pins.loadWorld(val.listRegions(), Pin.convertStatic(pins.get(), backgroundThread, renderer.viewport));
+							setChunkBitmaps(pins);
+						}
+					}, Platform::runLater);
+			} else {
 				this.pins.loadWorld(Collections.emptyList(), Collections.emptyList());
+				setChunkBitmaps(Optional.empty());
+			}
 
 			/*
 			 * Change zoom factor for the nether. We're not using the normal zooming API because a transition
@@ -306,6 +351,12 @@ public class GuiController implements Initializable {
 		checkedPins.put(type, ret);
 	}
 
+	/** Show the chunk overlays of the given pins, or remove them if there are none */
+	private void setChunkBitmaps(Optional<LevelMetadata> pins) {
+		slimeChunks.bitmap.set(pins.flatMap(LevelMetadata::getSlimeChunks).orElse(null));
+		loadedChunks.bitmap.set(pins.flatMap(LevelMetadata::getLoadedChunks).orElse(null));
+	}
+
 	public void load(String input) {
 		if (input == null || input.isBlank()) {
 			unload();
@@ -488,4 +539,4 @@ public class GuiController implements Initializable {
 			log.warn("Background thread did not finish", e);
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
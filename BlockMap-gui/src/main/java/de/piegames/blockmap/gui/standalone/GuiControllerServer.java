@@ -88,7 +88,7 @@ public class GuiControllerServer implements Initializable {
 							worldBox.getValue(),
 							VersionProvider.VERSION)),
 					new RegionFolder.RemoteRegionFolder(
-																					fixupURI(file.resolve(path))),
+																					fixupURI(file.resolve(path)), true),
 																			false));
 		} catch (IOException e) {
 			folder.set(null);
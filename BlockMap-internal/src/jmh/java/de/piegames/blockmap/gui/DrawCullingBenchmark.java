@@ -0,0 +1,77 @@
+package de.piegames.blockmap.gui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.joml.AABBd;
+import org.joml.Vector2i;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-frame cost of finding the regions to draw while panning over a large world, with a 1920x1080 view at a zoom of 1:2. Drawing
+ * itself needs a JavaFX canvas and is left out, it is the same for both. {@link #stream()} is the previous implementation, testing every
+ * region of the world.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DrawCullingBenchmark {
+
+	@Param({ "10000", "50000", "100000" })
+	private int							regions;
+
+	private List<RenderedRegion>		all;
+	private RegionIndex					index;
+	private AABBd[]						frames;
+	private int							frame;
+	private final List<RenderedRegion>	visible	= new ArrayList<>();
+
+	@Setup
+	public void createWorld() {
+		int size = (int) Math.sqrt(regions);
+		all = new ArrayList<>();
+		for (int x = 0; x < size; x++)
+			for (int z = 0; z < size; z++)
+				all.add(new RenderedRegion(new Vector2i(x - size / 2, z - size / 2)));
+		index = new RegionIndex(all);
+		Random random = new Random(1234);
+		frames = new AABBd[1024];
+		for (int i = 0; i < frames.length; i++) {
+			double x = (random.nextDouble() - 0.5) * size * 512, z = (random.nextDouble() - 0.5) * size * 512;
+			frames[i] = new AABBd(x, z, 0, x + 3840, z + 2160, 0);
+		}
+	}
+
+	@Benchmark
+	public int quadtree() {
+		visible.clear();
+		index.query(frames[frame++ & 1023], visible);
+		return visible.size();
+	}
+
+	@Benchmark
+	public int stream() {
+		AABBd frustum = frames[frame++ & 1023];
+		return all.stream()
+				.filter(r -> frustum.intersectsAABB(new AABBd(r.position.x() * 512, r.position.y() * 512, 0, (r.position.x() + 1) * 512,
+						(r.position.y() + 1) * 512, 0)))
+				.collect(Collectors.toList())
+				.size();
+	}
+}
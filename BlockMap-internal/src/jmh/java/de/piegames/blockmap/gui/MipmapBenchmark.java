@@ -0,0 +1,83 @@
+package de.piegames.blockmap.gui;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Vector2i;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.piegames.blockmap.renderer.RegionRenderer;
+import de.piegames.blockmap.renderer.RenderSettings;
+import de.piegames.nbt.regionfile.RegionFile;
+
+/**
+ * Down-scaling a rendered region to all its MIP map levels. The tile is rendered from the benchmark world with bounds that cut through it,
+ * so that it has a transparent border like the regions at the edge of a map. {@link #perPixel()} is the previous algorithm, reading and
+ * writing every pixel on its own (without the additional cost of going through the JavaFX pixel accessors).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MipmapBenchmark {
+
+	private int[] pixels;
+
+	@Setup
+	public void renderTile() throws IOException {
+		Path resourcePath = Paths.get(System.getProperty("benchmark.resources"));
+		RenderSettings settings = new RenderSettings();
+		settings.maxX = -100;
+		settings.maxZ = 900;
+		RegionRenderer renderer = new RegionRenderer(settings);
+		pixels = renderer.render(new Vector2i(-1, 1), new RegionFile(resourcePath.resolve("BlockMapWorld/region/r.-1.1.mca")))
+				.getImage()
+				.getRGB(0, 0, 512, 512, null, 0, 512);
+	}
+
+	@Benchmark
+	public int[][] bulk() {
+		int[] premultiplied = pixels.clone();
+		RenderedRegion.premultiply(premultiplied);
+		return RenderedRegion.createMipmaps(premultiplied, 512, 5);
+	}
+
+	@Benchmark
+	public int[][] perPixel() {
+		int[][] ret = new int[6][];
+		ret[0] = pixels.clone();
+		for (int i = 1; i <= 5; i++) {
+			int size = 512 >>> i;
+			int[] src = ret[i - 1], dst = new int[size * size];
+			for (int y = 0; y < size; y++)
+				for (int x = 0; x < size; x++) {
+					int c1 = src[(y << 1) * (size << 1) + (x << 1)],
+							c2 = src[(y << 1) * (size << 1) + (x << 1) + 1],
+							c3 = src[((y << 1) + 1) * (size << 1) + (x << 1)],
+							c4 = src[((y << 1) + 1) * (size << 1) + (x << 1) + 1];
+					long argb = 0;
+					long a1 = c1 >>> 24, a2 = c2 >>> 24, a3 = c3 >>> 24, a4 = c4 >>> 24;
+					argb |= ((a1 + a2 + a3 + a4) << 22) & 0xFF000000;
+					argb |= ((((c1 & 0x00FF0000) * a1 + (c2 & 0x00FF0000) * a2 + (c3 & 0x00FF0000) * a3 + (c4 & 0x00FF0000) * a4) / 255) >> 2) & 0x00FF0000;
+					argb |= ((((c1 & 0x0000FF00) * a1 + (c2 & 0x0000FF00) * a2 + (c3 & 0x0000FF00) * a3 + (c4 & 0x0000FF00) * a4) / 255) >> 2) & 0x0000FF00;
+					argb |= ((((c1 & 0x000000FF) * a1 + (c2 & 0x000000FF) * a2 + (c3 & 0x000000FF) * a3 + (c4 & 0x000000FF) * a4) / 255) >> 2) & 0x000000FF;
+					dst[y * size + x] = (int) argb;
+				}
+			ret[i] = dst;
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,82 @@
+package de.piegames.blockmap.gui;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.AABBd;
+import org.joml.Vector2d;
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+import org.joml.Vector3d;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Picking the next region to render in a world with many regions while the cursor moves around. Each invocation takes the closest region
+ * and puts it back, so the size of the queue stays the same. {@link #linearScan()} is the previous implementation, comparing every
+ * remaining region.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RegionQueueBenchmark {
+
+	@Param({ "10000", "100000" })
+	private int				regions;
+
+	private Set<Vector2ic>	notRendered;
+	private RegionQueue		queue;
+	private Vector2d[]		cursors;
+	private int				cursor;
+
+	@Setup
+	public void createWorld() {
+		int size = (int) Math.sqrt(regions);
+		notRendered = new HashSet<>();
+		for (int x = 0; x < size; x++)
+			for (int z = 0; z < size; z++)
+				notRendered.add(new Vector2i(x - size / 2, z - size / 2));
+		queue = new RegionQueue(notRendered);
+		Random random = new Random(1234);
+		cursors = new Vector2d[1024];
+		for (int i = 0; i < cursors.length; i++)
+			cursors[i] = new Vector2d(random.nextDouble() * size - size / 2, random.nextDouble() * size - size / 2);
+	}
+
+	@Benchmark
+	public Vector2ic quadtree() {
+		Vector2d point = cursors[cursor++ & 1023];
+		Vector2ic pos = queue.poll(point, new AABBd(point.x - 4, point.y - 2, 0, point.x + 4, point.y + 2, 0));
+		queue.add(pos);
+		return pos;
+	}
+
+	@Benchmark
+	public Vector2ic linearScan() {
+		Vector3d cursorPos = new Vector3d(cursors[cursor++ & 1023], 0).sub(.5, .5, 0);
+		Comparator<Vector2ic> comp = (a, b) -> Double.compare(new Vector3d(a.x(), a.y(), 0).sub(cursorPos).length(),
+				new Vector3d(b.x(), b.y(), 0).sub(cursorPos).length());
+		Vector2ic min = null;
+		for (Vector2ic r : notRendered)
+			if (min == null || comp.compare(min, r) > 0)
+				min = r;
+		notRendered.remove(min);
+		notRendered.add(min);
+		return min;
+	}
+}
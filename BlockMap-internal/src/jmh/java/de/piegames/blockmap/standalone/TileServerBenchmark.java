@@ -0,0 +1,102 @@
+package de.piegames.blockmap.standalone;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.piegames.blockmap.renderer.RegionRenderer;
+import de.piegames.blockmap.renderer.RenderSettings;
+import de.piegames.blockmap.world.RegionFolder.CachedRegionFolder;
+import de.piegames.blockmap.world.RegionFolder.WorldRegionFolder;
+import de.piegames.blockmap.world.ServerMetadata;
+
+/**
+ * Load test for the {@link TileServer}: many clients requesting region images and metadata from a server on localhost. Run it with
+ * and without the in-memory cache to see how much it helps compared to reading the files from the disk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(16)
+public class TileServerBenchmark {
+
+	private static final String[]	FILES	= { "r.-1.1.png", "r.-1.2.png", "r.0.1.png", "r.0.2.png",
+			"r.-1.1.json.gz", "r.-1.2.json.gz", "r.0.1.json.gz", "r.0.2.json.gz" };
+
+	@Param({ "0", "64" })
+	private int						cacheMiB;
+	@Param({ "4" })
+	private int						serverThreads;
+
+	private TileServer				server;
+	private HttpClient				client;
+	private URI						base;
+
+	@Setup
+	public void startServer() throws IOException, InterruptedException {
+		Path resources = Paths.get(System.getProperty("benchmark.resources"));
+		RenderSettings settings = new RenderSettings();
+		WorldRegionFolder world = WorldRegionFolder.load(resources.resolve("BlockMapWorld/region"), new RegionRenderer(settings), false);
+		CachedRegionFolder cached = CachedRegionFolder.create(world, true, Files.createTempDirectory("blockmap-benchmark"));
+
+		server = new TileServer(new InetSocketAddress("localhost", 0), serverThreads, (long) cacheMiB << 20, new ServerMetadata());
+		server.addWorld("world", cached, settings);
+		server.start(3600);
+		base = URI.create("http://localhost:" + server.getAddress().getPort() + "/world/");
+		client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+		/* Render everything once, we don't want to measure the renderer here */
+		for (String file : FILES)
+			request(file);
+	}
+
+	@TearDown
+	public void stopServer() {
+		server.stop();
+	}
+
+	@Benchmark
+	public int randomFile() throws IOException, InterruptedException {
+		return request(FILES[ThreadLocalRandom.current().nextInt(FILES.length)]);
+	}
+
+	@Benchmark
+	public int revalidate() throws IOException, InterruptedException {
+		HttpRequest request = HttpRequest.newBuilder(base.resolve(FILES[ThreadLocalRandom.current().nextInt(FILES.length)]))
+				.header("If-Modified-Since", "Fri, 31 Dec 9999 23:59:59 GMT")
+				.build();
+		return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+	}
+
+	private int request(String file) throws IOException, InterruptedException {
+		HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(base.resolve(file)).build(), HttpResponse.BodyHandlers.ofByteArray());
+		if (response.statusCode() != 200)
+			throw new IOException("Request for " + file + " failed with " + response.statusCode());
+		return response.body().length;
+	}
+}
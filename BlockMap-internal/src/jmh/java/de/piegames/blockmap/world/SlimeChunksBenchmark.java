@@ -0,0 +1,59 @@
+package de.piegames.blockmap.world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Slime chunks of a world with 100 regions (102400 chunks): the bulk computation per region compared to checking every chunk on its own
+ * and collecting the positions, like it would be needed for a list of chunk pins.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SlimeChunksBenchmark {
+
+	private static final long	SEED	= -4172144997902289642L;
+
+	private List<Vector2ic>		regions;
+
+	@Setup
+	public void createWorld() {
+		regions = new ArrayList<>();
+		for (int x = -5; x < 5; x++)
+			for (int z = -5; z < 5; z++)
+				regions.add(new Vector2i(x, z));
+	}
+
+	@Benchmark
+	public ChunkBitmap bulk() {
+		return SlimeChunks.compute(SEED, regions);
+	}
+
+	@Benchmark
+	public List<Vector2ic> perChunk() {
+		List<Vector2ic> chunks = new ArrayList<>();
+		for (Vector2ic region : regions)
+			for (int x = region.x() << 5; x < (region.x() + 1) << 5; x++)
+				for (int z = region.y() << 5; z < (region.y() + 1) << 5; z++)
+					if (SlimeChunks.isSlimeChunk(SEED, x, z))
+						chunks.add(new Vector2i(x, z));
+		return chunks;
+	}
+}
@@ -8,6 +8,15 @@ import org.junit.runners.Suite;
 		ColorMapTest.class,
 		RegionRendererTest.class,
 		RegionFolderTest.class,
+		LevelMetadataTest.class,
+		MetadataCacheTest.class,
+		SlimeChunksTest.class,
+		RegionQueueTest.class,
+		TextureCacheTest.class,
+		RegionWatcherTest.class,
+		RegionOrderTest.class,
+		TilePyramidTest.class,
+		TileServerTest.class,
 		CommandLineTest.class,
 		BiomesTest.class,
 })
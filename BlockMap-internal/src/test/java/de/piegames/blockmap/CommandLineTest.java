@@ -49,6 +49,13 @@ public class CommandLineTest {
 				"--max-X=1024", "--min-Z=-1024", "--max-Z=1024",
 				"--dimension=OVERWORLD"));
 
+		assertEquals(0, CommandLineMain.mainWithoutQuit("-v", "render", "--create-tile-pyramid", "--pyramid-levels=3", "-o=" + out2 + "/",
+				"./src/main/resources/BlockMapWorld/"));
+		assertTrue(new File(out2, "tiles/pyramid.json").exists());
+		assertTrue(new File(out2, "tiles/3/-1/0.png").exists());
+		assertTrue(new File(out2, "tiles/3/0/0.png").exists());
+		assertTrue(new File(out2, "pyramid.html").exists());
+
 		assertEquals(2, CommandLineMain.mainWithoutQuit("-v", "render", "--create-tile-html", "-o=" + out2 + "/", "./src/main/resources/BlockMapWorld/",
 				"--min-X=1024",
 				"--max-X=1024", "--min-Z=1024", "--max-Z=1024",
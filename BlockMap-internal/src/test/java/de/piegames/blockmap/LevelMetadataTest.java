@@ -0,0 +1,132 @@
+package de.piegames.blockmap;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.joml.Vector3i;
+import org.junit.Test;
+
+import de.piegames.blockmap.renderer.RenderSettings;
+import de.piegames.blockmap.world.ChunkBitmap;
+import de.piegames.blockmap.world.LevelMetadata;
+import de.piegames.blockmap.world.LevelMetadata.VillageObjectPin;
+import de.piegames.blockmap.world.MetadataCache;
+import de.piegames.nbt.CompoundTag;
+import de.piegames.nbt.ListTag;
+import de.piegames.nbt.Tag;
+import de.piegames.nbt.regionfile.RegionFile;
+
+public class LevelMetadataTest {
+	/* The test worlds that have POI files */
+	final String[] POI_WORLDS = new String[] { "Debug-1_14", "Debug-1_15", "Debug-1_16", "Debug-1_18" };
+
+	/** Streaming the POI records must give the same result as loading the whole NBT tree of each chunk, with and without a type filter */
+	@Test
+	public void testVillageObjects() throws IOException {
+		int total = 0;
+		for (String name : POI_WORLDS) {
+			Path world = Paths.get(URI.create(getClass().getResource("/" + name).toString()));
+			List<String> expected = loadVillageObjectsTree(world.resolve(MinecraftDimension.OVERWORLD.getPoiPath()));
+			total += expected.size();
+			assertEquals(name, expected, describe(LevelMetadata.loadFromWorld(world, MinecraftDimension.OVERWORLD, new MetadataCache(),
+					Optional.empty(), Optional.empty())));
+			if (expected.isEmpty())
+				continue;
+
+			/* Filter for the type of the first record only */
+			String type = expected.get(0).split(" ")[0];
+			List<String> filtered = expected.stream().filter(pin -> pin.startsWith(type + " ")).collect(Collectors.toList());
+			assertEquals(name, filtered, describe(LevelMetadata.loadFromWorld(world, MinecraftDimension.OVERWORLD, new MetadataCache(),
+					Optional.of(Set.of(type)), Optional.empty())));
+		}
+		assertTrue(total > 0);
+	}
+
+	/** The force-loaded chunks are read from the chunks.dat of the requested dimension, and only the ones within the bounds are kept */
+	@Test
+	public void testForcedChunks() {
+		/* Forced chunks are (0, 0), (-1, 5) and (40, -3) in the overworld and (7, 7) in the nether */
+		Path world = Paths.get(URI.create(getClass().getResource("/ForcedChunks").toString()));
+		ChunkBitmap overworld = LevelMetadata.loadFromWorld(world, MinecraftDimension.OVERWORLD).getLoadedChunks().get();
+		assertEquals(3, overworld.size());
+		assertTrue(overworld.get(0, 0));
+		assertTrue(overworld.get(-1, 5));
+		assertTrue(overworld.get(40, -3));
+		assertFalse(overworld.get(5, -1));
+		assertFalse(overworld.get(7, 7));
+
+		ChunkBitmap nether = LevelMetadata.loadFromWorld(world, MinecraftDimension.NETHER).getLoadedChunks().get();
+		assertEquals(1, nether.size());
+		assertTrue(nether.get(7, 7));
+
+		RenderSettings bounds = new RenderSettings();
+		bounds.minX = 0;
+		bounds.maxZ = 511;
+		ChunkBitmap bounded = LevelMetadata.loadFromWorld(world, MinecraftDimension.OVERWORLD, new MetadataCache(), Optional.empty(),
+				Optional.of(bounds)).getLoadedChunks().get();
+		assertEquals(2, bounded.size());
+		assertFalse(bounded.get(-1, 5));
+
+		/* Worlds without any force-loaded chunks don't have the file */
+		Path empty = Paths.get(URI.create(getClass().getResource("/Debug-1_13").toString()));
+		assertFalse(LevelMetadata.loadFromWorld(empty, MinecraftDimension.OVERWORLD).getLoadedChunks().isPresent());
+	}
+
+	private static List<String> describe(LevelMetadata metadata) {
+		return describe(metadata.getVillageObjects().orElse(Collections.emptyList()));
+	}
+
+	/* Village objects can't be compared directly, and their order depends on the order the files are listed in */
+	private static List<String> describe(Collection<VillageObjectPin> pins) {
+		return pins.stream()
+				.map(pin -> pin.getType() + " " + pin.getPosition() + " " + pin.getFreeTickets())
+				.sorted()
+				.collect(Collectors.toList());
+	}
+
+	/* How the village objects used to be loaded, by parsing the NBT tree of each chunk */
+	private static List<String> loadVillageObjectsTree(Path poiFolder) throws IOException {
+		List<VillageObjectPin> villageObjects = new ArrayList<>();
+		try (DirectoryStream<Path> d = Files.newDirectoryStream(poiFolder, "*.mca")) {
+			for (Path p : d) {
+				try (RegionFile file = new RegionFile(p, StandardOpenOption.READ)) {
+					for (int i : file.listChunks()) {
+						for (CompoundTag section : (Iterable<CompoundTag>) file.loadChunk(i)
+								.readTag().getAsCompoundTag("Sections")
+								.map(tag -> tag.getValue().values())
+								.stream().flatMap(Collection::stream)
+								.map(t -> (CompoundTag) t)::iterator) {
+							if (section.getByteValue("Valid").orElse((byte) 0) != 1)
+								continue;
+							List<CompoundTag> records = section.getAsListTag("Records")
+									.flatMap(ListTag::getAsCompoundTagList)
+									.map(Tag::getValue)
+									.orElse(Collections.emptyList());
+							for (CompoundTag j : records) {
+								int freeTickets = j.getIntValue("free_tickets").orElse(-1);
+								String type = j.getStringValue("type").orElse("<unknown>");
+								int[] pos = j.getIntArrayValue("pos").orElse(new int[] { 0, 0, 0, });
+								villageObjects.add(new VillageObjectPin(new Vector3i(pos[0], pos[1], pos[2]), MinecraftDimension.OVERWORLD, freeTickets, type));
+							}
+						}
+					}
+				}
+			}
+		}
+		return describe(villageObjects);
+	}
+}
@@ -0,0 +1,86 @@
+package de.piegames.blockmap;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.piegames.blockmap.world.LevelMetadata;
+import de.piegames.blockmap.world.MetadataCache;
+
+public class MetadataCacheTest {
+
+	@Rule
+	public TemporaryFolder	folder	= new TemporaryFolder();
+
+	private Path			world, cacheFile, first, second;
+	/* The number of village objects in each of the two POI files */
+	private int				objects;
+
+	/** A world with the same POI region file twice */
+	@Before
+	public void createWorld() throws IOException {
+		Path source = Paths.get(URI.create(getClass().getResource("/Debug-1_16").toString())).resolve(MinecraftDimension.OVERWORLD.getPoiPath())
+				.resolve("r.0.0.mca");
+		world = folder.newFolder("world").toPath();
+		Path poi = Files.createDirectories(world.resolve(MinecraftDimension.OVERWORLD.getPoiPath()));
+		first = Files.copy(source, poi.resolve("r.0.0.mca"));
+		second = Files.copy(source, poi.resolve("r.1.0.mca"));
+		cacheFile = folder.getRoot().toPath().resolve(MetadataCache.FILE_NAME);
+
+		objects = countVillageObjects(new MetadataCache()) / 2;
+		assertTrue(objects > 0);
+	}
+
+	/** Files that did not change must not be parsed again, even after saving and loading the cache */
+	@Test
+	public void testReuse() throws IOException {
+		MetadataCache cache = MetadataCache.load(cacheFile);
+		assertEquals(2 * objects, countVillageObjects(cache));
+		cache.save();
+		assertTrue(Files.exists(cacheFile));
+
+		corrupt(first);
+		assertEquals(2 * objects, countVillageObjects(MetadataCache.load(cacheFile)));
+		assertEquals(objects, countVillageObjects(new MetadataCache()));
+	}
+
+	/** Entries of files that got deleted must be dropped, even if the cache was used to load the world before they got deleted */
+	@Test
+	public void testPrune() throws IOException {
+		MetadataCache cache = MetadataCache.load(cacheFile);
+		assertEquals(2 * objects, countVillageObjects(cache));
+		FileTime lastModified = Files.getLastModifiedTime(second);
+		Files.delete(second);
+		assertEquals(objects, countVillageObjects(cache));
+		cache.save();
+
+		/* A new file that looks exactly like the deleted one. If the entry was still in the cache, it would be used for it. */
+		Files.copy(first, second);
+		Files.setLastModifiedTime(second, lastModified);
+		corrupt(second);
+		assertEquals(objects, countVillageObjects(MetadataCache.load(cacheFile)));
+	}
+
+	private int countVillageObjects(MetadataCache cache) {
+		return LevelMetadata.loadFromWorld(world, MinecraftDimension.OVERWORLD, cache, Optional.empty(), Optional.empty())
+				.getVillageObjects().get().size();
+	}
+
+	/* Overwrite a file with garbage, without changing its size or timestamp */
+	private static void corrupt(Path file) throws IOException {
+		FileTime lastModified = Files.getLastModifiedTime(file);
+		Files.write(file, new byte[(int) Files.size(file)]);
+		Files.setLastModifiedTime(file, lastModified);
+	}
+}
@@ -2,12 +2,22 @@ package de.piegames.blockmap;
 
 import static org.junit.Assert.*;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
 
 import org.joml.Vector2i;
 import org.joml.Vector2ic;
@@ -15,14 +25,24 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import de.piegames.blockmap.renderer.CancellationToken;
 import de.piegames.blockmap.renderer.RegionRenderer;
+import de.piegames.blockmap.renderer.RegionRenderer.RawRegion;
+import de.piegames.blockmap.renderer.RegionRenderer.RenderedRegion;
 import de.piegames.blockmap.renderer.RenderSettings;
 import de.piegames.blockmap.standalone.PostProcessing;
+import de.piegames.blockmap.world.LevelMetadata;
+import de.piegames.blockmap.world.LevelMetadata.MapPin;
+import de.piegames.blockmap.world.LevelMetadata.MapPin.BannerPin;
 import de.piegames.blockmap.world.Region;
+import de.piegames.blockmap.world.RegionFolder;
 import de.piegames.blockmap.world.RegionFolder.CachedRegionFolder;
 import de.piegames.blockmap.world.RegionFolder.LocalRegionFolder;
 import de.piegames.blockmap.world.RegionFolder.RemoteRegionFolder;
 import de.piegames.blockmap.world.RegionFolder.WorldRegionFolder;
+import de.piegames.blockmap.world.RenderPipeline;
+import de.piegames.blockmap.world.RenderPipeline.Stage;
+import de.piegames.blockmap.world.RenderPipeline.StageStatistics;
 import de.piegames.nbt.regionfile.RegionFile;
 
 public class RegionFolderTest {
@@ -39,9 +59,9 @@ public class RegionFolderTest {
 		settings.loadDefaultColors();
 		RegionRenderer renderer = new RegionRenderer(settings) {
 			@Override
-			public Region render(Vector2ic regionPos, RegionFile file) {
+			public Region render(Vector2ic regionPos, RegionFile file, CancellationToken token) {
 				rendered.add(regionPos);
-				return super.render(regionPos, file);
+				return super.render(regionPos, file, token);
 			}
 		};
 
@@ -57,8 +77,17 @@ public class RegionFolderTest {
 				assertFalse(rendered.isEmpty());
 				assertEquals(v, rendered.remove());
 			}
+			/* Images written by this instance are reused even if it is not lazy */
 			for (Vector2ic v : REGIONS) {
+				assertTrue(cachedWorld.isUpToDate(v));
 				assertNotNull(cachedWorld.render(v));
+				assertTrue(rendered.isEmpty());
+			}
+			/* But not the ones of a previous run */
+			CachedRegionFolder again = CachedRegionFolder.create(localWorld, false, out1.toPath());
+			for (Vector2ic v : REGIONS) {
+				assertFalse(again.isUpToDate(v));
+				assertNotNull(again.render(v));
 				assertFalse(rendered.isEmpty());
 				assertEquals(v, rendered.remove());
 			}
@@ -81,7 +110,16 @@ public class RegionFolderTest {
 			assertTrue(rendered.isEmpty());
 		}
 
+		/* Without saving, a new run must resume from the journal instead of rendering again */
+		CachedRegionFolder resumed = CachedRegionFolder.create(localWorld, true, out2.toPath());
+		for (Vector2ic v : REGIONS) {
+			assertTrue(resumed.isUpToDate(v));
+			assertNotNull(resumed.render(v));
+			assertTrue(rendered.isEmpty());
+		}
+
 		cachedWorldLazy.save();
+		assertFalse(Files.exists(out2.toPath().resolve("rendered.journal")));
 
 		LocalRegionFolder savedWorld2 = new LocalRegionFolder(out2.toPath().resolve("rendered.json.gz"));
 		RemoteRegionFolder savedWorld3 = new RemoteRegionFolder(out2.toPath().resolve("rendered.json.gz").toUri());
@@ -90,6 +128,153 @@ public class RegionFolderTest {
 			assertNotNull(savedWorld3.render(v));
 		}
 		assertTrue(rendered.isEmpty());
+
+		/* Lazy loading must yield the same metadata, only later */
+		LocalRegionFolder savedWorld4 = new LocalRegionFolder(out2.toPath().resolve("rendered.json.gz"), true);
+		for (Vector2ic v : REGIONS) {
+			Region region = savedWorld4.render(v);
+			assertNotNull(region);
+			assertEquals(savedWorld2.render(v).getChunkMetadata().keySet(), region.getChunkMetadata().keySet());
+		}
+		assertEquals(savedWorld2.getPins(), savedWorld4.getPinsAsync().join());
+		assertTrue(rendered.isEmpty());
+	}
+
+	/** The render pipeline must yield the same result as rendering each region directly */
+	@Test
+	public void testPipeline() throws IOException, InterruptedException {
+		RenderSettings settings = new RenderSettings();
+		settings.loadDefaultColors();
+		WorldRegionFolder localWorld = WorldRegionFolder.load(
+				Paths.get(URI.create(getClass().getResource("/BlockMapWorld/region").toString())),
+				new RegionRenderer(settings), false);
+
+		CachedRegionFolder cachedWorld = CachedRegionFolder.create(localWorld, true, folder.newFolder().toPath());
+		try (RenderPipeline pipeline = new RenderPipeline(localWorld, cachedWorld, Map.of(Stage.RENDER, 2))) {
+			for (Vector2ic v : REGIONS)
+				pipeline.submit(v);
+			assertEquals(0, pipeline.awaitCompletion());
+			for (StageStatistics stage : pipeline.getStatistics())
+				assertEquals(REGIONS.length, stage.processed);
+		}
+		for (Vector2ic v : REGIONS) {
+			assertTrue(cachedWorld.isUpToDate(v));
+			Region expected = localWorld.render(v);
+			Region actual = cachedWorld.render(v);
+			assertEquals(expected.getChunkMetadata().keySet(), actual.getChunkMetadata().keySet());
+			assertEquals(expected.getImage().getRGB(100, 200), actual.getImage().getRGB(100, 200));
+		}
+	}
+
+	/** An error in one of the stages must fail the pipeline instead of letting it wait forever */
+	@Test(timeout = 60000)
+	public void testPipelineError() throws IOException, InterruptedException {
+		RenderSettings settings = new RenderSettings();
+		settings.loadDefaultColors();
+		StackOverflowError error = new StackOverflowError();
+		WorldRegionFolder localWorld = WorldRegionFolder.load(
+				Paths.get(URI.create(getClass().getResource("/BlockMapWorld/region").toString())),
+				new RegionRenderer(settings) {
+					@Override
+					public RenderedRegion renderColumns(RawRegion raw) {
+						throw error;
+					}
+				}, false);
+
+		CachedRegionFolder cachedWorld = CachedRegionFolder.create(localWorld, true, folder.newFolder().toPath());
+		try (RenderPipeline pipeline = new RenderPipeline(localWorld, cachedWorld, Map.of())) {
+			for (Vector2ic v : REGIONS)
+				pipeline.submit(v);
+			pipeline.awaitCompletion();
+			fail();
+		} catch (StackOverflowError e) {
+			assertSame(error, e);
+		}
+		for (Vector2ic v : REGIONS)
+			assertFalse(cachedWorld.isUpToDate(v));
+	}
+
+	/** Map colors must be saved to separate files, one per distinct map, and loaded back on demand */
+	@Test
+	public void testMapColors() throws IOException {
+		WorldRegionFolder localWorld = WorldRegionFolder.load(
+				Paths.get(URI.create(getClass().getResource("/BlockMapWorld/region").toString())),
+				new RegionRenderer(new RenderSettings()), false);
+		byte[] colors1 = new byte[128 * 128], colors2 = new byte[128 * 128];
+		Arrays.fill(colors1, (byte) 4);
+		Arrays.fill(colors2, (byte) 8);
+		localWorld.setPins(new LevelMetadata(null, null, List.of(
+				new MapPin((byte) 0, new Vector2i(0, 0), MinecraftDimension.OVERWORLD, (List<BannerPin>) null, colors1),
+				new MapPin((byte) 1, new Vector2i(64, 64), MinecraftDimension.OVERWORLD, (List<BannerPin>) null, colors1),
+				new MapPin((byte) 0, new Vector2i(128, 0), MinecraftDimension.OVERWORLD, (List<BannerPin>) null, colors2)),
+				null, null, null, null, null));
+
+		Path out = folder.newFolder().toPath();
+		CachedRegionFolder cachedWorld = CachedRegionFolder.create(localWorld, true, out);
+		cachedWorld.save();
+		try (Stream<Path> files = Files.list(out.resolve(CachedRegionFolder.MAPS_FOLDER))) {
+			assertEquals(2, files.count());
+		}
+
+		LocalRegionFolder savedWorld = new LocalRegionFolder(out.resolve("rendered.json.gz"));
+		List<MapPin> maps = savedWorld.getPins().flatMap(LevelMetadata::getMaps).get();
+		assertEquals(3, maps.size());
+		assertEquals(maps.get(0).getColorsFile(), maps.get(1).getColorsFile());
+		assertNotEquals(maps.get(0).getColorsFile(), maps.get(2).getColorsFile());
+		assertFalse(maps.get(0).getColors().isPresent());
+		assertArrayEquals(colors1, maps.get(1).loadColors().join().get());
+		assertArrayEquals(colors2, maps.get(2).loadColors().join().get());
+	}
+
+	/** An interrupt must neither abort writing a region nor break the journal for the following ones */
+	@Test
+	public void testWriteInterrupted() throws IOException {
+		RenderSettings settings = new RenderSettings();
+		settings.loadDefaultColors();
+		WorldRegionFolder localWorld = WorldRegionFolder.load(
+				Paths.get(URI.create(getClass().getResource("/BlockMapWorld/region").toString())),
+				new RegionRenderer(settings), false);
+		Path out = folder.newFolder().toPath();
+		CachedRegionFolder.create(localWorld, true, out);
+		InterruptedFolder cachedWorld = new InterruptedFolder(localWorld, out.resolve("rendered.json.gz"));
+
+		Region region = localWorld.render(REGIONS[0]);
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(region.getImage(), "png", png);
+		Thread.currentThread().interrupt();
+		try {
+			cachedWorld.write(REGIONS[0], png.toByteArray(), region.getChunkMetadata());
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+
+		cachedWorld.interruptJournal();
+		for (int i = 1; i < REGIONS.length; i++) {
+			region = localWorld.render(REGIONS[i]);
+			png.reset();
+			ImageIO.write(region.getImage(), "png", png);
+			cachedWorld.write(REGIONS[i], png.toByteArray(), region.getChunkMetadata());
+		}
+
+		CachedRegionFolder resumed = CachedRegionFolder.create(localWorld, true, out);
+		for (Vector2ic v : REGIONS) {
+			assertTrue(resumed.isUpToDate(v));
+			assertNotNull(resumed.render(v));
+		}
+	}
+
+	/* Gives access to the journal, to break it the way an interrupt while appending to it would */
+	private static class InterruptedFolder extends CachedRegionFolder {
+
+		InterruptedFolder(RegionFolder cached, Path file) throws IOException {
+			super(cached, true, file);
+		}
+
+		void interruptJournal() throws IOException {
+			journal.write("{\"x\":");
+			journal.close();
+		}
 	}
 
 	/**
@@ -104,9 +289,9 @@ public class RegionFolderTest {
 		settings.loadDefaultColors();
 		RegionRenderer renderer = new RegionRenderer(settings) {
 			@Override
-			public Region render(Vector2ic regionPos, RegionFile file) {
+			public Region render(Vector2ic regionPos, RegionFile file, CancellationToken token) {
 				rendered.add(regionPos);
-				return super.render(regionPos, file);
+				return super.render(regionPos, file, token);
 			}
 		};
 
@@ -123,7 +308,18 @@ public class RegionFolderTest {
 		}
 		assertTrue(rendered.isEmpty());
 
-		PostProcessing.createBigImage(cachedWorld, out1.toPath(), settings);
+		assertEquals(0, PostProcessing.createBigImage(cachedWorld, out1.toPath(), settings));
+		assertTrue(rendered.isEmpty());
+		BufferedImage big = ImageIO.read(out1.toPath().resolve("big.png").toFile());
+		assertEquals(1024, big.getWidth());
+		assertEquals(1024, big.getHeight());
+		BufferedImage region = cachedWorld.render(new Vector2i(0, 1)).getImage();
+		assertEquals(region.getRGB(100, 200), big.getRGB(512 + 100, 200));
+
+		assertEquals(0, PostProcessing.createBigImage(cachedWorld, out1.toPath(), settings, 3));
+		big = ImageIO.read(out1.toPath().resolve("big.png").toFile());
+		assertEquals(342, big.getWidth());
+		assertEquals(342, big.getHeight());
 		assertTrue(rendered.isEmpty());
 	}
 }
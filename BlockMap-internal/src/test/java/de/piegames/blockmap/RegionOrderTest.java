@@ -0,0 +1,118 @@
+package de.piegames.blockmap;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+import org.joml.Vector3d;
+import org.joml.Vector3i;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.piegames.blockmap.renderer.RegionRenderer;
+import de.piegames.blockmap.renderer.RenderSettings;
+import de.piegames.blockmap.standalone.RegionOrder;
+import de.piegames.blockmap.world.LevelMetadata;
+import de.piegames.blockmap.world.LevelMetadata.PlayerPin;
+import de.piegames.blockmap.world.LevelMetadata.WorldSpawnPin;
+import de.piegames.blockmap.world.RegionFolder.WorldRegionFolder;
+
+public class RegionOrderTest {
+
+	@Rule
+	public TemporaryFolder		folder	= new TemporaryFolder();
+
+	/* A 7x7 square of regions around the origin, each modified one second after the previous one */
+	private List<Vector2ic>		regions;
+	private WorldRegionFolder	world;
+
+	@Before
+	public void createWorld() throws IOException {
+		regions = new ArrayList<>();
+		Map<Vector2ic, Path> files = new HashMap<>();
+		long time = 1_600_000_000_000L;
+		for (int x = -3; x <= 3; x++)
+			for (int z = -3; z <= 3; z++) {
+				Vector2ic pos = new Vector2i(x, z);
+				Path file = folder.newFile("r." + x + "." + z + ".mca").toPath();
+				Files.setLastModifiedTime(file, FileTime.fromMillis(time += 1000));
+				regions.add(pos);
+				files.put(pos, file);
+			}
+		world = new WorldRegionFolder(files, new RegionRenderer(new RenderSettings()), false);
+	}
+
+	@Test
+	public void testAny() {
+		assertEquals(regions, RegionOrder.ANY.sort(world, regions, Optional.empty(), Optional.empty()));
+	}
+
+	@Test
+	public void testNewest() {
+		List<Vector2ic> expected = new ArrayList<>(regions);
+		Collections.reverse(expected);
+		assertEquals(expected, RegionOrder.NEWEST.sort(world, regions, Optional.empty(), Optional.empty()));
+	}
+
+	/** Closest to the spawn first, or to the origin if the spawn is not known */
+	@Test
+	public void testSpawn() {
+		List<Vector2ic> sorted = RegionOrder.SPAWN.sort(world, regions, Optional.of(metadata(null)), Optional.empty());
+		assertEquals(new Vector2i(3, -3), sorted.get(0));
+		assertSorted(sorted, 2000, -1500);
+
+		sorted = RegionOrder.SPAWN.sort(world, regions, Optional.empty(), Optional.empty());
+		assertTrue(Set.of(new Vector2i(0, 0), new Vector2i(-1, 0), new Vector2i(0, -1), new Vector2i(-1, -1)).contains(sorted.get(0)));
+		assertSorted(sorted, 0, 0);
+	}
+
+	/** Only online players count if they are known. Without any players, the spawn is used instead. */
+	@Test
+	public void testPlayers() {
+		List<PlayerPin> players = List.of(
+				new PlayerPin(new Vector3d(-1000, 70, 800), MinecraftDimension.OVERWORLD, "online", null, 0),
+				new PlayerPin(new Vector3d(1500, 70, 1500), MinecraftDimension.OVERWORLD, "offline", null, 0));
+		Optional<LevelMetadata> metadata = Optional.of(metadata(players));
+
+		List<Vector2ic> sorted = RegionOrder.PLAYERS.sort(world, regions, metadata, Optional.of(Set.of("online")));
+		assertEquals(new Vector2i(-2, 1), sorted.get(0));
+		assertSorted(sorted, -1000, 800);
+
+		sorted = RegionOrder.PLAYERS.sort(world, regions, metadata, Optional.empty());
+		/* The region of the other player is a bit farther away from them than the second one of the first player */
+		assertEquals(List.of(new Vector2i(-2, 1), new Vector2i(-3, 1), new Vector2i(2, 2)), sorted.subList(0, 3));
+
+		sorted = RegionOrder.PLAYERS.sort(world, regions, metadata, Optional.of(Set.of("somebody else")));
+		assertEquals(new Vector2i(3, -3), sorted.get(0));
+		assertSorted(sorted, 2000, -1500);
+	}
+
+	/* The spawn is always at 2000, -1500 */
+	private static LevelMetadata metadata(List<PlayerPin> players) {
+		return new LevelMetadata(null, players, null, null, null, null, null, new WorldSpawnPin(new Vector3i(2000, 64, -1500)));
+	}
+
+	/* The distance of the region centers to the given block must never decrease */
+	private static void assertSorted(List<Vector2ic> sorted, double x, double z) {
+		double last = 0;
+		for (Vector2ic pos : sorted) {
+			double distance = Math.hypot((pos.x() << 9) + 256 - x, (pos.y() << 9) + 256 - z);
+			assertTrue(pos + " is closer than the region before", distance >= last);
+			last = distance;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package de.piegames.blockmap;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.joml.AABBd;
+import org.joml.Vector2d;
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+import org.junit.Test;
+
+import de.piegames.blockmap.gui.RegionQueue;
+
+public class RegionQueueTest {
+
+	/** Every poll must return a region at the smallest distance, with the visible ones first, while the point keeps moving */
+	@Test
+	public void testClosestFirst() {
+		Random random = new Random(1234);
+		Set<Vector2ic> remaining = new HashSet<>();
+		for (int i = 0; i < 2000; i++)
+			remaining.add(new Vector2i(random.nextInt(100) - 70, random.nextInt(60) - 10));
+		RegionQueue queue = new RegionQueue(remaining);
+		assertEquals(remaining.size(), queue.size());
+
+		while (!remaining.isEmpty()) {
+			Vector2d point = new Vector2d(random.nextDouble() * 140 - 90, random.nextDouble() * 100 - 30);
+			AABBd frustum = random.nextBoolean() ? null : new AABBd(point.x - 5, point.y - 3, 0, point.x + 5, point.y + 3, 0);
+			Vector2ic polled = queue.poll(point, frustum);
+			assertTrue(remaining.remove(polled));
+
+			boolean polledVisible = frustum == null || isVisible(polled, frustum);
+			for (Vector2ic other : remaining) {
+				boolean otherVisible = frustum == null || isVisible(other, frustum);
+				if (otherVisible && !polledVisible)
+					fail(other + " is visible, but " + polled + " was returned");
+				if (otherVisible == polledVisible)
+					assertTrue(other + " is closer than " + polled, distance(point, polled) <= distance(point, other));
+			}
+		}
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll(new Vector2d(), null));
+	}
+
+	@Test
+	public void testAdd() {
+		List<Vector2ic> positions = new ArrayList<>();
+		for (int x = -20; x < 20; x++)
+			positions.add(new Vector2i(x, -x));
+		RegionQueue queue = new RegionQueue(positions);
+		Vector2ic polled = queue.poll(new Vector2d(3.5, -2.5), null);
+		assertEquals(new Vector2i(3, -3), polled);
+		queue.add(polled);
+		queue.add(polled);
+		assertEquals(positions.size(), queue.size());
+		assertEquals(polled, queue.poll(new Vector2d(3.5, -2.5), null));
+		assertThrows(IllegalArgumentException.class, () -> queue.add(new Vector2i(100, 0)));
+	}
+
+	private static boolean isVisible(Vector2ic pos, AABBd frustum) {
+		return pos.x() + 1 > frustum.minX && pos.x() < frustum.maxX && pos.y() + 1 > frustum.minY && pos.y() < frustum.maxY;
+	}
+
+	private static double distance(Vector2d point, Vector2ic pos) {
+		return point.distance(pos.x() + 0.5, pos.y() + 0.5);
+	}
+}
@@ -1,6 +1,10 @@
 package de.piegames.blockmap;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
@@ -8,6 +12,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.concurrent.CancellationException;
 
 import javax.imageio.ImageIO;
 
@@ -16,8 +21,14 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import de.piegames.blockmap.renderer.CancellationToken;
 import de.piegames.blockmap.renderer.RegionRenderer;
 import de.piegames.blockmap.renderer.RenderSettings;
+import de.piegames.blockmap.world.ChunkMetadata;
+import de.piegames.blockmap.world.ChunkMetadata.ChunkMetadataRendered;
+import de.piegames.blockmap.world.ChunkMetadata.ChunkRenderState;
+import de.piegames.blockmap.world.Region;
+import de.piegames.blockmap.world.RegionStatistics;
 import de.piegames.nbt.regionfile.RegionFile;
 
 public class RegionRendererTest {
@@ -46,8 +57,12 @@ public class RegionRendererTest {
 		settings.minX = 30;
 		settings.maxX = 420;
 		RegionRenderer renderer = new RegionRenderer(settings);
-		BufferedImage image = renderer.render(new Vector2i(0, -1), new RegionFile(Paths.get(URI.create(getClass().getResource("/r.1.3.mca").toString()))))
-				.getImage();
+		Region region = renderer.render(new Vector2i(0, -1), new RegionFile(Paths.get(URI.create(getClass().getResource("/r.1.3.mca").toString()))));
+		BufferedImage image = region.getImage();
+		/* Culling happens before the chunks are loaded, so everything outside must be culled regardless of its content */
+		for (var entry : region.getChunkMetadata().entrySet())
+			assertEquals(entry.getKey().toString(), !settings.isChunkVisible(entry.getKey().x(), entry.getKey().y()),
+					entry.getValue().getRenderState() == ChunkRenderState.CULLED);
 		boolean[][] isCulled = new boolean[512][];
 		boolean[][] shouldBeCulled = new boolean[512][];
 		for (int x = 0; x < 512; x++) {
@@ -59,5 +74,83 @@ public class RegionRendererTest {
 			}
 		}
 		assertArrayEquals(shouldBeCulled, isCulled);
+
+		/* A region that is completely outside of the bounds */
+		region = renderer.render(new Vector2i(5, 5), new RegionFile(Paths.get(URI.create(getClass().getResource("/r.1.3.mca").toString()))));
+		assertFalse(region.getChunkMetadata().isEmpty());
+		for (ChunkMetadata metadata : region.getChunkMetadata().values())
+			assertEquals(ChunkRenderState.CULLED, metadata.getRenderState());
+	}
+
+	/** The preview must show exactly the chunks that the full render contains */
+	@Test
+	public void testPreview() throws IOException, URISyntaxException {
+		RenderSettings settings = new RenderSettings();
+		settings.loadDefaultColors();
+		settings.minX = 30;
+		settings.maxX = 420;
+		RegionRenderer renderer = new RegionRenderer(settings);
+		RegionFile file = new RegionFile(Paths.get(URI.create(getClass().getResource("/r.0.0.mca").toString())));
+		BufferedImage preview = renderer.preview(new Vector2i(0, 0), file);
+		assertEquals(32, preview.getWidth());
+		assertEquals(32, preview.getHeight());
+		Region region = renderer.render(new Vector2i(0, 0), file);
+		for (int x = 0; x < 32; x++)
+			for (int z = 0; z < 32; z++) {
+				ChunkMetadata metadata = region.getChunkMetadata().get(new Vector2i(x, z));
+				boolean exists = metadata != null && metadata.getRenderState() != ChunkRenderState.CULLED;
+				assertEquals(x + " " + z, exists ? RegionRenderer.PREVIEW_COLOR : 0, preview.getRGB(x, z));
+			}
+	}
+
+	/** Interrupting the thread cancels rendering, without clearing the interrupt flag */
+	@Test
+	public void testCancel() throws IOException, URISyntaxException {
+		RenderSettings settings = new RenderSettings();
+		settings.loadDefaultColors();
+		RegionRenderer renderer = new RegionRenderer(settings);
+		RegionFile file = new RegionFile(Paths.get(URI.create(getClass().getResource("/r.0.0.mca").toString())));
+		Thread.currentThread().interrupt();
+		try {
+			assertThrows(CancellationException.class, () -> renderer.render(new Vector2i(0, 0), file));
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+		assertFalse(renderer.render(new Vector2i(0, 0), file).getChunkMetadata().isEmpty());
+
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		assertThrows(CancellationException.class, () -> renderer.render(new Vector2i(0, 0), file, token));
+		assertFalse(Thread.currentThread().isInterrupted());
+		assertFalse(renderer.render(new Vector2i(0, 0), file, new CancellationToken()).getChunkMetadata().isEmpty());
+	}
+
+	/** Statistics are only collected if requested, and all their counts must add up */
+	@Test
+	public void testStatistics() throws IOException, URISyntaxException {
+		RenderSettings settings = new RenderSettings();
+		settings.loadDefaultColors();
+		RegionFile file = new RegionFile(Paths.get(URI.create(getClass().getResource("/r.0.0.mca").toString())));
+		assertFalse(new RegionRenderer(settings).render(new Vector2i(0, 0), file).getStatistics().isPresent());
+
+		settings.collectStatistics = true;
+		Region region = new RegionRenderer(settings).render(new Vector2i(0, 0), file);
+		RegionStatistics statistics = region.getStatistics().get();
+		assertTrue(statistics.getColumns() > 0);
+		assertTrue(statistics.getColumns() <= 512 * 512);
+		assertEquals(statistics.getColumns(), statistics.getTopBlocks().values().stream().mapToLong(Integer::longValue).sum());
+		assertFalse(statistics.getTopBlocks().containsKey("unknown"));
+		assertEquals(region.getChunkMetadata().values().stream().filter(m -> m instanceof ChunkMetadataRendered).count(),
+				statistics.getGenerationStatus().values().stream().mapToLong(Integer::longValue).sum());
+
+		/* Adding statistics to themselves doubles every count */
+		RegionStatistics sum = new RegionStatistics();
+		sum.add(statistics);
+		sum.add(statistics);
+		assertEquals(2 * statistics.getColumns(), sum.getColumns());
+		assertEquals(statistics.getMinHeight(), sum.getMinHeight());
+		for (var e : statistics.getBiomes().entrySet())
+			assertEquals(2 * e.getValue(), (int) sum.getBiomes().get(e.getKey()));
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,173 @@
+package de.piegames.blockmap;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.piegames.blockmap.renderer.CancellationToken;
+import de.piegames.blockmap.renderer.RegionRenderer;
+import de.piegames.blockmap.renderer.RenderSettings;
+import de.piegames.blockmap.standalone.RegionWatcher;
+import de.piegames.blockmap.world.Region;
+import de.piegames.blockmap.world.RegionFolder.CachedRegionFolder;
+import de.piegames.blockmap.world.RegionFolder.LocalRegionFolder;
+import de.piegames.blockmap.world.RegionFolder.WorldRegionFolder;
+import de.piegames.nbt.regionfile.RegionFile;
+
+public class RegionWatcherTest {
+	/* Short enough to keep the tests fast, long enough to tell apart from the polling interval */
+	static final long				DEBOUNCE	= 500, POLL = 50;
+
+	@Rule
+	public TemporaryFolder			folder		= new TemporaryFolder();
+
+	private final Path				source		= Paths.get(URI.create(getClass().getResource("/BlockMapWorld/region").toString()));
+	private final Queue<Vector2ic>	rendered	= new ConcurrentLinkedQueue<>();
+	private final AtomicInteger		saves		= new AtomicInteger();
+	private RegionRenderer			renderer;
+	private Path					regionFolder, out;
+
+	@Before
+	public void setUp() throws IOException {
+		RenderSettings settings = new RenderSettings();
+		settings.loadDefaultColors();
+		renderer = new RegionRenderer(settings) {
+			@Override
+			public Region render(Vector2ic regionPos, RegionFile file, CancellationToken token) {
+				rendered.add(regionPos);
+				return super.render(regionPos, file, token);
+			}
+		};
+		regionFolder = folder.newFolder("region").toPath();
+		out = folder.newFolder("out").toPath();
+	}
+
+	/** A world that starts out empty must pick up its first region, but only once the file stopped changing */
+	@Test
+	public void testPollingDebounce() throws IOException, InterruptedException {
+		WorldRegionFolder world = WorldRegionFolder.load(regionFolder, renderer, false);
+		CachedRegionFolder cached = CachedRegionFolder.create(world, true, out);
+		Vector2ic pos = new Vector2i(0, 1);
+		try (RegionWatcher watcher = new RegionWatcher(1, DEBOUNCE, POLL, 60_000, true)) {
+			watcher.addWorld("test", regionFolder, world, cached, p -> true, saves::incrementAndGet);
+			watcher.start();
+
+			Path file = copy(pos);
+			/* Keep changing the file for longer than the debounce time */
+			for (int i = 0; i < 8; i++) {
+				Thread.sleep(DEBOUNCE / 5);
+				Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			}
+			assertTrue(rendered.isEmpty());
+
+			await(() -> !rendered.isEmpty());
+			/* Nothing changed since, so it must not be rendered again */
+			Thread.sleep(2 * DEBOUNCE);
+			assertEquals(List.of(pos), List.copyOf(rendered));
+			assertTrue(cached.isUpToDate(pos));
+		}
+		assertEquals(1, saves.get());
+	}
+
+	/** Changes that happened after the watch service lost events must still be picked up by the rescan */
+	@Test
+	public void testOverflow() throws IOException, InterruptedException {
+		Vector2ic pos = new Vector2i(0, 1);
+		Path file = copy(pos);
+		WorldRegionFolder world = WorldRegionFolder.load(regionFolder, renderer, false);
+		CachedRegionFolder cached = CachedRegionFolder.create(world, true, out);
+		assertNotNull(cached.render(pos));
+		rendered.clear();
+
+		CountDownLatch changed = new CountDownLatch(1);
+		try (RegionWatcher watcher = new RegionWatcher(1, DEBOUNCE, POLL, 60_000, false) {
+			/* Hold back the events until the changes are done */
+			@Override
+			protected WatchKey nextKey(WatchService watchService) throws InterruptedException {
+				changed.await();
+				return super.nextKey(watchService);
+			}
+		}) {
+			watcher.addWorld("test", regionFolder, world, cached, pos::equals, saves::incrementAndGet);
+			watcher.start();
+
+			/* The watch service only keeps a few hundred events per key, the later ones are replaced with an overflow */
+			for (int i = 0; i < 1000; i++)
+				Files.createFile(regionFolder.resolve("r.100." + i + ".mca"));
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			changed.countDown();
+
+			await(() -> !rendered.isEmpty());
+			assertEquals(List.of(pos), List.copyOf(rendered));
+		}
+	}
+
+	/** Deleted regions must be removed from the cache, with both watch service and polling */
+	@Test
+	public void testDelete() throws IOException, InterruptedException {
+		testDelete(false);
+		rendered.clear();
+		regionFolder = folder.newFolder("region2").toPath();
+		out = folder.newFolder("out2").toPath();
+		testDelete(true);
+	}
+
+	private void testDelete(boolean polling) throws IOException, InterruptedException {
+		Vector2ic kept = new Vector2i(0, 1), deleted = new Vector2i(0, 2);
+		copy(kept);
+		Path file = copy(deleted);
+		WorldRegionFolder world = WorldRegionFolder.load(regionFolder, renderer, false);
+		CachedRegionFolder cached = CachedRegionFolder.create(world, true, out);
+		assertNotNull(cached.render(kept));
+		assertNotNull(cached.render(deleted));
+		cached.save();
+		rendered.clear();
+
+		try (RegionWatcher watcher = new RegionWatcher(1, DEBOUNCE, POLL, 60_000, polling)) {
+			watcher.addWorld("test", regionFolder, world, cached, p -> true, cached::save);
+			watcher.start();
+			Files.delete(file);
+			await(() -> !Files.exists(out.resolve("r.0.2.png")));
+			assertFalse(world.listRegions().contains(deleted));
+			assertFalse(cached.isUpToDate(deleted));
+		}
+		/* Closing the watcher saves the world */
+		assertEquals(Set.of(kept), new LocalRegionFolder(out.resolve("rendered.json.gz")).listRegions());
+		assertTrue(rendered.isEmpty());
+	}
+
+	private Path copy(Vector2ic pos) throws IOException {
+		String name = "r." + pos.x() + "." + pos.y() + ".mca";
+		return Files.copy(source.resolve(name), regionFolder.resolve(name));
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline)
+				fail("Timed out");
+			Thread.sleep(20);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package de.piegames.blockmap;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.joml.Vector2i;
+import org.junit.Test;
+
+import de.piegames.blockmap.world.ChunkBitmap;
+import de.piegames.blockmap.world.RegionFolder;
+import de.piegames.blockmap.world.SlimeChunks;
+
+public class SlimeChunksTest {
+
+	/** The bulk computation must yield exactly what Minecraft calculates for each chunk */
+	@Test
+	public void testBulkMatchesReference() {
+		Random random = new Random(1234);
+		for (long seed : new long[] { 0, -1, 42, random.nextLong(), random.nextLong() }) {
+			for (int regionX = -3; regionX <= 2; regionX++)
+				for (int regionZ = -3; regionZ <= 2; regionZ++) {
+					ChunkBitmap bitmap = SlimeChunks.compute(seed, List.of(new Vector2i(regionX, regionZ)));
+					for (int x = regionX << 5; x < (regionX + 1) << 5; x++)
+						for (int z = regionZ << 5; z < (regionZ + 1) << 5; z++)
+							assertEquals("Seed " + seed + ", chunk " + x + " " + z, SlimeChunks.isSlimeChunk(seed, x, z), bitmap.get(x, z));
+				}
+		}
+		/* Far away from the origin, where the terms overflow */
+		int x = 937_500, z = -937_499;
+		assertEquals(SlimeChunks.isSlimeChunk(42, x, z), SlimeChunks.compute(42, List.of(new Vector2i(x >> 5, z >> 5))).get(x, z));
+	}
+
+	@Test
+	public void testBitmap() {
+		ChunkBitmap bitmap = new ChunkBitmap();
+		bitmap.set(-1, -1);
+		bitmap.set(31, 0);
+		bitmap.set(32, 32);
+		assertTrue(bitmap.get(-1, -1));
+		assertTrue(bitmap.get(31, 0));
+		assertTrue(bitmap.get(32, 32));
+		assertFalse(bitmap.get(0, 0));
+		assertFalse(bitmap.get(-32, -1));
+		assertEquals(3, bitmap.size());
+		assertEquals(3, bitmap.listRegions().size());
+
+		ChunkBitmap loaded = RegionFolder.GSON.fromJson(RegionFolder.GSON.toJson(bitmap), ChunkBitmap.class);
+		assertEquals(bitmap.listRegions(), loaded.listRegions());
+		assertTrue(loaded.get(-1, -1));
+		assertTrue(loaded.get(32, 32));
+		assertEquals(3, loaded.size());
+	}
+}
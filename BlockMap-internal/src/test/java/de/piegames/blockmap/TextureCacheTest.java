@@ -0,0 +1,94 @@
+package de.piegames.blockmap;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joml.AABBd;
+import org.joml.Vector2i;
+import org.junit.Test;
+
+import de.piegames.blockmap.gui.RenderedRegion;
+import de.piegames.blockmap.gui.TextureCache;
+
+public class TextureCacheTest {
+	/* The viewport covers exactly the region at 0, 0 */
+	final AABBd	frustum	= new AABBd(0, 0, 0, 512, 512, 0);
+	/* The memory of a region with all levels, and with only the coarse ones */
+	final long	full	= 4L * Arrays.stream(new int[] { 512, 256, 128, 64, 32, 16 }).map(s -> s * s).sum();
+	final long	coarse	= 4L * (32 * 32 + 16 * 16);
+
+	/** Regions far away from the viewport lose their fine levels, but only if they can be loaded again cheaply */
+	@Test
+	public void testFar() {
+		TextureCache cache = new TextureCache(Long.MAX_VALUE);
+		List<RenderedRegion> regions = createRegions(2, 0);
+		RenderedRegion far = regions.get(0), visible = regions.get(1);
+		cache.trim(regions, frustum);
+		assertTrue(far.isEvicted(0));
+		assertTrue(far.isEvicted(TextureCache.FAR_LEVEL - 1));
+		assertFalse(far.isEvicted(TextureCache.FAR_LEVEL));
+		assertFalse(visible.isEvicted(0));
+
+		regions = createRegions(2, 0);
+		assertEquals(2 * full, cache.trim(regions, frustum, 0, false));
+		for (RenderedRegion region : regions)
+			assertFalse(region.isEvicted(0));
+	}
+
+	/** The regions farthest away are reduced to their coarse levels first, until the budget is met */
+	@Test
+	public void testBudget() {
+		TextureCache cache = new TextureCache(3 * full);
+		List<RenderedRegion> regions = createRegions(4, 3, 2, 0);
+		assertEquals(2 * full + 2 * coarse, cache.trim(regions, frustum, 0, false));
+		assertTrue(regions.get(0).isEvicted(0));
+		assertFalse(regions.get(0).isEvicted(TextureCache.COARSE_LEVEL));
+		assertTrue(regions.get(1).isEvicted(0));
+		assertFalse(regions.get(2).isEvicted(0));
+		assertFalse(regions.get(3).isEvicted(0));
+
+		/* Memory that can't be evicted leaves less for the regions */
+		regions = createRegions(4, 3, 2, 0);
+		assertEquals(full + full + 3 * coarse, cache.trim(regions, frustum, full, false));
+		assertTrue(regions.get(2).isEvicted(0));
+		assertFalse(regions.get(3).isEvicted(0));
+	}
+
+	/** Regions are only evicted completely if they can be loaded again cheaply. Visible regions are never evicted. */
+	@Test
+	public void testEvictCompletely() {
+		TextureCache cache = new TextureCache(0);
+		List<RenderedRegion> regions = createRegions(4, 3, 2, 0);
+		cache.trim(regions, frustum, 0, false);
+		for (RenderedRegion region : regions.subList(0, 3))
+			assertEquals(coarse, region.getMemory());
+		assertEquals(full, regions.get(3).getMemory());
+
+		regions = createRegions(4, 3, 2, 0);
+		assertEquals(full, cache.trim(regions, frustum));
+		for (RenderedRegion region : regions.subList(0, 3)) {
+			assertEquals(0, region.getMemory());
+			assertTrue(region.isEvicted(TextureCache.COARSE_LEVEL));
+		}
+		assertEquals(full, regions.get(3).getMemory());
+	}
+
+	/* Rendered, fully opaque regions in a row, in the given order. The ones created first have been used the longest time ago. */
+	private static List<RenderedRegion> createRegions(int... x) {
+		List<RenderedRegion> regions = new ArrayList<>();
+		for (int i : x) {
+			RenderedRegion region = new RenderedRegion(new Vector2i(i, 0));
+			BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+			int[] pixels = new int[512 * 512];
+			Arrays.fill(pixels, 0xFF204080);
+			image.setRGB(0, 0, 512, 512, pixels, 0, 512);
+			assertNotNull(region.setImage(image));
+			regions.add(region);
+		}
+		return regions;
+	}
+}
@@ -0,0 +1,105 @@
+package de.piegames.blockmap;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.piegames.blockmap.standalone.TilePyramid;
+import de.piegames.blockmap.world.RegionFolder.LocalRegionFolder;
+
+public class TilePyramidTest {
+	/* Older than anything the pyramid will write */
+	static final FileTime		OLD		= FileTime.fromMillis(1000);
+
+	@Rule
+	public TemporaryFolder		folder	= new TemporaryFolder();
+
+	private LocalRegionFolder	world;
+	private Path				out, tiles;
+
+	/**
+	 * A rendered world with plain colored regions. At level 1, (0, 0) and (1, 1) share a tile while (2, 0) and (-1, 3) have one of their
+	 * own. At level 2, all but (-1, 3) share a tile.
+	 */
+	@Before
+	public void createWorld() throws IOException {
+		out = folder.newFolder().toPath();
+		tiles = out.resolve("tiles");
+		StringBuilder regions = new StringBuilder();
+		for (Vector2ic pos : List.of(new Vector2i(0, 0), new Vector2i(1, 1), new Vector2i(2, 0), new Vector2i(-1, 3))) {
+			String name = "r." + pos.x() + "." + pos.y() + ".png";
+			BufferedImage image = new BufferedImage(512, 512, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = image.createGraphics();
+			g.setColor(new Color(0xFF000000 | name.hashCode(), true));
+			g.fillRect(0, 0, 512, 512);
+			g.dispose();
+			ImageIO.write(image, "png", out.resolve(name).toFile());
+			regions.append(regions.length() == 0 ? "" : ",")
+					.append("{\"x\":" + pos.x() + ",\"z\":" + pos.y() + ",\"lastModified\":0,\"image\":\"" + name + "\"}");
+		}
+		try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(out.resolve("rendered.json.gz"))))) {
+			writer.write("{\"regions\":[" + regions + "],\"timestamp\":0,\"isNether\":false}");
+		}
+		world = new LocalRegionFolder(out.resolve("rendered.json.gz"));
+	}
+
+	/** Only the tiles built from a changed region must be generated again, and tiles without any regions must be deleted */
+	@Test
+	public void testIncremental() throws IOException {
+		Vector2ic changed = new Vector2i(0, 0), unchanged = new Vector2i(-1, 3), removed = new Vector2i(2, 0);
+		assertEquals(0, new TilePyramid(world, out, 2).update(world.listRegions()));
+		for (Vector2ic pos : world.listRegions())
+			for (int level = 0; level <= 2; level++)
+				assertTrue(Files.exists(tile(level, pos)));
+
+		/* Mark all generated tiles as old, and give one region a new image. The tiles of level 0 may be links to the region images. */
+		try (Stream<Path> files = Files.walk(tiles)) {
+			for (Path file : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".png") && !p.startsWith(tiles.resolve("0")))::iterator)
+				Files.setLastModifiedTime(file, OLD);
+		}
+		Files.setLastModifiedTime(world.getPath(changed), FileTime.fromMillis(System.currentTimeMillis()));
+		assertEquals(0, new TilePyramid(world, out, 2).update(world.listRegions()));
+		assertNotEquals(OLD, Files.getLastModifiedTime(tile(1, changed)));
+		assertNotEquals(OLD, Files.getLastModifiedTime(tile(2, changed)));
+		assertEquals(OLD, Files.getLastModifiedTime(tile(1, unchanged)));
+		assertEquals(OLD, Files.getLastModifiedTime(tile(2, unchanged)));
+		assertEquals(OLD, Files.getLastModifiedTime(tile(1, removed)));
+
+		/* Drop a region and a level */
+		Set<Vector2ic> regions = new HashSet<>(world.listRegions());
+		regions.remove(removed);
+		assertEquals(0, new TilePyramid(world, out, 1).update(regions));
+		assertFalse(Files.exists(tile(0, removed)));
+		assertFalse(Files.exists(tile(1, removed)));
+		assertFalse(Files.exists(tiles.resolve("2")));
+		assertTrue(Files.exists(tile(1, changed)));
+		assertEquals(OLD, Files.getLastModifiedTime(tile(1, unchanged)));
+	}
+
+	/* The tile at the given level that contains the region */
+	private Path tile(int level, Vector2ic region) {
+		return tiles.resolve(Integer.toString(level)).resolve(Integer.toString(region.x() >> level)).resolve((region.y() >> level) + ".png");
+	}
+}
@@ -0,0 +1,86 @@
+package de.piegames.blockmap;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+
+import org.joml.Vector2i;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.piegames.blockmap.renderer.RegionRenderer;
+import de.piegames.blockmap.renderer.RenderSettings;
+import de.piegames.blockmap.standalone.TileServer;
+import de.piegames.blockmap.world.RegionFolder.CachedRegionFolder;
+import de.piegames.blockmap.world.RegionFolder.RemoteRegionFolder;
+import de.piegames.blockmap.world.RegionFolder.WorldRegionFolder;
+import de.piegames.blockmap.world.ServerMetadata;
+
+public class TileServerTest {
+
+	@Rule
+	public TemporaryFolder	folder	= new TemporaryFolder();
+
+	private TileServer		server;
+	private URI				base;
+	private HttpClient		client	= HttpClient.newHttpClient();
+
+	@Before
+	public void startServer() throws IOException {
+		RenderSettings settings = new RenderSettings();
+		settings.loadDefaultColors();
+		WorldRegionFolder world = WorldRegionFolder.load(
+				Paths.get(URI.create(getClass().getResource("/BlockMapWorld/region").toString())),
+				new RegionRenderer(settings), false);
+		CachedRegionFolder cached = CachedRegionFolder.create(world, true, folder.newFolder().toPath());
+		server = new TileServer(new InetSocketAddress("localhost", 0), 2, 1 << 20, new ServerMetadata());
+		server.addWorld("test world", cached, settings);
+		server.start(3600);
+		base = URI.create("http://localhost:" + server.getAddress().getPort() + "/");
+	}
+
+	@After
+	public void stopServer() {
+		server.stop();
+	}
+
+	@Test
+	public void testRequests() throws IOException, InterruptedException {
+		assertEquals(200, get("index.json", null).statusCode());
+		assertEquals(404, get("test%20world/r.100.100.png", null).statusCode());
+		assertEquals(404, get("other/r.0.1.png", null).statusCode());
+
+		HttpResponse<byte[]> tile = get("test%20world/r.0.1.png", null);
+		assertEquals(200, tile.statusCode());
+		String etag = tile.headers().firstValue("ETag").get();
+		assertTrue(tile.headers().firstValue("Last-Modified").isPresent());
+		assertEquals(304, get("test%20world/r.0.1.png", etag).statusCode());
+		/* Served from the cache this time */
+		assertArrayEquals(tile.body(), get("test%20world/r.0.1.png", null).body());
+	}
+
+	/** The GUI must be able to load the world through the server */
+	@Test
+	public void testRemoteRegionFolder() throws IOException {
+		RemoteRegionFolder remote = new RemoteRegionFolder(base.resolve("test%20world/rendered.json.gz"), true);
+		assertEquals(4, remote.listRegions().size());
+		assertNotNull(remote.render(new Vector2i(-1, 2)));
+		assertFalse(remote.render(new Vector2i(-1, 2)).getChunkMetadata().isEmpty());
+	}
+
+	private HttpResponse<byte[]> get(String path, String etag) throws IOException, InterruptedException {
+		HttpRequest.Builder request = HttpRequest.newBuilder(base.resolve(path));
+		if (etag != null)
+			request.header("If-None-Match", etag);
+		return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+	}
+}